@@ -15,17 +15,30 @@
  */
 package com.eyebrowssoftware.bloa;
 
-import junit.framework.Assert;
+import java.util.HashMap;
+
 import oauth.signpost.OAuthConsumer;
 import oauth.signpost.OAuthProvider;
-import oauth.signpost.commonshttp.CommonsHttpOAuthConsumer;
 import oauth.signpost.commonshttp.CommonsHttpOAuthProvider;
+import oauth.signpost.exception.OAuthException;
+
+import org.apache.http.client.methods.HttpGet;
+
 import android.app.Application;
-import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Process;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.net.Credentials;
+import com.eyebrowssoftware.bloa.net.FetchPolicy;
+import com.eyebrowssoftware.bloa.net.LoginPrewarm;
+import com.eyebrowssoftware.bloa.net.ProfileCache;
+import com.eyebrowssoftware.bloa.net.RateLimit;
+import com.eyebrowssoftware.bloa.net.RequestSigner;
+import com.eyebrowssoftware.bloa.net.SharedHttpClient;
+import com.eyebrowssoftware.bloa.util.CacheRegistry;
 
 public class App extends Application {
     static final String TAG = App.class.toString();
@@ -35,7 +48,11 @@ public class App extends Application {
     public static final String USER_TIMELINE_URL_STRING = "https://api.twitter.com/1.1/statuses/user_timeline.json";
     public static final String HOME_TIMELINE_URL_STRING = "https://api.twitter.com/1.1/statuses/home_timeline.json";
     public static final String FRIENDS_TIMELINE_URL_STRING = "https://api.twitter.com/1.1/statuses/friends_timeline.json";
+    public static final String USERS_LOOKUP_URL_STRING = "https://api.twitter.com/1.1/users/lookup.json";
+    public static final String STATUSES_LOOKUP_URL_STRING = "https://api.twitter.com/1.1/statuses/lookup.json";
     public static final String STATUSES_URL_STRING = "https://api.twitter.com/1.1/statuses/update.json";
+    public static final String MEDIA_UPLOAD_URL_STRING = "https://upload.twitter.com/1.1/media/upload.json";
+    public static final String USER_STREAM_URL_STRING = "https://userstream.twitter.com/1.1/user.json?delimited=length";
 
     public static final String USER_TOKEN = "user_token";
     public static final String USER_SECRET = "user_secret";
@@ -65,7 +82,22 @@ public class App extends Application {
         UserStatusRecord.LATEST_STATUS
     };
 
-    public static final String[] USER_TIMELINE_PROJECTION = USER_STATUS_PROJECTION;
+    // Just what a list row shows, so more rows fit in a CursorWindow. The rest of a status is
+    // fetched by _id with USER_STATUS_DETAIL_PROJECTION when somebody asks for it
+    public static final String[] USER_TIMELINE_PROJECTION = {
+        UserStatusRecord._ID,
+        UserStatusRecord.USER_NAME,
+        UserStatusRecord.USER_TEXT,
+        UserStatusRecord.CREATED_DATE
+    };
+
+    public static final String[] USER_STATUS_DETAIL_PROJECTION = {
+        UserStatusRecord.USER_NAME,
+        UserStatusRecord.USER_TEXT,
+        UserStatusRecord.RECORD_ID,
+        UserStatusRecord.CREATED_DATE,
+        UserStatusRecord.STATUS_ID
+    };
 
     // Use these so you don't have to look up the columns eat time
     public static final int IDX_USER_STATUS_USER_NAME = 0;
@@ -76,92 +108,209 @@ public class App extends Application {
     public static final int IDX_USER_STATUS_CREATED_DATE = 5;
     public static final int IDX_USER_STATUS_LATEST_STATUS = 6;
 
-    public static void saveRequestInformation(SharedPreferences settings, String token, String secret) {
-        // null means to clear the old values
-        SharedPreferences.Editor editor = settings.edit();
-        if(token == null) {
-            editor.remove(App.REQUEST_TOKEN);
-            Log.d(TAG, "Clearing Request Token");
+    public static final int IDX_USER_TIMELINE_ID = 0;
+    public static final int IDX_USER_TIMELINE_USER_NAME = 1;
+    public static final int IDX_USER_TIMELINE_USER_TEXT = 2;
+    public static final int IDX_USER_TIMELINE_CREATED_DATE = 3;
+
+    public static final int IDX_USER_STATUS_DETAIL_USER_NAME = 0;
+    public static final int IDX_USER_STATUS_DETAIL_USER_TEXT = 1;
+    public static final int IDX_USER_STATUS_DETAIL_USER_ID = 2;
+    public static final int IDX_USER_STATUS_DETAIL_CREATED_DATE = 3;
+    public static final int IDX_USER_STATUS_DETAIL_STATUS_ID = 4;
+
+    public static final String STAGE_FIRST_TIMELINE = "first timeline";
+
+    private final StageTrace mStartupTrace = new StageTrace("startup");
+
+    // Lives as long as the process, so what it learns about the network carries across activities
+    private final FetchPolicy mFetchPolicy = new FetchPolicy();
+
+    private final HashMap<String, RateLimit> mRateLimits = new HashMap<String, RateLimit>();
+
+    // Made with the App, before the provider or anything else has a cache to put in it
+    private final CacheRegistry mCacheRegistry = new CacheRegistry();
+
+    // These are made on first use, or by the warm up thread, whichever comes first
+    private Credentials mAppCredentials = null;
+    private OAuthProvider mProvider = null;
+    private TokenStore mTokenStore = null;
+    private ProfileCache mProfileCache = null;
+    private LoginPrewarm mLoginPrewarm = null;
+
+    private KeysProvider mKeysProvider = null;
+
+    private synchronized KeysProvider getKeysProvider() {
+        if (mKeysProvider == null) {
+            // Only works with my code unless you create your own MyKeysProvider class
+            mKeysProvider = new MyKeysProvider();
         }
-        else {
-            editor.putString(App.REQUEST_TOKEN, token);
-            Log.d(TAG, "Saving Request Token: " + token);
+        return mKeysProvider;
+    }
+
+    public synchronized void setKeysProvider(KeysProvider kp) {
+        mKeysProvider = kp;
+        mAppCredentials = null;
+    }
+
+    private synchronized Credentials getAppCredentials() {
+        if (mAppCredentials == null) {
+            mAppCredentials = new Credentials(getKeysProvider().getKey1(), getKeysProvider().getKey2(),
+                    null, null);
         }
-        if (secret == null) {
-            editor.remove(App.REQUEST_SECRET);
-            Log.d(TAG, "Clearing Request Secret");
+        return mAppCredentials;
+    }
+
+    /**
+     * A snapshot of the current credentials. It won't change underneath you if the user logs in or
+     * out, so grab one per request or task.
+     */
+    public Credentials getCredentials() {
+        Credentials app = getAppCredentials();
+        // Hold the store's lock so we don't get the token from one login and the secret from another
+        synchronized (mTokenStore) {
+            return app.withToken(mTokenStore.getUserToken(), mTokenStore.getUserSecret());
         }
-        else {
-            editor.putString(App.REQUEST_SECRET, secret);
-            Log.d(TAG, "Saving Request Secret: " + secret);
+    }
+
+    /**
+     * A snapshot of the credentials for one account, current or not.
+     */
+    public Credentials getCredentials(String account) {
+        Credentials app = getAppCredentials();
+        synchronized (mTokenStore) {
+            return app.withToken(mTokenStore.getUserToken(account), mTokenStore.getUserSecret(account));
         }
-        editor.commit();
+    }
 
+    public RequestSigner getRequestSigner() {
+        return new RequestSigner(getCredentials());
     }
 
-    public static void saveAuthInformation(SharedPreferences settings, String token, String secret) {
-        // null means to clear the old values
-        SharedPreferences.Editor editor = settings.edit();
-        if(token == null) {
-            editor.remove(App.USER_TOKEN);
-            Log.d(TAG, "Clearing OAuth Token");
-        }
-        else {
-            editor.putString(App.USER_TOKEN, token);
-            Log.d(TAG, "Saving OAuth Token: " + token);
-        }
-        if (secret == null) {
-            editor.remove(App.USER_SECRET);
-            Log.d(TAG, "Clearing OAuth Secret");
+    public RequestSigner getRequestSigner(String account) {
+        return new RequestSigner(getCredentials(account));
+    }
+
+    /**
+     * Each account has its own allowance of requests from the server, so each has its own budget.
+     */
+    public RateLimit getRateLimit(String account) {
+        synchronized (mRateLimits) {
+            RateLimit limit = mRateLimits.get(account);
+            if (limit == null) {
+                limit = new RateLimit();
+                mRateLimits.put(account, limit);
+            }
+            return limit;
         }
-        else {
-            editor.putString(App.USER_SECRET, secret);
-            Log.d(TAG, "Saving OAuth Secret: " + secret);
+    }
+
+    /**
+     * A consumer with no token, for the login flow to fill in. The caller owns it.
+     */
+    public OAuthConsumer newOAuthConsumer() {
+        return RequestSigner.newConsumer(getAppCredentials());
+    }
+
+    public synchronized OAuthProvider getOAuthProvider() {
+        if (mProvider == null) {
+            // On the shared pool, so the access token exchange gets the connection the request
+            // token left behind instead of a client of its own
+            mProvider = new CommonsHttpOAuthProvider(
+                App.TWITTER_REQUEST_TOKEN_URL,
+                App.TWITTER_ACCESS_TOKEN_URL,
+                App.TWITTER_AUTHORIZE_URL,
+                SharedHttpClient.get());
+            mProvider.setOAuth10a(true);
         }
-        editor.commit();
+        return mProvider;
+    }
 
+    public TokenStore getTokenStore() {
+        return mTokenStore;
     }
 
-    private OAuthConsumer mConsumer = null;
-    private OAuthProvider mProvider = null;
+    public StageTrace getStartupTrace() {
+        return mStartupTrace;
+    }
 
-    private KeysProvider mKeysProvider = new DefaultKeysProvider();
+    public FetchPolicy getFetchPolicy() {
+        return mFetchPolicy;
+    }
 
-    private KeysProvider getKeysProvider() {
-        return mKeysProvider;
+    public synchronized ProfileCache getProfileCache() {
+        if (mProfileCache == null) {
+            mProfileCache = new ProfileCache(getContentResolver());
+            mCacheRegistry.register("profiles", CacheRegistry.TIER_DATA, mProfileCache);
+        }
+        return mProfileCache;
     }
 
-    public void setKeysProvider(KeysProvider kp) {
-        mKeysProvider = kp;
+    public synchronized LoginPrewarm getLoginPrewarm() {
+        if (mLoginPrewarm == null) {
+            mLoginPrewarm = new LoginPrewarm(this);
+        }
+        return mLoginPrewarm;
     }
 
-    public OAuthConsumer getOAuthConsumer() {
-        return mConsumer;
+    /**
+     * Every in-memory cache should be in here, so it gives memory back when the system asks.
+     */
+    public CacheRegistry getCacheRegistry() {
+        return mCacheRegistry;
     }
 
-    public OAuthProvider getOAuthProvider() {
-        return mProvider;
+    // Only called from Ice Cream Sandwich on
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mCacheRegistry.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mCacheRegistry.onLowMemory();
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        // Only works with my code unless you create your own MyKeysProvider class
-        this.setKeysProvider(new MyKeysProvider());
+        // Nothing in here touches the disk or loads Signpost or HttpClient. That all happens on the
+        // warm up thread, so the first activity can get going.
+        long start = mStartupTrace.start();
+        mTokenStore = new TokenStore(getFilesDir());
+        new Thread(new WarmUp(), "App warm up").start();
+        mStartupTrace.record("App.onCreate", start);
+    }
+
+    private class WarmUp implements Runnable {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-        mConsumer = new CommonsHttpOAuthConsumer(
-                getKeysProvider().getKey1(),
-                getKeysProvider().getKey2());
+            // The one and only time we read the tokens from disk
+            long start = mStartupTrace.start();
+            mTokenStore.load(PreferenceManager.getDefaultSharedPreferences(App.this));
+            mStartupTrace.record("load tokens", start);
 
-        mProvider = new CommonsHttpOAuthProvider(
-            App.TWITTER_REQUEST_TOKEN_URL,
-            App.TWITTER_ACCESS_TOKEN_URL,
-            App.TWITTER_AUTHORIZE_URL);
+            start = mStartupTrace.start();
+            getAppCredentials();
+            mStartupTrace.record("keys", start);
 
-        Assert.assertNotNull(mConsumer);
-        Assert.assertNotNull(mProvider);
+            // Signing once pulls in the Signpost and HttpClient classes before a task needs them
+            start = mStartupTrace.start();
+            try {
+                getRequestSigner().sign(new HttpGet(App.VERIFY_URL_STRING));
+            } catch (OAuthException e) {
+                Log.e(TAG, "Exception warming up the signer", e);
+            }
+            mStartupTrace.record("signer", start);
 
-        mProvider.setOAuth10a(true);
+            start = mStartupTrace.start();
+            getOAuthProvider();
+            mStartupTrace.record("OAuth provider", start);
+        }
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Records how long the named stages of something took, like application startup, so we can see
+ * where the time goes. Stages can be recorded from any thread.
+ */
+public class StageTrace {
+    static final String TAG = StageTrace.class.toString();
+
+    private static class Entry {
+        final String mStage;
+        final String mThread;
+        final long mOffset;
+        final long mDuration;
+
+        Entry(String stage, long offset, long duration) {
+            mStage = stage;
+            mThread = Thread.currentThread().getName();
+            mOffset = offset;
+            mDuration = duration;
+        }
+    }
+
+    private final String mName;
+    private final long mStart;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+
+    public StageTrace(String name) {
+        mName = name;
+        mStart = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Returns a start time to hand to {@link #record(String, long)} when the stage is over.
+     */
+    public long start() {
+        return SystemClock.uptimeMillis();
+    }
+
+    public void record(String stage, long startTime) {
+        long now = SystemClock.uptimeMillis();
+        add(new Entry(stage, startTime - mStart, now - startTime));
+    }
+
+    /**
+     * Records a milestone, like the first frame of content, as the time since the trace started.
+     */
+    public void mark(String stage) {
+        add(new Entry(stage, SystemClock.uptimeMillis() - mStart, 0));
+    }
+
+    public synchronized boolean hasStage(String stage) {
+        for (Entry entry : mEntries) {
+            if (entry.mStage.equals(stage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the offset in milliseconds from the start of the trace to the end of the stage, or -1
+     */
+    public synchronized long getElapsed(String stage) {
+        for (Entry entry : mEntries) {
+            if (entry.mStage.equals(stage)) {
+                return entry.mOffset + entry.mDuration;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void dump() {
+        for (Entry entry : mEntries) {
+            Log.i(TAG, mName + ": " + entry.mStage + " at +" + entry.mOffset + "ms took "
+                    + entry.mDuration + "ms on " + entry.mThread);
+        }
+    }
+
+    private synchronized void add(Entry entry) {
+        mEntries.add(entry);
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Holds the OAuth request token and the user tokens for each account. The copy in memory is the
+ * real one, so reads never touch the disk. Every change is written out on a background thread to a
+ * temporary file which is then renamed over the old one, so a crash in the middle of a write can't
+ * leave us with half a file.
+ *
+ * Accounts are named by the user id at the front of their access token. One of them is the current
+ * account, and the methods that don't take an account are about that one.
+ *
+ * The getters wait for the first load, so the UI thread shouldn't call them until isLoaded() says
+ * they're in. Use runWhenLoaded() to hear about it instead of waiting.
+ */
+public class TokenStore {
+    static final String TAG = TokenStore.class.toString();
+
+    private static final String FILE_NAME = "tokens.properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String ACCOUNTS = "accounts";
+    private static final String CURRENT_ACCOUNT = "current_account";
+    private static final String ACCOUNT_PREFIX = "account.";
+    private static final String TOKEN_SUFFIX = ".token";
+    private static final String SECRET_SUFFIX = ".secret";
+    private static final String NAME_SUFFIX = ".name";
+    private static final String SEPARATOR = ",";
+
+    private static final String[] KEYS = {
+        App.USER_TOKEN,
+        App.USER_SECRET,
+        App.REQUEST_TOKEN,
+        App.REQUEST_SECRET
+    };
+
+    private final File mFile;
+    private final File mTempFile;
+
+    // Guarded by this
+    private final Properties mTokens = new Properties();
+    private boolean mLoaded = false;
+    private long mGeneration = 0;
+    private long mWrittenGeneration = 0;
+    private SharedPreferences mLegacySettings = null;
+    private final List<Runnable> mLoadListeners = new ArrayList<Runnable>();
+
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+    public TokenStore(File directory) {
+        mFile = new File(directory, FILE_NAME);
+        mTempFile = new File(directory, FILE_NAME + TEMP_SUFFIX);
+    }
+
+    /**
+     * Reads the tokens from disk. This is done once, on a background thread, when the application
+     * starts; anybody asking for a token before then waits for it. If we've never written our own
+     * file, the tokens are picked up from the old SharedPreferences location and removed from there
+     * on the next write. Anything waiting in runWhenLoaded() is run afterwards, on this thread.
+     */
+    public void load(SharedPreferences legacySettings) {
+        List<Runnable> listeners = read(legacySettings);
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private synchronized List<Runnable> read(SharedPreferences legacySettings) {
+        mTokens.clear();
+        if (mFile.exists()) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(mFile);
+                mTokens.load(in);
+            } catch (IOException e) {
+                Log.e(TAG, "Exception reading tokens", e);
+                mTokens.clear();
+            } finally {
+                close(in);
+            }
+        } else if (legacySettings != null) {
+            for (String key : KEYS) {
+                String value = legacySettings.getString(key, null);
+                if (value != null) {
+                    mTokens.setProperty(key, value);
+                }
+            }
+            if (!mTokens.isEmpty()) {
+                mLegacySettings = legacySettings;
+                scheduleWrite();
+            }
+        }
+        // From before there were accounts, in either place
+        String token = (String) mTokens.remove(App.USER_TOKEN);
+        String secret = (String) mTokens.remove(App.USER_SECRET);
+        if (token != null && secret != null) {
+            putAccount(token, secret);
+            scheduleWrite();
+        }
+        mLoaded = true;
+        notifyAll();
+        List<Runnable> listeners = new ArrayList<Runnable>(mLoadListeners);
+        mLoadListeners.clear();
+        return listeners;
+    }
+
+    /**
+     * @return true once the tokens are in memory and the getters won't wait
+     */
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Runs r as soon as the tokens are in memory: right here if they already are, or else on the
+     * thread that loads them. Never waits.
+     */
+    public void runWhenLoaded(Runnable r) {
+        synchronized (this) {
+            if (!mLoaded) {
+                mLoadListeners.add(r);
+                return;
+            }
+        }
+        r.run();
+    }
+
+    /**
+     * The account a token belongs to. Twitter's access tokens start with the user id and a dash.
+     */
+    public static String accountOf(String token) {
+        int dash = token.indexOf('-');
+        return (dash > 0) ? token.substring(0, dash) : Integer.toHexString(token.hashCode());
+    }
+
+    public synchronized List<String> getAccounts() {
+        waitForLoad();
+        return split(mTokens.getProperty(ACCOUNTS));
+    }
+
+    /**
+     * @return the current account, or null if there are none
+     */
+    public synchronized String getCurrentAccount() {
+        waitForLoad();
+        return mTokens.getProperty(CURRENT_ACCOUNT);
+    }
+
+    public synchronized void setCurrentAccount(String account) {
+        waitForLoad();
+        if (!getAccounts().contains(account)) {
+            throw new IllegalArgumentException("No account " + account);
+        }
+        mTokens.setProperty(CURRENT_ACCOUNT, account);
+        scheduleWrite();
+    }
+
+    public synchronized String getUserToken(String account) {
+        waitForLoad();
+        return (account == null) ? null : mTokens.getProperty(ACCOUNT_PREFIX + account + TOKEN_SUFFIX);
+    }
+
+    public synchronized String getUserSecret(String account) {
+        waitForLoad();
+        return (account == null) ? null : mTokens.getProperty(ACCOUNT_PREFIX + account + SECRET_SUFFIX);
+    }
+
+    /**
+     * @return the name we show for the account, which is the account itself until we've been told
+     * the user's name
+     */
+    public synchronized String getAccountName(String account) {
+        waitForLoad();
+        return mTokens.getProperty(ACCOUNT_PREFIX + account + NAME_SUFFIX, account);
+    }
+
+    public synchronized void setAccountName(String account, String name) {
+        waitForLoad();
+        if (getAccounts().contains(account) && !name.equals(getAccountName(account))) {
+            mTokens.setProperty(ACCOUNT_PREFIX + account + NAME_SUFFIX, name);
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Adds an account, or replaces its tokens if we have it already, and makes it the current one.
+     *
+     * @return the account
+     */
+    public synchronized String addAccount(String token, String secret) {
+        waitForLoad();
+        String account = putAccount(token, secret);
+        scheduleWrite();
+        return account;
+    }
+
+    /**
+     * Forgets an account. If it was the current one, the first of the others, if any, takes over.
+     */
+    public synchronized void removeAccount(String account) {
+        waitForLoad();
+        List<String> accounts = getAccounts();
+        accounts.remove(account);
+        mTokens.setProperty(ACCOUNTS, join(accounts));
+        mTokens.remove(ACCOUNT_PREFIX + account + TOKEN_SUFFIX);
+        mTokens.remove(ACCOUNT_PREFIX + account + SECRET_SUFFIX);
+        mTokens.remove(ACCOUNT_PREFIX + account + NAME_SUFFIX);
+        if (account.equals(mTokens.getProperty(CURRENT_ACCOUNT))) {
+            if (accounts.isEmpty()) {
+                mTokens.remove(CURRENT_ACCOUNT);
+            } else {
+                mTokens.setProperty(CURRENT_ACCOUNT, accounts.get(0));
+            }
+        }
+        Log.d(TAG, "Removing account " + account);
+        scheduleWrite();
+    }
+
+    public synchronized String getUserToken() {
+        return getUserToken(getCurrentAccount());
+    }
+
+    public synchronized String getUserSecret() {
+        return getUserSecret(getCurrentAccount());
+    }
+
+    public synchronized String getRequestToken() {
+        waitForLoad();
+        return mTokens.getProperty(App.REQUEST_TOKEN);
+    }
+
+    public synchronized String getRequestSecret() {
+        waitForLoad();
+        return mTokens.getProperty(App.REQUEST_SECRET);
+    }
+
+    public synchronized boolean hasAuthInformation() {
+        return getUserToken() != null && getUserSecret() != null;
+    }
+
+    public void saveRequestInformation(String token, String secret) {
+        // null means to clear the old values
+        save(App.REQUEST_TOKEN, token, App.REQUEST_SECRET, secret);
+    }
+
+    /**
+     * Adds the account and makes it current, or with nulls, removes the current account.
+     */
+    public synchronized void saveAuthInformation(String token, String secret) {
+        if (token != null && secret != null) {
+            addAccount(token, secret);
+        } else {
+            String current = getCurrentAccount();
+            if (current != null) {
+                removeAccount(current);
+            }
+        }
+    }
+
+    /**
+     * Blocks until everything saved so far is on disk. Don't call this on the UI thread.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            while (mWrittenGeneration < mGeneration) {
+                wait(TimeUnit.SECONDS.toMillis(1));
+            }
+        }
+    }
+
+    private synchronized void save(String tokenKey, String token, String secretKey, String secret) {
+        waitForLoad();
+        put(tokenKey, token);
+        put(secretKey, secret);
+        scheduleWrite();
+    }
+
+    // Must hold the lock
+    private void waitForLoad() {
+        boolean interrupted = false;
+        while (!mLoaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Must hold the lock
+    private String putAccount(String token, String secret) {
+        String account = accountOf(token);
+        List<String> accounts = split(mTokens.getProperty(ACCOUNTS));
+        if (!accounts.contains(account)) {
+            accounts.add(account);
+            mTokens.setProperty(ACCOUNTS, join(accounts));
+        }
+        mTokens.setProperty(ACCOUNT_PREFIX + account + TOKEN_SUFFIX, token);
+        mTokens.setProperty(ACCOUNT_PREFIX + account + SECRET_SUFFIX, secret);
+        mTokens.setProperty(CURRENT_ACCOUNT, account);
+        Log.d(TAG, "Saving account " + account);
+        return account;
+    }
+
+    private static List<String> split(String s) {
+        List<String> list = new ArrayList<String>();
+        if (s != null && s.length() > 0) {
+            list.addAll(Arrays.asList(s.split(SEPARATOR)));
+        }
+        return list;
+    }
+
+    private static String join(List<String> list) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : list) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private void put(String key, String value) {
+        if (value == null) {
+            mTokens.remove(key);
+            Log.d(TAG, "Clearing " + key);
+        } else {
+            mTokens.setProperty(key, value);
+            Log.d(TAG, "Saving " + key);
+        }
+    }
+
+    // Must hold the lock
+    private void scheduleWrite() {
+        ++mGeneration;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    private void write() {
+        Properties snapshot;
+        long generation;
+        SharedPreferences legacySettings;
+        synchronized (this) {
+            if (mWrittenGeneration >= mGeneration) {
+                // A later write already picked up these changes
+                return;
+            }
+            snapshot = new Properties();
+            snapshot.putAll(mTokens);
+            generation = mGeneration;
+            legacySettings = mLegacySettings;
+        }
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(mTempFile);
+            snapshot.store(out, null);
+            out.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            written = mTempFile.renameTo(mFile);
+            if (!written) {
+                Log.e(TAG, "Couldn't rename " + mTempFile + " to " + mFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Exception writing tokens", e);
+        } finally {
+            close(out);
+        }
+        if (written && legacySettings != null) {
+            SharedPreferences.Editor editor = legacySettings.edit();
+            for (String key : KEYS) {
+                editor.remove(key);
+            }
+            editor.commit();
+        }
+        synchronized (this) {
+            if (written && legacySettings == mLegacySettings) {
+                mLegacySettings = null;
+            }
+            // Even if it failed, we don't retry the same snapshot forever. The next save tries again.
+            mWrittenGeneration = generation;
+            notifyAll();
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Nothing to be done
+            }
+        }
+    }
+}
@@ -15,9 +15,16 @@
  */
 package com.eyebrowssoftware.bloa.activities;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
-
-import oauth.signpost.OAuthConsumer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
@@ -29,17 +36,20 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
+import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.CursorLoader;
@@ -56,11 +66,24 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.eyebrowssoftware.bloa.App;
-import com.eyebrowssoftware.bloa.KeysProvider;
-import com.eyebrowssoftware.bloa.MyKeysProvider;
 import com.eyebrowssoftware.bloa.R;
+import com.eyebrowssoftware.bloa.TokenStore;
+import com.eyebrowssoftware.bloa.data.BloaCommands;
+import com.eyebrowssoftware.bloa.data.StatusEntities;
+import com.eyebrowssoftware.bloa.data.StatusParser;
+import com.eyebrowssoftware.bloa.data.TimelineSnapshot;
+import com.eyebrowssoftware.bloa.data.UserProfiles.UserProfile;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.net.AccountSync;
+import com.eyebrowssoftware.bloa.net.FetchPolicy;
+import com.eyebrowssoftware.bloa.net.MediaUploader;
+import com.eyebrowssoftware.bloa.net.MultipartFileEntity;
+import com.eyebrowssoftware.bloa.net.RequestSigner;
+import com.eyebrowssoftware.bloa.net.StreamingClient;
+import com.eyebrowssoftware.bloa.net.TimelineFetcher;
+import com.eyebrowssoftware.bloa.net.TimelineSelector;
+import com.eyebrowssoftware.bloa.net.TimelineSource;
 
 public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cursor> {
     public static final String TAG = BloaActivity.class.toString();
@@ -70,26 +93,40 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
     private Button mButton;
     private TextView mUser;
     private TextView mLast;
+    private View mProgressGroup;
+    private TextView mProgressText;
+
+    // Tasks showing in the inline progress row, most recent last. The row shows the most recent one
+    private final LinkedHashMap<AsyncTask<?, ?, ?>, CharSequence> mProgress =
+        new LinkedHashMap<AsyncTask<?, ?, ?>, CharSequence>();
 
-    private OAuthConsumer mConsumer = null;
+    private App mApp;
+    private TokenStore mTokenStore;
 
-    private String mToken;
-    private String mSecret;
+    private Cursor mSnapshotTimeline;
 
-    private SharedPreferences mSettings;
+    private static final String STREAMING = "streaming";
+    private static final String ATTACHMENT = "attachment";
 
+    private static final int PICK_ATTACHMENT = 1;
 
-    // You'll need to create this or change the name of DefaultKeysProvider
-    KeysProvider mKeysProvider = new MyKeysProvider();
+    // Live updates, when they're turned on and we're logged in and showing
+    private boolean mStreamingWanted = false;
+    private StreamingClient mStream = null;
+
+    // The picture to go with the next post, and how far its upload got if the last post failed
+    private Uri mAttachment = null;
+    private MediaUploader.Upload mUpload = null;
 
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        setContentView(R.layout.main);
+        mApp = (App) getApplication();
+        long start = mApp.getStartupTrace().start();
 
-        mConsumer = ((App) getApplication()).getOAuthConsumer();
+        setContentView(R.layout.main);
 
         mCB = (CheckBox) this.findViewById(R.id.enable);
         mCB.setChecked(false);
@@ -103,23 +140,187 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
         mUser = (TextView) this.findViewById(R.id.user);
         mLast = (TextView) this.findViewById(R.id.last);
 
-        mSettings = PreferenceManager.getDefaultSharedPreferences(this);
+        mProgressGroup = this.findViewById(R.id.progress_group);
+        mProgressText = (TextView) this.findViewById(R.id.progress_text);
+        this.findViewById(R.id.cancel).setOnClickListener(new CancelButtonClickListener());
+
+        mTokenStore = mApp.getTokenStore();
+
+        if (savedInstanceState != null) {
+            mStreamingWanted = savedInstanceState.getBoolean(STREAMING);
+            mAttachment = savedInstanceState.getParcelable(ATTACHMENT);
+        }
+
+        // Show what we had last time right away. The loaders will catch up
+        TimelineSnapshot snapshot = TimelineSnapshot.read(getFilesDir());
+        if (snapshot != null) {
+            updateUI(snapshot.getUserName(), snapshot.getUserText());
+            mSnapshotTimeline = snapshot.getTimeline();
+            mApp.getStartupTrace().mark("snapshot read");
+        }
 
         getSupportLoaderManager().initLoader(App.BLOA_LOADER_ID, null, (LoaderCallbacks<Cursor>) this);
+        mApp.getStartupTrace().record("BloaActivity.onCreate", start);
 }
 
+    /**
+     * Hands the timeline rows from the startup snapshot to the list, once. The caller owns the cursor.
+     */
+    Cursor takeSnapshotTimeline() {
+        Cursor c = mSnapshotTimeline;
+        mSnapshotTimeline = null;
+        return c;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mSnapshotTimeline != null) {
+            mSnapshotTimeline.close();
+            mSnapshotTimeline = null;
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STREAMING, mStreamingWanted);
+        outState.putParcelable(ATTACHMENT, mAttachment);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == PICK_ATTACHMENT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            mAttachment = data.getData();
+            mUpload = null;
+            Toast.makeText(this, getText(R.string.attached), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        // We don't hold a connection open for an activity nobody can see
+        stopStreaming();
+        super.onPause();
+    }
+
+    private void startStreaming() {
+        // Until the tokens are in, GetCredentialsTask hasn't run, and it starts the stream when it's done
+        if (mStream == null && mStreamingWanted && mTokenStore.isLoaded() && mTokenStore.hasAuthInformation()) {
+            // The stream belongs to the account that was current when it started, even after a switch
+            final String account = mTokenStore.getCurrentAccount();
+            final ContentResolver cr = getContentResolver();
+            mStream = new StreamingClient(Uri.parse(App.USER_STREAM_URL_STRING), mApp.getRequestSigner(account),
+                new StreamingClient.Sink() {
+                    @Override
+                    public void onStatuses(ContentValues[] statuses) {
+                        BloaCommands.ingestPage(cr, account, TimelineSource.HOME.getKey(), statuses,
+                            BloaCommands.DEFAULT_KEEP);
+                    }
+                });
+            mStream.start();
+        }
+    }
+
+    private void stopStreaming() {
+        if (mStream != null) {
+            final StreamingClient stream = mStream;
+            mStream = null;
+            // Stopping waits for the reader thread, so not here
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    stream.stop();
+                }
+            }, "Streaming stop").start();
+        }
+    }
+
     @Override
     public void onResume() {
         super.onResume();
 
-        // We look for saved user keys
-        if(mSettings.contains(App.USER_TOKEN) && mSettings.contains(App.USER_SECRET)) {
-            mToken = mSettings.getString(App.USER_TOKEN, null);
-            mSecret = mSettings.getString(App.USER_SECRET, null);
-            // If we find some we update the consumer with them
-            if(!(mToken == null || mSecret == null)) {
-                mConsumer.setTokenWithSecret(mToken, mSecret);
-                (new GetCredentialsTask()).execute();
+        // We look for saved user keys, once they're in memory. On a cold start they're still being
+        // read on the warm up thread, and we don't wait for the disk here
+        whenTokensLoaded(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinishing()) {
+                    return;
+                }
+                if (mTokenStore.hasAuthInformation()) {
+                    // If we find some we check them out. Each task signs with its own snapshot of them
+                    (new GetCredentialsTask()).execute();
+                } else if (!mCB.isChecked()) {
+                    // Nobody to sign in as, so the login is next; get it going before the box is ticked
+                    mApp.getLoginPrewarm().prewarm();
+                }
+            }
+        });
+    }
+
+    // Runs r on the UI thread once the tokens are loaded, without waiting for them
+    private void whenTokensLoaded(final Runnable r) {
+        if (mTokenStore.isLoaded()) {
+            r.run();
+            return;
+        }
+        mTokenStore.runWhenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                runOnUiThread(r);
+            }
+        });
+    }
+
+    // Nothing here is modal: the list stays usable and fills in as rows arrive
+    private void showProgress(AsyncTask<?, ?, ?> task, CharSequence text) {
+        // Re-putting moves it to the end, so it's the one shown
+        mProgress.remove(task);
+        mProgress.put(task, text);
+        updateProgress();
+    }
+
+    private void setProgressText(AsyncTask<?, ?, ?> task, CharSequence text) {
+        // Not if it's been canceled or finished since; this doesn't change which one is shown
+        if (mProgress.containsKey(task)) {
+            mProgress.put(task, text);
+            updateProgress();
+        }
+    }
+
+    private void hideProgress(AsyncTask<?, ?, ?> task) {
+        mProgress.remove(task);
+        updateProgress();
+    }
+
+    private AsyncTask<?, ?, ?> getShownTask() {
+        AsyncTask<?, ?, ?> last = null;
+        for (AsyncTask<?, ?, ?> task : mProgress.keySet()) {
+            last = task;
+        }
+        return last;
+    }
+
+    private void updateProgress() {
+        AsyncTask<?, ?, ?> task = getShownTask();
+        if (task == null) {
+            mProgressGroup.setVisibility(View.GONE);
+        } else {
+            mProgressText.setText(mProgress.get(task));
+            mProgressGroup.setVisibility(View.VISIBLE);
+        }
+    }
+
+    class CancelButtonClickListener implements OnClickListener {
+        @Override
+        public void onClick(View v) {
+            AsyncTask<?, ?, ?> task = getShownTask();
+            if (task != null) {
+                // Whatever was already stored stays
+                task.cancel(true);
+                hideProgress(task);
             }
         }
     }
@@ -138,13 +339,13 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
     // This is probably overkill for a non-educational program
     class GetCredentialsTask extends AsyncTask<Void, Void, Boolean> {
 
+        final String mAccount = mTokenStore.getCurrentAccount();
+        RequestSigner mSigner = mApp.getRequestSigner(mAccount);
         DefaultHttpClient mClient = new DefaultHttpClient();
-        ProgressDialogFragment mDialog;
 
         @Override
         protected void onPreExecute() {
-            mDialog = ProgressDialogFragment.newInstance(R.string.auth_progress_title, R.string.auth_progress_text);
-            mDialog.show(getSupportFragmentManager(), "auth");
+            showProgress(this, getText(R.string.auth_progress_text));
         }
 
         @Override
@@ -152,10 +353,16 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
             JSONObject jso = null;
             HttpGet get = new HttpGet(App.VERIFY_URL_STRING);
             try {
-                mConsumer.sign(get);
+                // Unqualified URIs, the loaders' included, now mean this account's database
+                BloaCommands.selectAccount(getContentResolver(), mAccount);
+                mSigner.sign(get);
                 String response = mClient.execute(get, new BasicResponseHandler());
                 jso = new JSONObject(response);
-                makeNewUserStatusRecord(parseVerifyUserJSONObject(jso));
+                ContentValues values = StatusParser.parseVerifyUserJSONObject(jso);
+                makeNewUserStatusRecord(values);
+                mTokenStore.setAccountName(mAccount, values.getAsString(UserStatusRecord.USER_NAME));
+                // It's the whole profile, so we may as well keep it
+                mApp.getProfileCache().put(StatusParser.parseUserJSONObject(jso, System.currentTimeMillis()));
                 return true;
             } catch (Exception e) {
                 // Expected if we don't have the proper credentials saved away
@@ -166,56 +373,246 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
         // This is in the UI thread, so we can mess with the UI
         @Override
         protected void onPostExecute(Boolean loggedIn) {
-            mDialog.dismiss();
+            hideProgress(this);
             mCB.setChecked(loggedIn);
             mButton.setEnabled(loggedIn);
             mEditor.setEnabled(loggedIn);
             if (loggedIn) {
-                TimelineSelector ss = new TimelineSelector(App.HOME_TIMELINE_URL_STRING);
-                new GetTimelineTask().execute(ss);
+                fetchTimelines();
+                startStreaming();
             } else {
-                deleteStatusRecord();
-                deleteTimelineRecords();
+                wipeAccount(mAccount);
+                // The checkbox is all there is to do now, so get the login going before it's ticked
+                mApp.getLoginPrewarm().prewarm();
             }
         }
+
+        @Override
+        protected void onCancelled() {
+            hideProgress(this);
+        }
+    }
+
+    private void fetchTimelines() {
+        // Sized so that a page comes back in about the target time on the network we've seen lately
+        int count = mApp.getFetchPolicy().getPageSize();
+        TimelineSelector[] selectors = new TimelineSelector[TimelineSource.ALL.length];
+        for (int i = 0; i < selectors.length; ++i) {
+            selectors[i] = new TimelineSelector(TimelineSource.ALL[i], null, null, count, null);
+        }
+        new GetTimelineTask().execute(selectors);
     }
 
-    private int deleteTimelineRecords() {
-        return getContentResolver().delete(UserStatusRecords.CONTENT_URI, App.USER_TIMELINE_QUERY_WHERE, null);
+    /**
+     * Once the UI has nothing else to do, fetch some older pages so that scrolling back doesn't
+     * have to wait. Only on unmetered networks, and only as deep as the policy thinks is cheap.
+     */
+    private void schedulePrefetch() {
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                FetchPolicy policy = mApp.getFetchPolicy();
+                int depth = policy.getPrefetchDepth(FetchPolicy.isUnmetered(BloaActivity.this));
+                if (depth > 0 && !isFinishing()) {
+                    new PrefetchTask(depth, policy.getPageSize()).execute();
+                }
+                // Once is enough
+                return false;
+            }
+        });
     }
 
-    private void deleteStatusRecord() {
-        getContentResolver().delete(UserStatusRecords.CONTENT_URI, App.USER_STATUS_QUERY_WHERE, null);
+    // They're all stored locally, so this is just a new query
+    private void showTimeline(String timeline) {
+        BloaUserTimelineFragment list = (BloaUserTimelineFragment)
+            getSupportFragmentManager().findFragmentById(R.id.list_fragment);
+        if (list != null) {
+            list.setTimeline(timeline);
+        }
     }
 
-    private ContentValues parseVerifyUserJSONObject(JSONObject object) throws Exception {
-        ContentValues values = new ContentValues();
-        values.put(UserStatusRecord.USER_NAME, object.getString("name"));
-        values.put(UserStatusRecord.RECORD_ID, object.getInt("id_str"));
-        values.put(UserStatusRecord.USER_CREATED_DATE, object.getString("created_at"));
-        JSONObject status = object.getJSONObject("status");
-        values.put(UserStatusRecord.USER_TEXT, status.getString("text"));
-        return values;
+    private void showEntity(String type, String value) {
+        BloaUserTimelineFragment list = (BloaUserTimelineFragment)
+            getSupportFragmentManager().findFragmentById(R.id.list_fragment);
+        if (list != null) {
+            list.showEntity(type, value);
+        }
     }
 
-    private ContentValues parseTimelineJSONObject(JSONObject object) throws Exception {
-        ContentValues values = new ContentValues();
-        JSONObject user = object.getJSONObject("user");
-        values.put(UserStatusRecord.USER_NAME, user.getString("name"));
-        values.put(UserStatusRecord.RECORD_ID, user.getInt("id_str"));
-        values.put(UserStatusRecord.USER_CREATED_DATE, object.getString("created_at"));
-        values.put(UserStatusRecord.USER_TEXT, object.getString("text"));
-        return values;
+    // Mentions are by screen name, which we only know from the profile
+    class MentionsTask extends AsyncTask<Void, Void, String> {
+
+        final String mAccount = mTokenStore.getCurrentAccount();
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                ContentValues profile = mApp.getProfileCache().peek(Long.parseLong(mAccount));
+                return (profile != null) ? profile.getAsString(UserProfile.SCREEN_NAME) : null;
+            } catch (NumberFormatException e) {
+                // Not a user id, so no profile
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String screenName) {
+            if (screenName != null) {
+                showEntity(StatusEntities.TYPE_MENTION, screenName);
+            } else {
+                Toast.makeText(BloaActivity.this, getText(R.string.mentions_unknown), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    // Starts the timelines over. The delete cleans up after itself status by status, which is no
+    // job for the UI thread, so the fetch starts once it's done
+    class RefreshTask extends AsyncTask<Void, Void, Integer> {
+
+        final ContentResolver mCR = getContentResolver();
+
+        @Override
+        protected void onPreExecute() {
+            showProgress(this, getText(R.string.timeline_progress_text));
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return mCR.delete(UserStatusRecords.CONTENT_URI, App.USER_TIMELINE_QUERY_WHERE, null);
+        }
+
+        @Override
+        protected void onPostExecute(Integer deleted) {
+            hideProgress(this);
+            if (!isFinishing()) {
+                fetchTimelines();
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            hideProgress(this);
+        }
+    }
+
+    private void clearList() {
+        BloaUserTimelineFragment list = (BloaUserTimelineFragment)
+            getSupportFragmentManager().findFragmentById(R.id.list_fragment);
+        if (list != null) {
+            list.clear();
+        }
+        updateUI(null, null);
+    }
+
+    // Everything we stored for the account. The screen goes blank now and the storage is reclaimed in
+    // the background, so this is instant however much we had
+    private void wipeAccount(String account) {
+        clearList();
+        new WipeTask(account, mTokenStore.getCurrentAccount()).execute();
+    }
+
+    class WipeTask extends AsyncTask<Void, Void, Void> {
+
+        final ContentResolver mCR = getContentResolver();
+        final File mFilesDir = getFilesDir();
+        final String mAccount;
+        final String mNext;
+
+        WipeTask(String account, String next) {
+            mAccount = account;
+            mNext = next;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            TimelineSnapshot.delete(mFilesDir);
+            if (mAccount != null) {
+                BloaCommands.wipe(mCR, mAccount);
+            }
+            if (mNext != null && !mNext.equals(mAccount)) {
+                BloaCommands.selectAccount(mCR, mNext);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void nada) {
+            if (mNext != null && !mNext.equals(mAccount)) {
+                // Another account took over, so we're still logged in
+                new GetCredentialsTask().execute();
+            }
+        }
+    }
+
+    // Nothing is fetched; the other account's database is already up to date from the last sync
+    private void switchAccount(String account) {
+        if (account.equals(mTokenStore.getCurrentAccount())) {
+            return;
+        }
+        stopStreaming();
+        mTokenStore.setCurrentAccount(account);
+        clearList();
+        new SwitchTask(account).execute();
+    }
+
+    class SwitchTask extends AsyncTask<Void, Void, Void> {
+
+        final ContentResolver mCR = getContentResolver();
+        final File mFilesDir = getFilesDir();
+        final String mAccount;
+
+        SwitchTask(String account) {
+            mAccount = account;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            showProgress(this, getText(R.string.switch_progress_text));
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            TimelineSnapshot.delete(mFilesDir);
+            BloaCommands.selectAccount(mCR, mAccount);
+            TimelineSnapshot.write(mFilesDir, mCR);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void nada) {
+            hideProgress(this);
+            startStreaming();
+        }
+
+        @Override
+        protected void onCancelled() {
+            hideProgress(this);
+        }
+    }
+
+    private void showAccountChooser() {
+        final List<String> accounts = mTokenStore.getAccounts();
+        String current = mTokenStore.getCurrentAccount();
+        CharSequence[] names = new CharSequence[accounts.size()];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = mTokenStore.getAccountName(accounts.get(i));
+        }
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.switch_account)
+            .setSingleChoiceItems(names, accounts.indexOf(current), new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    dialog.dismiss();
+                    switchAccount(accounts.get(which));
+                }
+            })
+            .show();
     }
 
     private void makeNewUserStatusRecord(ContentValues values) {
-        // Delete any existing records for user
-        getContentResolver().delete(UserStatusRecords.CONTENT_URI, App.USER_STATUS_QUERY_WHERE, null);
         try {
-            // Distinguish this as a User Status singleton, regardless of origin
-            values.put(UserStatusRecord.LATEST_STATUS, "true");
-            getContentResolver().insert(UserStatusRecords.CONTENT_URI, values);
-            // Log.d(TAG, "makeNewUserStatusRecord: " + values.toString());
+            // Replaces any existing record for user, in one transaction
+            BloaCommands.replaceStatus(getContentResolver(), values);
         } catch (Exception e) {
             Log.e(TAG, "Exception adding users status record", e);
         }
@@ -240,30 +637,45 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
             if(mCB.isChecked()) {
                 BloaActivity.this.startActivity(new Intent(BloaActivity.this, OAuthActivity.class));
             } else {
-                App.saveAuthInformation(mSettings, null, null);
-                deleteStatusRecord();
-                deleteTimelineRecords();
                 mButton.setEnabled(false);
                 mEditor.setEnabled(false);
                 mEditor.setText(null);
-                updateUI(null, null);
+                // Which account to log out of isn't known until the tokens are in memory, and we
+                // don't wait for the disk here. None of this touches it on this thread either
+                whenTokensLoaded(new Runnable() {
+                    @Override
+                    public void run() {
+                        // If there's another account, it takes over
+                        String account = mTokenStore.getCurrentAccount();
+                        if (account != null) {
+                            mTokenStore.removeAccount(account);
+                        }
+                        stopStreaming();
+                        wipeAccount(account);
+                        if (mTokenStore.getCurrentAccount() == null) {
+                            mApp.getLoginPrewarm().prewarm();
+                        }
+                    }
+                });
             }
             mCB.setChecked(false); // the oauth callback will set it to the proper state
         }
     }
 
     //----------------------------
-    // This task posts a message to your message queue on the service.
-    class PostTask extends AsyncTask<String, Void, JSONObject> {
+    // This task posts a message to your message queue on the service, with the attached picture if
+    // there is one. The picture is uploaded first, straight from its file
+    class PostTask extends AsyncTask<String, Integer, JSONObject> {
 
-        ProgressDialogFragment mDialog;
+        RequestSigner mSigner = mApp.getRequestSigner();
         DefaultHttpClient mClient = new DefaultHttpClient();
-
+        final Uri mPicture = mAttachment;
+        final ContentResolver mCR = getContentResolver();
+        MediaUploader.Upload mPictureUpload = mUpload;
 
         @Override
         protected void onPreExecute() {
-            mDialog = ProgressDialogFragment.newInstance(R.string.tweet_progress_title, R.string.tweet_progress_text);
-            mDialog.show(getSupportFragmentManager(), "auth");
+            showProgress(this, getText(mPicture == null ? R.string.tweet_progress_text : R.string.upload_progress_text));
         }
 
         @Override
@@ -271,108 +683,213 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
 
             JSONObject jso = null;
             try {
+                String mediaId = (mPicture == null) ? null : uploadPicture();
 
                 HttpPost post = new HttpPost(App.STATUSES_URL_STRING);
                 LinkedList<BasicNameValuePair> out = new LinkedList<BasicNameValuePair>();
                 out.add(new BasicNameValuePair("status", params[0]));
+                if (mediaId != null) {
+                    out.add(new BasicNameValuePair("media_ids", mediaId));
+                }
                 post.setEntity(new UrlEncodedFormEntity(out, HTTP.UTF_8));
                 post.setParams(getParams());
                 // sign the request to authenticate
-                mConsumer.sign(post);
+                mSigner.sign(post);
                 String response = mClient.execute(post, new BasicResponseHandler());
                 jso = new JSONObject(response);
-                makeNewUserStatusRecord(parseTimelineJSONObject(jso));
+                makeNewUserStatusRecord(StatusParser.parseTimelineJSONObject(jso));
             } catch (Exception e) {
                 Log.e(TAG, "Post Task Exception", e);
             }
             return jso;
         }
 
+        private String uploadPicture() throws Exception {
+            AssetFileDescriptor afd = mCR.openAssetFileDescriptor(mPicture, "r");
+            FileInputStream in = new FileInputStream(afd.getFileDescriptor());
+            File copy = null;
+            try {
+                FileChannel channel = in.getChannel();
+                long offset = afd.getStartOffset();
+                long length = afd.getLength();
+                if (!isSeekable(channel)) {
+                    // A pipe, from a provider that streams the picture to us. Uploading reads the
+                    // file by position, so it has to be a real file first
+                    copy = File.createTempFile("upload", null, getCacheDir());
+                    length = copy(in, copy);
+                    in.close();
+                    in = new FileInputStream(copy);
+                    channel = in.getChannel();
+                    offset = 0;
+                } else if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    length = channel.size() - offset;
+                }
+                if (mPictureUpload == null) {
+                    String type = mCR.getType(mPicture);
+                    mPictureUpload = new MediaUploader.Upload(offset, length, (type == null) ? "image/jpeg" : type);
+                }
+                return new MediaUploader().upload(mSigner, mPictureUpload, channel,
+                        new MediaUploader.ProgressListener() {
+                    int mPercent = -1;
+
+                    @Override
+                    public void onProgress(long sent, long total) {
+                        int percent = (int) (sent * 100 / Math.max(total, 1));
+                        if (percent != mPercent) {
+                            mPercent = percent;
+                            publishProgress(percent);
+                        }
+                    }
+                });
+            } finally {
+                in.close();
+                afd.close();
+                if (copy != null) {
+                    copy.delete();
+                }
+            }
+        }
+
+        private boolean isSeekable(FileChannel channel) {
+            try {
+                channel.position(channel.position());
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // A buffer at a time, like the upload itself
+        private long copy(InputStream in, File file) throws IOException {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[MultipartFileEntity.BUFFER_SIZE];
+                long total = 0;
+                int count;
+                while ((count = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, count);
+                    total += count;
+                }
+                return total;
+            } finally {
+                out.close();
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... percent) {
+            if (percent[0] < 100) {
+                setProgressText(this, getString(R.string.upload_progress_count, percent[0]));
+            } else {
+                setProgressText(this, getText(R.string.tweet_progress_text));
+            }
+        }
+
         // This is in the UI thread, so we can mess with the UI
         protected void onPostExecute(JSONObject jso) {
-            mDialog.dismiss();
+            hideProgress(this);
             BloaActivity.this.mEditor.setText(null);
+            keepAttachment(jso == null);
         }
-    }
-
-
-    class TimelineSelector extends Object {
-        public String url; // the url to perform the query from
-        // not all these apply to every url - you are responsible
-        public Long since_id; // ids newer than this will be fetched
-        public Long max_id; // ids older than this will be fetched
-        public Integer count; // # of tweets to fetch Max is 200
-        public Integer page; // # of page to fetch (with limits)
 
-        public TimelineSelector(String u) {
-            url = u;
-            max_id = null;
-            since_id = null;
-            count = null;
-            page = null;
+        @Override
+        protected void onCancelled() {
+            // Keep what they typed
+            hideProgress(this);
+            keepAttachment(true);
         }
 
-        public TimelineSelector(String u, Long since, Long max, Integer cnt, Integer pg) {
-            url = u;
-            max_id = max;
-            since_id = since;
-            count = cnt;
-            page = pg;
+        // If it didn't go, the next try picks the upload up where this one left off
+        private void keepAttachment(boolean keep) {
+            if (mAttachment == mPicture) {
+                mAttachment = keep ? mPicture : null;
+                mUpload = keep ? mPictureUpload : null;
+            }
         }
     }
 
-    class GetTimelineTask extends AsyncTask<TimelineSelector, Void, Void> {
 
-        ProgressDialogFragment mDialog;
-        DefaultHttpClient mClient = new DefaultHttpClient();
+    class GetTimelineTask extends AsyncTask<TimelineSelector, Integer, Void> {
+
+        final AtomicInteger mStored = new AtomicInteger();
 
         @Override
         protected void onPreExecute() {
-            mDialog = ProgressDialogFragment.newInstance(R.string.timeline_progress_title, R.string.timeline_progress_text);
-            mDialog.show(BloaActivity.this.getSupportFragmentManager(), "auth");
+            showProgress(this, getText(R.string.timeline_progress_text));
         }
 
         @Override
         protected Void doInBackground(TimelineSelector... params) {
-            JSONArray array = null;
-            try {
-                Uri sUri = Uri.parse(params[0].url);
-                Uri.Builder builder = sUri.buildUpon();
-                if(params[0].since_id != null) {
-                    builder.appendQueryParameter("since_id", String.valueOf(params[0].since_id));
-                } else if (params[0].max_id != null) { // these are mutually exclusive
-                    builder.appendQueryParameter("max_id", String.valueOf(params[0].max_id));
-                }
-                if(params[0].count != null) {
-                    builder.appendQueryParameter("count", String.valueOf((params[0].count > 200) ? 200 : params[0].count));
-                }
-                if(params[0].page != null) {
-                    builder.appendQueryParameter("page", String.valueOf(params[0].page));
+            // The list picks up each chunk as it's committed; this is just for the progress row
+            TimelineFetcher.Listener listener = new TimelineFetcher.Listener() {
+                @Override
+                public void onChunkStored(TimelineSource source, int count) {
+                    publishProgress(mStored.addAndGet(count));
                 }
-                HttpGet get = new HttpGet(builder.build().toString());
-                mConsumer.sign(get);
-                String response = mClient.execute(get, new BasicResponseHandler());
-                array = new JSONArray(response);
-                // Delete the existing timeline
-                ContentValues[] values = new ContentValues[array.length()];
-                for(int i = 0; i < array.length(); ++i) {
-                    JSONObject status = array.getJSONObject(i);
-                    // Log.d(TAG, status.toString());
-                    values[i] = parseTimelineJSONObject(status);
-                }
-                getContentResolver().bulkInsert(UserStatusRecords.CONTENT_URI, values);
+            };
+            try {
+                // All the timelines for all the accounts at once. Only the current one shows progress
+                new AccountSync(mApp, getContentResolver()).syncAll(params, listener);
+                TimelineSnapshot.write(getFilesDir(), getContentResolver());
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Get Timeline canceled after " + mStored.get());
             } catch (Exception e) {
                 Log.e(TAG, "Get Timeline Exception", e);
             }
             return null;
         }
 
+        @Override
+        protected void onProgressUpdate(Integer... stored) {
+            setProgressText(this, getString(R.string.timeline_progress_count, stored[stored.length - 1]));
+        }
+
         // This is in the UI thread, so we can mess with the UI
         @Override
         protected void onPostExecute(Void nada) {
-            mDialog.dismiss();
+            hideProgress(this);
+            schedulePrefetch();
         }
-}
+
+        @Override
+        protected void onCancelled() {
+            hideProgress(this);
+        }
+    }
+
+    class PrefetchTask extends AsyncTask<Void, Void, Integer> {
+
+        final int mDepth;
+        final int mCount;
+        final FetchPolicy mPolicy = mApp.getFetchPolicy();
+        final String mAccount = mTokenStore.getCurrentAccount();
+        final RequestSigner mSigner = mApp.getRequestSigner(mAccount);
+
+        PrefetchTask(int depth, int count) {
+            mDepth = depth;
+            mCount = count;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            try {
+                TimelineFetcher fetcher = new TimelineFetcher(getContentResolver(), mAccount, mPolicy,
+                    mApp.getRateLimit(mAccount));
+                // Nobody's waiting for these, so they don't get to spend the last of the limit
+                fetcher.setBackground(true);
+                fetcher.setProfileCache(mApp.getProfileCache());
+                return fetcher.prefetch(mSigner, TimelineSource.ALL, mDepth, mCount);
+            } catch (Exception e) {
+                Log.e(TAG, "Prefetch Exception", e);
+            }
+            return 0;
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            Log.d(TAG, "Prefetched " + count + " older statuses");
+        }
+    }
 
     @Override
     public Loader<Cursor> onCreateLoader(int loaderId, Bundle savedValues) {
@@ -415,13 +932,54 @@ public class BloaActivity extends FragmentActivity implements LoaderCallbacks<Cu
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        menu.findItem(R.id.stream_timeline).setChecked(mStreamingWanted);
+        menu.findItem(R.id.switch_account).setVisible(mTokenStore.isLoaded() && mTokenStore.getAccounts().size() > 1);
+        menu.findItem(R.id.attach_picture).setEnabled(mEditor.isEnabled());
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
         case R.id.refresh_timeline:
-            deleteTimelineRecords();
-            TimelineSelector ss = new TimelineSelector(App.HOME_TIMELINE_URL_STRING);
-            new GetTimelineTask().execute(ss);
+            new RefreshTask().execute();
+            return true;
+        case R.id.stream_timeline:
+            mStreamingWanted = !mStreamingWanted;
+            item.setChecked(mStreamingWanted);
+            if (mStreamingWanted) {
+                startStreaming();
+            } else {
+                stopStreaming();
+            }
+            return true;
+        case R.id.view_home_timeline:
+            showTimeline(UserStatusRecords.TIMELINE_HOME);
+            return true;
+        case R.id.view_user_timeline:
+            showTimeline(UserStatusRecords.TIMELINE_USER);
+            return true;
+        case R.id.view_friends_timeline:
+            showTimeline(UserStatusRecords.TIMELINE_FRIENDS);
+            return true;
+        case R.id.view_mentions:
+            if (mTokenStore.isLoaded() && mTokenStore.hasAuthInformation()) {
+                new MentionsTask().execute();
+            }
+            return true;
+        case R.id.switch_account:
+            showAccountChooser();
+            return true;
+        case R.id.add_account:
+            startActivity(new Intent(this, OAuthActivity.class));
+            return true;
+        case R.id.attach_picture:
+            Intent pick = new Intent(Intent.ACTION_GET_CONTENT);
+            pick.setType("image/*");
+            startActivityForResult(Intent.createChooser(pick, getText(R.string.attach_picture)), PICK_ATTACHMENT);
             return true;
         default:
             return false;
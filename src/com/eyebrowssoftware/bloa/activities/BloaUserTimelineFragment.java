@@ -15,29 +15,155 @@
  */
 package com.eyebrowssoftware.bloa.activities;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
-import android.support.v4.widget.SimpleCursorAdapter;
+import android.support.v4.widget.CursorAdapter;
+import android.text.SpannableStringBuilder;
+import android.text.format.DateUtils;
+import android.text.method.LinkMovementMethod;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ListView;
+import android.widget.TextView;
 
 import com.eyebrowssoftware.bloa.App;
 import com.eyebrowssoftware.bloa.R;
+import com.eyebrowssoftware.bloa.StageTrace;
+import com.eyebrowssoftware.bloa.data.StatusEntities;
+import com.eyebrowssoftware.bloa.data.UserProfiles.UserProfile;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.net.ConversationFetcher;
+import com.eyebrowssoftware.bloa.util.CacheRegistry;
+import com.eyebrowssoftware.bloa.util.RelativeTimeCache;
+import com.eyebrowssoftware.bloa.util.StatusTextFormatter;
 
 public class BloaUserTimelineFragment extends ListFragment implements LoaderCallbacks<Cursor> {
 
-    private static final int[] IDS = {
-        android.R.id.text1,
-        android.R.id.text2
+    static final String TAG = BloaUserTimelineFragment.class.toString();
+
+    private static final String TIMELINE = "timeline";
+    private static final String ENTITY_TYPE = "entity_type";
+    private static final String ENTITY_VALUE = "entity_value";
+
+    // Not worth a column each; decoded from the stored JSON when the detail is shown
+    private static final String[] COUNTS_PROJECTION = {
+        "retweet_count",
+        "favorite_count"
+    };
+
+    private static final String[] CONVERSATION_PROJECTION = {
+        UserStatusRecord.USER_NAME,
+        UserStatusRecord.USER_TEXT
     };
 
+    private static final long UPDATE_THROTTLE_MS = 250;
+
+    // Statuses with an entity are paged by status id, so a page costs the same however far back
+    private static final int ENTITY_PAGE_SIZE = 50;
+    // Start on the next page this many rows before the end of the list
+    private static final int ENTITY_PAGE_AHEAD = 10;
+
+    // The timeline columns, and the status id that the next page starts from
+    private static final String[] ENTITY_PROJECTION = {
+        UserStatusRecord._ID,
+        UserStatusRecord.USER_NAME,
+        UserStatusRecord.USER_TEXT,
+        UserStatusRecord.CREATED_DATE,
+        UserStatusRecord.STATUS_ID
+    };
+
+    // The rows from the startup snapshot, which we own, until the loader's cursor replaces them
+    private Cursor mSnapshot;
+
+    private String mTimeline = UserStatusRecords.TIMELINE_HOME;
+    // Instead of the timeline, the statuses with this entity
+    private String mEntityType = null;
+    private String mEntityValue = null;
+    // The first page of an entity is the loader's; the older ones are ours, in order
+    private Cursor mFirstPage;
+    private final List<Cursor> mOlderPages = new ArrayList<Cursor>();
+    private EntityPageTask mPageTask;
+    private boolean mLastPage = false;
+
+    private StatusTextFormatter mFormatter;
+    private RelativeTimeCache mTimeCache;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (savedInstanceState != null) {
+            mTimeline = savedInstanceState.getString(TIMELINE);
+            mEntityType = savedInstanceState.getString(ENTITY_TYPE);
+            mEntityValue = savedInstanceState.getString(ENTITY_VALUE);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(TIMELINE, mTimeline);
+        outState.putString(ENTITY_TYPE, mEntityType);
+        outState.putString(ENTITY_VALUE, mEntityValue);
+    }
+
+    /**
+     * Shows a different timeline. They're all kept locally, so this doesn't go to the network.
+     */
+    public void setTimeline(String timeline) {
+        if (!timeline.equals(mTimeline) || mEntityType != null) {
+            mTimeline = timeline;
+            mEntityType = null;
+            mEntityValue = null;
+            closeOlderPages();
+            getLoaderManager().restartLoader(App.LIST_LOADER_ID, null, this);
+        }
+    }
+
+    /**
+     * Shows every status we have with a hashtag, mention or link, from whatever timeline.
+     *
+     * @param type one of the StatusEntities types
+     */
+    public void showEntity(String type, String value) {
+        mEntityType = type;
+        mEntityValue = value;
+        closeOlderPages();
+        getLoaderManager().restartLoader(App.LIST_LOADER_ID, null, this);
+    }
+
+    /**
+     * Shows nothing, right away, as when the user logs out. The loader catches up once the data is
+     * really gone.
+     */
+    public void clear() {
+        CursorAdapter adapter = (CursorAdapter) this.getListAdapter();
+        if (adapter != null) {
+            adapter.swapCursor(null);
+        }
+        mFirstPage = null;
+        closeOlderPages();
+        closeSnapshot();
+        // The next rows are from another database, or a new one, where the ids mean something else
+        if (mFormatter != null) {
+            mFormatter.clear();
+        }
     }
 
     @Override
@@ -45,27 +171,338 @@ public class BloaUserTimelineFragment extends ListFragment implements LoaderCall
         super.onActivityCreated(savedInstanceState);
         this.setEmptyText(this.getString(R.string.empty));
         // No cursor yet. Will be assigned when the CursorLoader query is complete
-        SimpleCursorAdapter adapter = new SimpleCursorAdapter(this.getActivity(),
-            android.R.layout.simple_list_item_2, null, App.USER_STATUS_PROJECTION, IDS, 0);
+        mFormatter = new StatusTextFormatter();
+        TimelineAdapter adapter = new TimelineAdapter(this.getActivity(), mFormatter);
         setListAdapter(adapter);
+        mTimeCache = adapter.getTimeCache();
+        CacheRegistry caches = ((App) getActivity().getApplication()).getCacheRegistry();
+        caches.register("formatted text", CacheRegistry.TIER_UI, mFormatter);
+        caches.register("relative times", CacheRegistry.TIER_UI, mTimeCache);
+        if (getActivity() instanceof BloaActivity) {
+            mSnapshot = ((BloaActivity) getActivity()).takeSnapshotTimeline();
+            if (!UserStatusRecords.TIMELINE_HOME.equals(mTimeline) || mEntityType != null) {
+                // The snapshot is of the home timeline
+                closeSnapshot();
+            }
+            if (mSnapshot != null) {
+                adapter.swapCursor(mSnapshot);
+                ((App) getActivity().getApplication()).getStartupTrace().mark("snapshot timeline");
+            }
+        }
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisible, int visibleCount, int totalCount) {
+                if (firstVisible + visibleCount + ENTITY_PAGE_AHEAD >= totalCount) {
+                    loadOlderPage();
+                }
+            }
+        });
         // Set up our cursor loader. It manages the cursors from now on
         getLoaderManager().initLoader(App.LIST_LOADER_ID, null, this);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int loaderId, Bundle arguments) {
-        return new CursorLoader(getActivity(), UserStatusRecords.CONTENT_URI,
-            App.USER_STATUS_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null,
-            UserStatusRecord.DEFAULT_SORT_ORDER);
+        CursorLoader loader;
+        if (mEntityType != null) {
+            // In the provider's own order, straight down the entity index
+            loader = new CursorLoader(getActivity(),
+                StatusEntities.entityPageUri(mEntityType, mEntityValue, null, ENTITY_PAGE_SIZE),
+                ENTITY_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null, null);
+        } else {
+            loader = new CursorLoader(getActivity(), UserStatusRecords.timelineUri(mTimeline),
+                App.USER_TIMELINE_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null,
+                UserStatusRecord.DEFAULT_SORT_ORDER);
+        }
+        // Timelines come in a chunk at a time. The first chunk shows right away, but we don't
+        // requery for every one after that while they're pouring in
+        loader.setUpdateThrottle(UPDATE_THROTTLE_MS);
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        ((SimpleCursorAdapter) this.getListAdapter()).swapCursor(cursor);
+        if (mEntityType != null) {
+            // The older pages follow on from the last row of the first. If that's moved, they don't
+            if (cursor == null || lastStatusId(cursor) != lastStatusId(mFirstPage)) {
+                closeOlderPages();
+            }
+            mFirstPage = cursor;
+            if (mOlderPages.isEmpty()) {
+                mLastPage = (cursor == null || cursor.getCount() < ENTITY_PAGE_SIZE);
+            }
+            showPages();
+        } else {
+            mFirstPage = null;
+            ((CursorAdapter) this.getListAdapter()).swapCursor(cursor);
+        }
+        closeSnapshot();
+        StageTrace trace = ((App) getActivity().getApplication()).getStartupTrace();
+        if (!trace.hasStage(App.STAGE_FIRST_TIMELINE)) {
+            trace.mark(App.STAGE_FIRST_TIMELINE);
+            trace.dump();
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> arg0) {
-        ((SimpleCursorAdapter) this.getListAdapter()).swapCursor(null);
+        ((CursorAdapter) this.getListAdapter()).swapCursor(null);
+        mFirstPage = null;
+        closeOlderPages();
+        closeSnapshot();
+    }
+
+    private void showPages() {
+        Cursor cursor = mFirstPage;
+        if (cursor != null && !mOlderPages.isEmpty()) {
+            Cursor[] pages = new Cursor[mOlderPages.size() + 1];
+            pages[0] = mFirstPage;
+            for (int i = 0; i < mOlderPages.size(); ++i) {
+                pages[i + 1] = mOlderPages.get(i);
+            }
+            // Not closed when it's swapped out; the pages in it are closed on their own
+            cursor = new MergeCursor(pages);
+        }
+        ((CursorAdapter) this.getListAdapter()).swapCursor(cursor);
+    }
+
+    private static long lastStatusId(Cursor page) {
+        if (page == null || page.isClosed() || !page.moveToLast()) {
+            return -1;
+        }
+        return page.getLong(page.getColumnIndexOrThrow(UserStatusRecord.STATUS_ID));
+    }
+
+    // The next page starts after the last row we have
+    private void loadOlderPage() {
+        if (mEntityType == null || mFirstPage == null || mLastPage || mPageTask != null) {
+            return;
+        }
+        Cursor last = mOlderPages.isEmpty() ? mFirstPage : mOlderPages.get(mOlderPages.size() - 1);
+        long before = lastStatusId(last);
+        if (before < 0) {
+            return;
+        }
+        mPageTask = new EntityPageTask(StatusEntities.entityPageUri(mEntityType, mEntityValue, before,
+            ENTITY_PAGE_SIZE));
+        mPageTask.execute();
+    }
+
+    private void closeOlderPages() {
+        // A page that's on its way is closed when it gets here, since it's not ours any more
+        mPageTask = null;
+        for (Cursor page : mOlderPages) {
+            page.close();
+        }
+        mOlderPages.clear();
+        mLastPage = false;
+    }
+
+    class EntityPageTask extends AsyncTask<Void, Void, Cursor> {
+
+        final ContentResolver mCR = getActivity().getContentResolver();
+        final Uri mUri;
+
+        EntityPageTask(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            Cursor c = mCR.query(mUri, ENTITY_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null, null);
+            if (c != null) {
+                // Fill the window here rather than on the UI thread
+                c.getCount();
+            }
+            return c;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor page) {
+            if (mPageTask != this || !isAdded()) {
+                if (page != null) {
+                    page.close();
+                }
+                return;
+            }
+            mPageTask = null;
+            if (page == null) {
+                return;
+            }
+            mLastPage = page.getCount() < ENTITY_PAGE_SIZE;
+            if (page.getCount() == 0) {
+                page.close();
+                return;
+            }
+            mOlderPages.add(page);
+            showPages();
+        }
+    }
+
+    @Override
+    public void onListItemClick(ListView l, View v, int position, long id) {
+        // The list only has what it shows, so go back for the rest
+        new StatusDetailTask().execute(id);
+    }
+
+    // The status, and who wrote it if we could find out
+    static class StatusDetail {
+        Cursor cursor;
+        ContentValues author;
+        String[] counts;
+    }
+
+    class StatusDetailTask extends AsyncTask<Long, Void, StatusDetail> {
+
+        final ContentResolver mCR = getActivity().getContentResolver();
+        final App mApp = (App) getActivity().getApplication();
+
+        @Override
+        protected StatusDetail doInBackground(Long... ids) {
+            StatusDetail detail = new StatusDetail();
+            detail.cursor = mCR.query(ContentUris.withAppendedId(UserStatusRecords.CONTENT_URI, ids[0]),
+                App.USER_STATUS_DETAIL_PROJECTION, null, null, null);
+            // Fill the window here rather than on the UI thread
+            if (detail.cursor != null && detail.cursor.moveToFirst()) {
+                // Usually already cached; otherwise one lookup
+                detail.author = mApp.getProfileCache().get(mApp.getRequestSigner(),
+                    detail.cursor.getLong(App.IDX_USER_STATUS_DETAIL_USER_ID));
+                if (!detail.cursor.isNull(App.IDX_USER_STATUS_DETAIL_STATUS_ID)) {
+                    detail.counts = queryCounts(detail.cursor.getLong(App.IDX_USER_STATUS_DETAIL_STATUS_ID));
+                }
+            }
+            return detail;
+        }
+
+        private String[] queryCounts(long statusId) {
+            Cursor c = mCR.query(UserStatusRecords.payloadUri(statusId), COUNTS_PROJECTION, null, null, null);
+            if (c == null) {
+                return null;
+            }
+            try {
+                return (c.moveToFirst() && !c.isNull(0) && !c.isNull(1))
+                    ? new String[] { c.getString(0), c.getString(1) } : null;
+            } finally {
+                c.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(StatusDetail detail) {
+            Cursor c = detail.cursor;
+            if (c == null) {
+                return;
+            }
+            try {
+                if (c.moveToFirst() && isAdded()) {
+                    showDetail(c, detail.author, detail.counts);
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    private void showDetail(Cursor c, ContentValues author, String[] counts) {
+        StringBuilder message = new StringBuilder();
+        if (author != null) {
+            message.append(getString(R.string.profile_summary, author.getAsString(UserProfile.SCREEN_NAME),
+                author.getAsInteger(UserProfile.FOLLOWERS_COUNT)));
+            message.append("\n");
+        }
+        if (counts != null) {
+            message.append(getString(R.string.status_counts, counts[0], counts[1]));
+            message.append("\n");
+        }
+        message.append(DateUtils.formatDateTime(getActivity(),
+            c.getLong(App.IDX_USER_STATUS_DETAIL_CREATED_DATE),
+            DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_SHOW_YEAR));
+        message.append("\n\n");
+        SpannableStringBuilder text = new SpannableStringBuilder(message);
+        String status = c.getString(App.IDX_USER_STATUS_DETAIL_USER_TEXT);
+        if (status != null) {
+            text.append(StatusTextFormatter.format(status));
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity())
+            .setTitle(c.getString(App.IDX_USER_STATUS_DETAIL_USER_NAME))
+            .setMessage(text)
+            .setPositiveButton(android.R.string.ok, null);
+        if (!c.isNull(App.IDX_USER_STATUS_DETAIL_STATUS_ID)) {
+            final long statusId = c.getLong(App.IDX_USER_STATUS_DETAIL_STATUS_ID);
+            builder.setNeutralButton(R.string.conversation, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    new ConversationTask().execute(statusId);
+                }
+            });
+        }
+        AlertDialog dialog = builder.show();
+        // Makes the links in the text work
+        ((TextView) dialog.findViewById(android.R.id.message)).setMovementMethod(LinkMovementMethod.getInstance());
+    }
+
+    class ConversationTask extends AsyncTask<Long, Void, CharSequence[]> {
+
+        final ContentResolver mCR = getActivity().getContentResolver();
+        final App mApp = (App) getActivity().getApplication();
+
+        @Override
+        protected CharSequence[] doInBackground(Long... ids) {
+            try {
+                // Only what we don't have yet, all the way back, a batch a step
+                new ConversationFetcher(mCR, null).fetchAncestors(mApp.getRequestSigner(), ids[0]);
+            } catch (Exception e) {
+                Log.e(TAG, "Exception fetching conversation", e);
+            }
+            Cursor c = mCR.query(UserStatusRecords.conversationUri(ids[0]), CONVERSATION_PROJECTION,
+                null, null, null);
+            if (c == null) {
+                return null;
+            }
+            try {
+                CharSequence[] items = new CharSequence[c.getCount()];
+                for (int i = 0; c.moveToNext(); ++i) {
+                    items[i] = c.getString(0) + ": " + c.getString(1);
+                }
+                return items;
+            } finally {
+                c.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(CharSequence[] items) {
+            if (items != null && isAdded()) {
+                new AlertDialog.Builder(getActivity())
+                    .setTitle(R.string.conversation)
+                    .setItems(items, null)
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+            }
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        closeOlderPages();
+        closeSnapshot();
+        if (mFormatter != null) {
+            CacheRegistry caches = ((App) getActivity().getApplication()).getCacheRegistry();
+            caches.unregister(mFormatter);
+            caches.unregister(mTimeCache);
+            mFormatter.shutdown();
+        }
+        super.onDestroy();
+    }
+
+    private void closeSnapshot() {
+        if (mSnapshot != null) {
+            mSnapshot.close();
+            mSnapshot = null;
+        }
     }
 }
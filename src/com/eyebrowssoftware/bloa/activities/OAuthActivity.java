@@ -21,24 +21,27 @@ import oauth.signpost.OAuthConsumer;
 import oauth.signpost.OAuthProvider;
 import android.app.Activity;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.eyebrowssoftware.bloa.App;
 import com.eyebrowssoftware.bloa.R;
+import com.eyebrowssoftware.bloa.StageTrace;
+import com.eyebrowssoftware.bloa.TokenStore;
+import com.eyebrowssoftware.bloa.net.LoginPrewarm;
 
 public class OAuthActivity extends Activity {
     private static final String TAG = OAuthActivity.class.toString();
 
-    SharedPreferences mSettings;
+    TokenStore mTokenStore;
     OAuthProvider mProvider;
     OAuthConsumer mConsumer;
     Intent mIntent;
     App mApp;
+    LoginPrewarm mPrewarm;
+    StageTrace mTrace;
 
     @Override
     public void onCreate(Bundle icicle) {
@@ -46,16 +49,19 @@ public class OAuthActivity extends Activity {
 
         setContentView(R.layout.progress_view);
 
-        mSettings = PreferenceManager.getDefaultSharedPreferences(this);
-
         mApp = (App) this.getApplication();
+        mTokenStore = mApp.getTokenStore();
         mProvider = mApp.getOAuthProvider();
-        mConsumer = mApp.getOAuthConsumer();
+        // This consumer belongs to the login flow alone. Nobody else signs with it
+        mConsumer = mApp.newOAuthConsumer();
         Assert.assertNotNull(mProvider);
         Assert.assertNotNull(mConsumer);
+        mPrewarm = mApp.getLoginPrewarm();
+        mTrace = mPrewarm.getTrace();
 
         mIntent = this.getIntent();
         if (mIntent.getData() == null) {
+            mTrace.mark("login asked for");
             try {
                 (new RetrieveRequestTokenTask()).execute(new Void[0]);
             } catch (Exception e) {
@@ -72,30 +78,23 @@ public class OAuthActivity extends Activity {
         Log.d(TAG, "onNewIntent() called");
         Uri uri = intent.getData();
         if (uri != null) {
-            // Get the stuff we saved in the async task so we can confirm that it all matches up
-
-            String token = mSettings.getString(App.REQUEST_TOKEN, null);
-            String secret = mSettings.getString(App.REQUEST_SECRET, null);
+            mTrace.mark("callback");
 
             // Intent i = new Intent(this, BloaActivity.class); // Currently how we get back to the main activity
 
-            if (token == null || secret == null) {
-                throw new IllegalStateException("We should have saved!");
-            }
             String otoken = uri.getQueryParameter(OAuth.OAUTH_TOKEN);
             if (otoken != null) {
-                // This is a sanity check which should never fail - hence the assertion
-                Assert.assertEquals(otoken, mConsumer.getToken());
-
                 // We send out and save the request token, but the secret is not the same as the verifier
                 // Apparently, the verifier is decoded to get the secret, which is then compared - crafty
                 String verifier = uri.getQueryParameter(OAuth.OAUTH_VERIFIER);
 
-                // We do this in a task now or get an automatic crash
-                (new RetrieveAccessTokenTask()).execute(verifier);
+                // We do this in a task now or get an automatic crash. The saved request token is read
+                // there too, since on a cold start the tokens may still be loading
+                (new RetrieveAccessTokenTask(otoken)).execute(verifier);
             } else {
                 String denied = uri.getQueryParameter("denied");
                 Log.e(TAG, "Access denied or canceled. Token returned is: " + denied);
+                mPrewarm.finishTrace();
                 finish();
             }
         }
@@ -108,7 +107,15 @@ public class OAuthActivity extends Activity {
         protected String doInBackground(Void... params) {
             String url = null;
             try {
-                url = mProvider.retrieveRequestToken(mConsumer, App.CALLBACK_URL);
+                long start = mTrace.start();
+                url = mPrewarm.takeRequestToken(mConsumer);
+                if (url != null) {
+                    // Only as long as it took to finish, if it hadn't
+                    mTrace.record("request token from warm up", start);
+                } else {
+                    url = mProvider.retrieveRequestToken(mConsumer, App.CALLBACK_URL);
+                    mTrace.record("request token", start);
+                }
             } catch (Exception e) {
                 Log.e(TAG, "BeginOAuthTask", e);
             }
@@ -119,8 +126,9 @@ public class OAuthActivity extends Activity {
         protected void onPostExecute(String url) {
             super.onPostExecute(url);
             if (url != null) {
-                App.saveRequestInformation(mSettings, mConsumer.getToken(), mConsumer.getTokenSecret());
+                mTokenStore.saveRequestInformation(mConsumer.getToken(), mConsumer.getTokenSecret());
                 OAuthActivity.this.startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+                mTrace.mark("browser opened");
             }
         }
     }
@@ -128,11 +136,29 @@ public class OAuthActivity extends Activity {
     // This is new and required - we can't be decoding the tokens on the UI thread anymore
     private class RetrieveAccessTokenTask extends AsyncTask<String, Void, Boolean> {
 
+        final String mCallbackToken;
+
+        RetrieveAccessTokenTask(String callbackToken) {
+            mCallbackToken = callbackToken;
+        }
+
         @Override
         protected Boolean doInBackground(String... params) {
+            // Get the stuff we saved in the async task so we can confirm that it all matches up
+            String token = mTokenStore.getRequestToken();
+            String secret = mTokenStore.getRequestSecret();
+            if (token == null || secret == null) {
+                throw new IllegalStateException("We should have saved!");
+            }
+            // We might have been restarted since asking for the request token
+            mConsumer.setTokenWithSecret(token, secret);
+            // This is a sanity check which should never fail - hence the assertion
+            Assert.assertEquals(mCallbackToken, mConsumer.getToken());
             try {
                 // This is the moment of truth - we could throw here
+                long start = mTrace.start();
                 mProvider.retrieveAccessToken(mConsumer, params[0]);
+                mTrace.record("access token", start);
                 return true;
             } catch (Exception e) {
                 Log.e(TAG, "BeginOAuthTask", e);
@@ -148,10 +174,11 @@ public class OAuthActivity extends Activity {
                 String token = mConsumer.getToken();
                 String secret = mConsumer.getTokenSecret();
                 // These are the users token and secret for your app - protect them
-                App.saveAuthInformation(mSettings, token, secret);
+                mTokenStore.saveAuthInformation(token, secret);
                 // Clear the request stuff, now that we have the real thing
-                App.saveRequestInformation(mSettings, null, null);
+                mTokenStore.saveRequestInformation(null, null);
             }
+            mPrewarm.finishTrace();
             finish();
         }
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.activities;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.support.v4.widget.CursorAdapter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.eyebrowssoftware.bloa.R;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.util.RelativeTimeCache;
+import com.eyebrowssoftware.bloa.util.StatusTextFormatter;
+
+/**
+ * Binds timeline rows. Everything that costs something is done once, not once a row: the column
+ * indices are looked up when the cursor changes, the views are found when the row is made, the
+ * time strings are shared, and the links in the text are found in the background.
+ */
+class TimelineAdapter extends CursorAdapter implements StatusTextFormatter.Callback {
+
+    static class ViewHolder {
+        TextView name;
+        TextView time;
+        TextView text;
+        // Reused for every bind, so copying the strings out of the cursor doesn't allocate
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer textBuffer = new CharArrayBuffer(160);
+        long id;
+    }
+
+    private final LayoutInflater mInflater;
+    private final RelativeTimeCache mTimes = new RelativeTimeCache();
+    private final StatusTextFormatter mFormatter;
+
+    private ViewGroup mParent;
+
+    private int mIdIndex = -1;
+    private int mNameIndex = -1;
+    private int mTextIndex = -1;
+    private int mCreatedIndex = -1;
+
+    TimelineAdapter(Context context, StatusTextFormatter formatter) {
+        super(context, null, 0);
+        mInflater = LayoutInflater.from(context);
+        mFormatter = formatter;
+    }
+
+    RelativeTimeCache getTimeCache() {
+        return mTimes;
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor cursor) {
+        // Before the super call, which tells the list to rebind
+        if (cursor != null) {
+            mIdIndex = cursor.getColumnIndexOrThrow(UserStatusRecord._ID);
+            mNameIndex = cursor.getColumnIndexOrThrow(UserStatusRecord.USER_NAME);
+            mTextIndex = cursor.getColumnIndexOrThrow(UserStatusRecord.USER_TEXT);
+            mCreatedIndex = cursor.getColumnIndexOrThrow(UserStatusRecord.CREATED_DATE);
+        }
+        return super.swapCursor(cursor);
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        mParent = parent;
+        View row = mInflater.inflate(R.layout.timeline_row, parent, false);
+        ViewHolder holder = new ViewHolder();
+        holder.name = (TextView) row.findViewById(R.id.name);
+        holder.time = (TextView) row.findViewById(R.id.time);
+        holder.text = (TextView) row.findViewById(R.id.text);
+        row.setTag(holder);
+        return row;
+    }
+
+    @Override
+    public void bindView(View row, Context context, Cursor cursor) {
+        ViewHolder holder = (ViewHolder) row.getTag();
+        holder.id = cursor.getLong(mIdIndex);
+
+        cursor.copyStringToBuffer(mNameIndex, holder.nameBuffer);
+        holder.name.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
+
+        holder.time.setText(mTimes.get(cursor.getLong(mCreatedIndex), System.currentTimeMillis()));
+
+        cursor.copyStringToBuffer(mTextIndex, holder.textBuffer);
+        CharSequence formatted = mFormatter.get(holder.id, holder.textBuffer.data, holder.textBuffer.sizeCopied);
+        if (formatted != null) {
+            holder.text.setText(formatted);
+        } else {
+            // Plain for now; the links show up when the formatter is done
+            holder.text.setText(holder.textBuffer.data, 0, holder.textBuffer.sizeCopied);
+            if (holder.textBuffer.sizeCopied > 0) {
+                mFormatter.request(holder.id, new String(holder.textBuffer.data, 0, holder.textBuffer.sizeCopied), this);
+            }
+        }
+    }
+
+    @Override
+    public void onFormatted(long key, String source, CharSequence text) {
+        // Only the rows on screen; the rest get it from the cache when they're bound
+        if (mParent == null) {
+            return;
+        }
+        for (int i = 0; i < mParent.getChildCount(); ++i) {
+            Object tag = mParent.getChildAt(i).getTag();
+            if (tag instanceof ViewHolder) {
+                ViewHolder holder = (ViewHolder) tag;
+                // The row may have been rebound to another status with the same id since
+                if (holder.id == key && StatusTextFormatter.matches(source, holder.textBuffer.data,
+                        holder.textBuffer.sizeCopied)) {
+                    holder.text.setText(text);
+                }
+            }
+        }
+    }
+}
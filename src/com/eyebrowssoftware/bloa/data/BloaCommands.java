@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * Compound operations on {@link BloaProvider}. Each one is a single call into the provider, which
+ * does it in one transaction and sends one change notification. Before Honeycomb there's no
+ * ContentResolver.call(), so there they're done the old way, a step at a time.
+ *
+ * The ones that take an account work on that account's data, or the selected account's if it's
+ * null.
+ */
+public final class BloaCommands {
+
+    // The call() methods
+    public static final String REPLACE_STATUS = "replace_status";
+    public static final String INGEST_PAGE = "ingest_page";
+    public static final String WIPE = "wipe";
+    public static final String SELECT_ACCOUNT = "select_account";
+
+    // The call() extras and results
+    public static final String EXTRA_VALUES = "values";
+    public static final String EXTRA_KEEP = "keep";
+    public static final String EXTRA_ACCOUNT = "account";
+    public static final String RESULT_COUNT = "count";
+
+    /**
+     * Add this to a timeline uri on delete to only delete all but the newest so many entries.
+     */
+    public static final String KEEP_PARAMETER = "keep";
+
+    /**
+     * How many statuses we keep in each timeline
+     */
+    public static final int DEFAULT_KEEP = 1000;
+
+    /**
+     * Before Honeycomb, accounts are selected by updating this
+     */
+    public static final Uri SELECTION_URI =
+        BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.SELECTION_PATH).build();
+
+    // This class cannot be instantiated
+    private BloaCommands() {
+    }
+
+    /**
+     * Replaces the latest status singleton with these values.
+     */
+    public static int replaceStatus(ContentResolver cr, ContentValues values) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putParcelable(EXTRA_VALUES, values);
+            return call(cr, REPLACE_STATUS, null, extras);
+        }
+        cr.delete(UserStatusRecords.CONTENT_URI, App.USER_STATUS_QUERY_WHERE, null);
+        return (cr.insert(UserStatusRecords.CONTENT_URI, asLatestStatus(values)) != null) ? 1 : 0;
+    }
+
+    /**
+     * Adds a page of statuses to a timeline, then drops all but the newest keep entries from it.
+     * A keep of 0 or less keeps them all.
+     */
+    public static int ingestPage(ContentResolver cr, String timeline, ContentValues[] values, int keep) {
+        return ingestPage(cr, null, timeline, values, keep);
+    }
+
+    public static int ingestPage(ContentResolver cr, String account, String timeline, ContentValues[] values,
+            int keep) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putString(EXTRA_ACCOUNT, account);
+            extras.putParcelableArray(EXTRA_VALUES, values);
+            extras.putInt(EXTRA_KEEP, keep);
+            return call(cr, INGEST_PAGE, timeline, extras);
+        }
+        Uri uri = UserStatusRecords.forAccount(UserStatusRecords.timelineUri(timeline), account);
+        int count = cr.bulkInsert(uri, values);
+        if (keep > 0) {
+            cr.delete(uri.buildUpon().appendQueryParameter(KEEP_PARAMETER, String.valueOf(keep)).build(),
+                null, null);
+        }
+        return count;
+    }
+
+    /**
+     * Deletes everything: the latest status and all the timelines. The provider swaps in an empty
+     * database and throws the old one away in the background, so this is quick however much there
+     * was. Before Honeycomb it's a row by row delete, so don't call it on the UI thread.
+     */
+    public static void wipe(ContentResolver cr) {
+        wipe(cr, null);
+    }
+
+    public static void wipe(ContentResolver cr, String account) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putString(EXTRA_ACCOUNT, account);
+            call(cr, WIPE, null, extras);
+        } else {
+            cr.delete(UserStatusRecords.forAccount(UserStatusRecords.CONTENT_URI, account), null, null);
+        }
+    }
+
+    /**
+     * Makes account the one that uris without an account parameter are about. The provider keeps
+     * each account's data, so this is all it takes to switch.
+     */
+    public static void selectAccount(ContentResolver cr, String account) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            call(cr, SELECT_ACCOUNT, account, null);
+        } else {
+            // There's no other way in before Honeycomb
+            ContentValues values = new ContentValues();
+            values.put(EXTRA_ACCOUNT, account);
+            cr.update(SELECTION_URI, values, null, null);
+        }
+    }
+
+    private static int call(ContentResolver cr, String method, String arg, Bundle extras) {
+        Bundle result = cr.call(BloaProvider.CONTENT_URI, method, arg, extras);
+        return (result == null) ? 0 : result.getInt(RESULT_COUNT);
+    }
+
+    /**
+     * A copy of values marked as the latest status singleton. It's a copy, so it mustn't claim
+     * the status id of the timeline row.
+     */
+    static ContentValues asLatestStatus(ContentValues values) {
+        ContentValues latest = new ContentValues(values);
+        latest.put(UserStatusRecord.LATEST_STATUS, "true");
+        latest.remove(UserStatusRecord.STATUS_ID);
+        return latest;
+    }
+
+    // A Bundle that's been through a Parcel gives us back Parcelable[], not ContentValues[]
+    static ContentValues[] toValues(Parcelable[] parcelables) {
+        if (parcelables == null) {
+            return new ContentValues[0];
+        }
+        ContentValues[] values = new ContentValues[parcelables.length];
+        for (int i = 0; i < parcelables.length; ++i) {
+            values[i] = (ContentValues) parcelables[i];
+        }
+        return values;
+    }
+}
@@ -15,23 +15,40 @@
  */
 package com.eyebrowssoftware.bloa.data;
 
+import java.io.File;
 import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
 
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
 import android.text.TextUtils;
+import android.util.Log;
 
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.UserProfiles.UserProfile;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.util.CacheRegistry;
+import com.eyebrowssoftware.bloa.util.LongHashSet;
 
 
 /**
@@ -46,27 +63,87 @@ public class BloaProvider extends ContentProvider {
     public static final String URI_STRING = "content://" + AUTHORITY;
 
     private static final String USER_STATUS_RECORDS_TABLE_NAME = "user_status_records";
+    private static final String TIMELINE_ENTRIES_TABLE_NAME = "timeline_entries";
+    private static final String USER_PROFILES_TABLE_NAME = "user_profiles";
+    private static final String STATUS_ENTITIES_TABLE_NAME = "status_entities";
+
+    // A status is stored once, and each timeline it's in has an entry pointing to it
+    private static final String TIMELINE_JOIN = USER_STATUS_RECORDS_TABLE_NAME + " JOIN "
+            + TIMELINE_ENTRIES_TABLE_NAME + " ON (" + USER_STATUS_RECORDS_TABLE_NAME + "."
+            + UserStatusRecord.STATUS_ID + " = " + TIMELINE_ENTRIES_TABLE_NAME + "."
+            + UserStatusRecord.STATUS_ID + ")";
+
+    private static final String ENTITY_JOIN = STATUS_ENTITIES_TABLE_NAME + " JOIN "
+            + USER_STATUS_RECORDS_TABLE_NAME + " ON (" + STATUS_ENTITIES_TABLE_NAME + "."
+            + UserStatusRecord.STATUS_ID + " = " + USER_STATUS_RECORDS_TABLE_NAME + "."
+            + UserStatusRecord.STATUS_ID + ")";
 
     public static final String USER_STATUS_PATH = "user_status";
     public static final String USER_TIMELINE_PATH = "user_timeline";
+    public static final String SELECTION_PATH = "selection";
+    public static final String USER_PROFILES_PATH = "users";
+    public static final String CONVERSATION_PATH = "conversation";
+    public static final String ENTITY_PATH = "entity";
+    public static final String PAYLOAD_PATH = "payload";
 
+    // Without an account, and from before there were accounts
     private static final String DATABASE_NAME = "bloa.db";
+    private static final String DATABASE_PREFIX = "bloa";
+    private static final String DATABASE_SUFFIX = ".db";
+    private static final String PREFERENCES_NAME = "bloa_provider";
+    private static final String SELECTED_ACCOUNT = "selected_account";
+    private static final String GENERATION_PREFIX = "generation.";
+    private static final String[] SIDE_FILE_SUFFIXES = { "-journal", "-wal", "-shm" };
+    // From when a wipe renamed the file out of the way
+    private static final String TRASH_SUFFIX = ".trash";
+
+    // How long a wiped database's helper is left open for whoever picked it up before the wipe
+    private static final long REAP_DELAY_MS = 30 * 1000;
 
     private static final int DB_VERSION_1 = 1;
+    private static final int DB_VERSION_2 = 2; // status ids and timelines
+    private static final int DB_VERSION_3 = 3; // user profiles
+    private static final int DB_VERSION_4 = 4; // reply threads
+    private static final int DB_VERSION_5 = 5; // entities
+    private static final int DB_VERSION_6 = 6; // original JSON
+    private static final int DB_VERSION_7 = 7; // timeline entries by status
+
+    private static final int DATABASE_VERSION = DB_VERSION_7;
 
-    private static final int DATABASE_VERSION = DB_VERSION_1;
+    // Status ids in one IN (...), well under SQLite's limit on the length of a statement
+    private static final int MAX_IDS_PER_DELETE = 500;
+
+    // A timeline is trimmed back to its keep as soon as it's added to, so this is plenty
+    private static final int MAX_SEEN = 2 * BloaCommands.DEFAULT_KEEP;
 
     private static HashMap<String, String> sUserStatusProjectionMap;
+    private static HashMap<String, String> sTimelineProjectionMap;
+    private static HashMap<String, String> sUserProfileProjectionMap;
+    private static HashMap<String, String> sEntityProjectionMap;
 
     private static final UriMatcher sUriMatcher;
 
     private static final int USER_STATUS_RECORDS = 1;
     private static final int USER_STATUS_RECORD_ID = 2;
+    private static final int USER_TIMELINE = 3;
+    private static final int SELECTION = 4;
+    private static final int USER_PROFILES = 5;
+    private static final int USER_PROFILE_ID = 6;
+    private static final int CONVERSATION = 7;
+    private static final int ENTITY = 8;
+    private static final int PAYLOAD = 9;
 
     static {
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         sUriMatcher.addURI(AUTHORITY, USER_STATUS_PATH, USER_STATUS_RECORDS);
         sUriMatcher.addURI(AUTHORITY, USER_STATUS_PATH + "/#", USER_STATUS_RECORD_ID);
+        sUriMatcher.addURI(AUTHORITY, USER_TIMELINE_PATH + "/*", USER_TIMELINE);
+        sUriMatcher.addURI(AUTHORITY, SELECTION_PATH, SELECTION);
+        sUriMatcher.addURI(AUTHORITY, USER_PROFILES_PATH, USER_PROFILES);
+        sUriMatcher.addURI(AUTHORITY, USER_PROFILES_PATH + "/#", USER_PROFILE_ID);
+        sUriMatcher.addURI(AUTHORITY, CONVERSATION_PATH + "/#", CONVERSATION);
+        sUriMatcher.addURI(AUTHORITY, ENTITY_PATH + "/*/*", ENTITY);
+        sUriMatcher.addURI(AUTHORITY, PAYLOAD_PATH + "/#", PAYLOAD);
 
         sUserStatusProjectionMap = new HashMap<String, String>();
         sUserStatusProjectionMap.put(UserStatusRecord._ID, UserStatusRecord._ID);
@@ -76,6 +153,31 @@ public class BloaProvider extends ContentProvider {
         sUserStatusProjectionMap.put(UserStatusRecord.CREATED_DATE, UserStatusRecord.CREATED_DATE);
         sUserStatusProjectionMap.put(UserStatusRecord.USER_CREATED_DATE, UserStatusRecord.USER_CREATED_DATE);
         sUserStatusProjectionMap.put(UserStatusRecord.LATEST_STATUS, UserStatusRecord.LATEST_STATUS);
+        sUserStatusProjectionMap.put(UserStatusRecord.STATUS_ID, UserStatusRecord.STATUS_ID);
+        sUserStatusProjectionMap.put(UserStatusRecord.IN_REPLY_TO_STATUS_ID, UserStatusRecord.IN_REPLY_TO_STATUS_ID);
+        sUserStatusProjectionMap.put(UserStatusRecord.THREAD_ROOT_ID, UserStatusRecord.THREAD_ROOT_ID);
+        sUserStatusProjectionMap.put(UserStatusRecord.PAYLOAD, UserStatusRecord.PAYLOAD);
+
+        // The joins have two of some columns, so say which one we mean
+        sTimelineProjectionMap = new HashMap<String, String>();
+        sEntityProjectionMap = new HashMap<String, String>();
+        for (String column : sUserStatusProjectionMap.keySet()) {
+            sTimelineProjectionMap.put(column, USER_STATUS_RECORDS_TABLE_NAME + "." + column + " AS " + column);
+            sEntityProjectionMap.put(column, USER_STATUS_RECORDS_TABLE_NAME + "." + column + " AS " + column);
+        }
+        sTimelineProjectionMap.put(UserStatusRecord.TIMELINE,
+                TIMELINE_ENTRIES_TABLE_NAME + "." + UserStatusRecord.TIMELINE + " AS " + UserStatusRecord.TIMELINE);
+
+        sUserProfileProjectionMap = new HashMap<String, String>();
+        sUserProfileProjectionMap.put(UserProfile._ID, UserProfile._ID);
+        sUserProfileProjectionMap.put(UserProfile.USER_ID, UserProfile.USER_ID);
+        sUserProfileProjectionMap.put(UserProfile.NAME, UserProfile.NAME);
+        sUserProfileProjectionMap.put(UserProfile.SCREEN_NAME, UserProfile.SCREEN_NAME);
+        sUserProfileProjectionMap.put(UserProfile.DESCRIPTION, UserProfile.DESCRIPTION);
+        sUserProfileProjectionMap.put(UserProfile.PROFILE_IMAGE_URL, UserProfile.PROFILE_IMAGE_URL);
+        sUserProfileProjectionMap.put(UserProfile.FOLLOWERS_COUNT, UserProfile.FOLLOWERS_COUNT);
+        sUserProfileProjectionMap.put(UserProfile.FRIENDS_COUNT, UserProfile.FRIENDS_COUNT);
+        sUserProfileProjectionMap.put(UserProfile.FETCHED_DATE, UserProfile.FETCHED_DATE);
 }
     /**
      *
@@ -84,13 +186,60 @@ public class BloaProvider extends ContentProvider {
 
     private ContentResolver mCR;
 
+    // Small results, until a write to what they were read from
+    private final QueryCache mQueryCache = new QueryCache();
+
     /**
      * This class helps open, create, and upgrade the database file.
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
 
-        DatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // The status ids in each timeline, read the first time we add to it. A status a timeline
+        // already has is skipped before it costs any SQL. The sets are only changed inside a write
+        // transaction, which keeps them in step with the tables; the map is guarded by this.
+        private final HashMap<String, LongHashSet> mSeen = new HashMap<String, LongHashSet>();
+
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        // Must be in a write transaction
+        LongHashSet getSeen(SQLiteDatabase db, String timeline) {
+            LongHashSet seen = peekSeen(timeline);
+            if (seen != null) {
+                return seen;
+            }
+            seen = new LongHashSet(MAX_SEEN);
+            Cursor c = db.query(TIMELINE_ENTRIES_TABLE_NAME, STATUS_ID_PROJECTION, UserStatusRecord.TIMELINE + "=?",
+                    new String[] { timeline }, null, null, UserStatusRecord.STATUS_ID + " DESC",
+                    String.valueOf(MAX_SEEN));
+            try {
+                while (c.moveToNext()) {
+                    seen.add(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            synchronized (this) {
+                mSeen.put(timeline, seen);
+            }
+            return seen;
+        }
+
+        synchronized LongHashSet peekSeen(String timeline) {
+            return mSeen.get(timeline);
+        }
+
+        /**
+         * Forgets what's in a timeline, or with null, in all of them, to be read again when it's
+         * next needed. Always safe; an id missing from a set only costs us the SQL.
+         */
+        synchronized void forgetSeen(String timeline) {
+            if (timeline == null) {
+                mSeen.clear();
+            } else {
+                mSeen.remove(timeline);
+            }
         }
 
         @Override
@@ -103,31 +252,417 @@ public class BloaProvider extends ContentProvider {
                     + UserStatusRecord.USER_TEXT + " TEXT,"
                     + UserStatusRecord.CREATED_DATE + " INTEGER,"
                     + UserStatusRecord.USER_CREATED_DATE + " TEXT,"
-                    + UserStatusRecord.LATEST_STATUS + " TEXT DEFAULT NULL"
+                    + UserStatusRecord.LATEST_STATUS + " TEXT DEFAULT NULL,"
+                    + UserStatusRecord.STATUS_ID + " INTEGER,"
+                    + UserStatusRecord.IN_REPLY_TO_STATUS_ID + " INTEGER,"
+                    + UserStatusRecord.THREAD_ROOT_ID + " INTEGER,"
+                    + UserStatusRecord.PAYLOAD + " BLOB"
                     + ");");
+            createTimelines(db);
+            createUserProfiles(db);
+            createThreadIndex(db);
+            createEntities(db);
+            createEntryIndex(db);
 }
 
+        // Version 2
+        private void createTimelines(SQLiteDatabase db) {
+            // The latest status singleton has no status id, so it never collides with a timeline row
+            db.execSQL("CREATE UNIQUE INDEX " + USER_STATUS_RECORDS_TABLE_NAME + "_" + UserStatusRecord.STATUS_ID
+                    + " ON " + USER_STATUS_RECORDS_TABLE_NAME + " (" + UserStatusRecord.STATUS_ID + ");");
+            db.execSQL("CREATE TABLE " + TIMELINE_ENTRIES_TABLE_NAME + " ("
+                    + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + UserStatusRecord.TIMELINE + " TEXT NOT NULL,"
+                    + UserStatusRecord.STATUS_ID + " INTEGER NOT NULL,"
+                    + "UNIQUE (" + UserStatusRecord.TIMELINE + ", " + UserStatusRecord.STATUS_ID + ")"
+                    + ");");
+        }
+
+        // Version 3. One row a user, replaced whenever we look them up again
+        private void createUserProfiles(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + USER_PROFILES_TABLE_NAME + " ("
+                    + UserProfile._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + UserProfile.USER_ID + " INTEGER NOT NULL UNIQUE,"
+                    + UserProfile.NAME + " TEXT,"
+                    + UserProfile.SCREEN_NAME + " TEXT,"
+                    + UserProfile.DESCRIPTION + " TEXT,"
+                    + UserProfile.PROFILE_IMAGE_URL + " TEXT,"
+                    + UserProfile.FOLLOWERS_COUNT + " INTEGER,"
+                    + UserProfile.FRIENDS_COUNT + " INTEGER,"
+                    + UserProfile.FETCHED_DATE + " INTEGER NOT NULL"
+                    + ");");
+        }
+
+        // Version 4. A whole conversation is one lookup on this
+        private void createThreadIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX " + USER_STATUS_RECORDS_TABLE_NAME + "_" + UserStatusRecord.THREAD_ROOT_ID
+                    + " ON " + USER_STATUS_RECORDS_TABLE_NAME + " (" + UserStatusRecord.THREAD_ROOT_ID + ");");
+        }
+
+        // Version 5. The unique constraint is the index the lookups use, newest first within a value
+        private void createEntities(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + STATUS_ENTITIES_TABLE_NAME + " ("
+                    + StatusEntities.TYPE + " TEXT NOT NULL,"
+                    + StatusEntities.VALUE + " TEXT NOT NULL,"
+                    + UserStatusRecord.STATUS_ID + " INTEGER NOT NULL,"
+                    + "UNIQUE (" + StatusEntities.TYPE + ", " + StatusEntities.VALUE + ", "
+                    + UserStatusRecord.STATUS_ID + ")"
+                    + ");");
+            // For throwing away the entities of statuses we throw away
+            db.execSQL("CREATE INDEX " + STATUS_ENTITIES_TABLE_NAME + "_" + UserStatusRecord.STATUS_ID
+                    + " ON " + STATUS_ENTITIES_TABLE_NAME + " (" + UserStatusRecord.STATUS_ID + ");");
+        }
+
+        // Version 7. So a delete can find the entries of just the statuses it touched
+        private void createEntryIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX " + TIMELINE_ENTRIES_TABLE_NAME + "_" + UserStatusRecord.STATUS_ID
+                    + " ON " + TIMELINE_ENTRIES_TABLE_NAME + " (" + UserStatusRecord.STATUS_ID + ");");
+        }
+
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             if (oldVersion == DB_VERSION_1) {
-                // Nothing to do yet
+                db.execSQL("ALTER TABLE " + USER_STATUS_RECORDS_TABLE_NAME + " ADD COLUMN "
+                        + UserStatusRecord.STATUS_ID + " INTEGER;");
+                createTimelines(db);
+                oldVersion = DB_VERSION_2;
+            }
+            if (oldVersion == DB_VERSION_2) {
+                createUserProfiles(db);
+                oldVersion = DB_VERSION_3;
+            }
+            if (oldVersion == DB_VERSION_3) {
+                db.execSQL("ALTER TABLE " + USER_STATUS_RECORDS_TABLE_NAME + " ADD COLUMN "
+                        + UserStatusRecord.IN_REPLY_TO_STATUS_ID + " INTEGER;");
+                db.execSQL("ALTER TABLE " + USER_STATUS_RECORDS_TABLE_NAME + " ADD COLUMN "
+                        + UserStatusRecord.THREAD_ROOT_ID + " INTEGER;");
+                // We never kept what they replied to, so each is its own thread until it's fetched again
+                db.execSQL("UPDATE " + USER_STATUS_RECORDS_TABLE_NAME + " SET " + UserStatusRecord.THREAD_ROOT_ID
+                        + " = " + UserStatusRecord.STATUS_ID + ";");
+                createThreadIndex(db);
+                oldVersion = DB_VERSION_4;
+            }
+            if (oldVersion == DB_VERSION_4) {
+                // Statuses from before this have none until they're fetched again
+                createEntities(db);
+                oldVersion = DB_VERSION_5;
+            }
+            if (oldVersion == DB_VERSION_5) {
+                // Statuses from before this have no payload until they're fetched again
+                db.execSQL("ALTER TABLE " + USER_STATUS_RECORDS_TABLE_NAME + " ADD COLUMN "
+                        + UserStatusRecord.PAYLOAD + " BLOB;");
+                oldVersion = DB_VERSION_6;
+            }
+            if (oldVersion == DB_VERSION_6) {
+                createEntryIndex(db);
+                oldVersion = DB_VERSION_7;
             }
         }
     }
 
-    private DatabaseHelper mOpenHelper;
+    // One database per account, opened on first use. Guarded by this
+    private final HashMap<String, DatabaseHelper> mHelpers = new HashMap<String, DatabaseHelper>();
+    // The account you get without asking for one. Guarded by this; read on first use
+    private String mSelectedAccount;
+    private boolean mSelectionLoaded = false;
+    // How many times each account has been wiped, which is part of its file name. Guarded by this
+    private final HashMap<String, Integer> mGenerations = new HashMap<String, Integer>();
+
+    // Throws away wiped database files
+    private static final ScheduledExecutorService sReaper = Executors.newSingleThreadScheduledExecutor();
 
     @Override
     public boolean onCreate() {
         Context c = getContext();
-        mOpenHelper = new DatabaseHelper(c);
         mCR = c.getContentResolver();
+        // The provider comes up before App.onCreate(), but after the App itself is made. Not
+        // under test, where there's no App
+        if (c.getApplicationContext() instanceof App) {
+            ((App) c.getApplicationContext()).getCacheRegistry().register("query results",
+                    CacheRegistry.TIER_DATA, mQueryCache);
+        }
+        // Anything left over from a wipe that didn't get to finish
+        reap(null, 0);
+        return true;
+    }
+
+    // The first generation keeps the name from before there were wipes
+    private static String databaseName(String account, int generation) {
+        String name = (account == null) ? DATABASE_PREFIX : DATABASE_PREFIX + account;
+        return (generation == 0) ? name + DATABASE_SUFFIX : name + "." + generation + DATABASE_SUFFIX;
+    }
+
+    private static String generationKey(String account) {
+        return GENERATION_PREFIX + key(account);
+    }
+
+    // Not in onCreate, which is on the main thread
+    private synchronized int getGeneration(String account) {
+        Integer generation = mGenerations.get(key(account));
+        if (generation == null) {
+            generation = getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getInt(generationKey(account), 0);
+            mGenerations.put(key(account), generation);
+        }
+        return generation;
+    }
+
+    private static String key(String account) {
+        return (account == null) ? "" : account;
+    }
+
+    // Not in onCreate, which is on the main thread
+    private synchronized String getSelectedAccount() {
+        if (!mSelectionLoaded) {
+            mSelectedAccount = getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getString(SELECTED_ACCOUNT, null);
+            mSelectionLoaded = true;
+        }
+        return mSelectedAccount;
+    }
+
+    /**
+     * The database for a uri: the one for its account parameter, or the selected account's.
+     */
+    private DatabaseHelper getHelper(Uri uri) {
+        return getHelper(uri.getQueryParameter(UserStatusRecords.ACCOUNT_PARAMETER));
+    }
+
+    private synchronized DatabaseHelper getHelper(String account) {
+        account = resolveAccount(account);
+        DatabaseHelper helper = mHelpers.get(key(account));
+        if (helper == null) {
+            helper = new DatabaseHelper(getContext(), databaseName(account, getGeneration(account)));
+            mHelpers.put(key(account), helper);
+        }
+        return helper;
+    }
+
+    // The account itself, or the selected one for null
+    private synchronized String resolveAccount(String account) {
+        return (account == null) ? getSelectedAccount() : account;
+    }
+
+    /**
+     * Throws away cached results read from any of the regions of the account's data, or the
+     * selected account's for null. After the write has committed.
+     */
+    private void invalidate(String account, int regions) {
+        mQueryCache.invalidate(key(resolveAccount(account)), regions);
+    }
+
+    private void invalidate(Uri uri, int regions) {
+        invalidate(uri.getQueryParameter(UserStatusRecords.ACCOUNT_PARAMETER), regions);
+    }
+
+    /**
+     * Makes account the one you get without asking. Nothing is fetched or copied, so switching is
+     * just a matter of requerying.
+     *
+     * @return true if it changed
+     */
+    private synchronized boolean selectAccount(String account) {
+        String old = getSelectedAccount();
+        if ((account == null) ? old == null : account.equals(old)) {
+            return false;
+        }
+        Context c = getContext();
+        if (old == null && account != null) {
+            // The data from before there were accounts belongs to the first one chosen
+            File legacy = c.getDatabasePath(databaseName(null, getGeneration(null)));
+            File file = c.getDatabasePath(databaseName(account, getGeneration(account)));
+            if (legacy.exists() && !file.exists() && !mHelpers.containsKey(key(account))) {
+                migrateLegacy(legacy, account);
+            }
+        }
+        mSelectedAccount = account;
+        SharedPreferences.Editor editor = c.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit();
+        if (account == null) {
+            editor.remove(SELECTED_ACCOUNT);
+        } else {
+            editor.putString(SELECTED_ACCOUNT, account);
+        }
+        editor.commit();
+        return true;
+    }
+
+    /**
+     * Copies the data from before there were accounts into the account's new database, in one
+     * transaction, and then retires the old file the way a wipe does. Loaders may still be reading
+     * the old file through its helper, so it isn't renamed or closed under them, and SQLite's files
+     * beside it go with it when it's reaped. Still on the old selection, so null is the legacy
+     * database here.
+     */
+    private void migrateLegacy(File legacy, String account) {
+        // Opening it brings its schema up to date, so the columns are the same on both sides
+        getHelper((String) null).getWritableDatabase();
+        DatabaseHelper helper = getHelper(account);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            // Not allowed inside a transaction
+            db.execSQL("ATTACH DATABASE ? AS legacy", new Object[] { legacy.getPath() });
+        } catch (SQLException e) {
+            Log.e(TAG, "Couldn't open " + legacy + " to copy it", e);
+            return;
+        }
+        boolean copied = false;
+        try {
+            db.beginTransaction();
+            try {
+                for (String table : new String[] { USER_STATUS_RECORDS_TABLE_NAME, TIMELINE_ENTRIES_TABLE_NAME,
+                        USER_PROFILES_TABLE_NAME, STATUS_ENTITIES_TABLE_NAME }) {
+                    String columns = columns(db, table);
+                    db.execSQL("INSERT INTO main." + table + " (" + columns + ") SELECT " + columns
+                            + " FROM legacy." + table);
+                }
+                db.setTransactionSuccessful();
+                copied = true;
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Couldn't copy " + legacy + ", the account starts empty", e);
+        } finally {
+            db.execSQL("DETACH DATABASE legacy");
+        }
+        helper.forgetSeen(null);
+        if (copied && !nextGeneration(null)) {
+            Log.w(TAG, "Couldn't retire " + legacy + ", it stays where it is");
+        }
+    }
+
+    // Named, in case upgrades added them in a different order from a fresh create
+    private static String columns(SQLiteDatabase db, String table) {
+        StringBuilder columns = new StringBuilder();
+        Cursor c = db.rawQuery("PRAGMA main.table_info(" + table + ")", null);
+        try {
+            int name = c.getColumnIndexOrThrow("name");
+            while (c.moveToNext()) {
+                if (columns.length() > 0) {
+                    columns.append(',');
+                }
+                columns.append(c.getString(name));
+            }
+        } finally {
+            c.close();
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Moves the account on to a new generation, so it gets a new, empty database the next time
+     * one's needed, and the old one is closed and deleted later.
+     *
+     * @return false if the new generation couldn't be saved, in which case nothing has changed
+     */
+    private synchronized boolean nextGeneration(String account) {
+        int generation = getGeneration(account) + 1;
+        // On disk before anybody can open the new file, so a restart never goes back to the old one
+        boolean saved = getContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+            .putInt(generationKey(account), generation)
+            .commit();
+        if (!saved) {
+            return false;
+        }
+        mGenerations.put(key(account), generation);
+        reap(mHelpers.remove(key(account)), REAP_DELAY_MS);
         return true;
     }
 
+    /**
+     * Throws all of an account's data away without deleting it row by row. The account moves on to
+     * a new generation, which is a new file name, and a new empty database is made there the next
+     * time it's needed. That takes the same time however big the old one is. Nothing renames or
+     * deletes the old file while it might be open: anybody who got the old helper before the wipe
+     * keeps reading and writing the old file, which nobody else will ever look at again, and it's
+     * closed and deleted later in the background.
+     */
+    private synchronized void swapDatabase(String account) {
+        account = resolveAccount(account);
+        if (!nextGeneration(account)) {
+            // Not likely, but then we do it the slow way
+            Log.w(TAG, "Couldn't save the next generation, deleting rows instead");
+            DatabaseHelper helper = getHelper(account);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                helper.forgetSeen(null);
+                db.delete(TIMELINE_ENTRIES_TABLE_NAME, null, null);
+                db.delete(USER_STATUS_RECORDS_TABLE_NAME, null, null);
+                db.delete(USER_PROFILES_TABLE_NAME, null, null);
+                db.delete(STATUS_ENTITIES_TABLE_NAME, null, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Closes the old helper, if any, and deletes the files of every generation older than its
+     * account's current one. close() doesn't wait for anybody, so the old helper gets a while for
+     * whoever has it to finish. If they're still at it after that, or open it again, all they can
+     * touch is a file that's already been replaced.
+     */
+    private void reap(final SQLiteOpenHelper old, long delayMs) {
+        final Context c = getContext();
+        sReaper.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (old != null) {
+                    old.close();
+                }
+                File[] files = c.getDatabasePath(DATABASE_NAME).getParentFile().listFiles();
+                if (files == null) {
+                    return;
+                }
+                SharedPreferences prefs = c.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+                for (File file : files) {
+                    if (isStale(file.getName(), prefs)) {
+                        if (!file.delete()) {
+                            Log.w(TAG, "Couldn't delete " + file);
+                        }
+                    }
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Database files are bloa[account][.generation].db, plus whatever SQLite keeps beside them
+    private static boolean isStale(String name, SharedPreferences prefs) {
+        if (!name.startsWith(DATABASE_PREFIX)) {
+            return false;
+        }
+        if (name.endsWith(TRASH_SUFFIX) || name.contains(TRASH_SUFFIX + "-")) {
+            return true;
+        }
+        for (String suffix : SIDE_FILE_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                name = name.substring(0, name.length() - suffix.length());
+                break;
+            }
+        }
+        if (!name.endsWith(DATABASE_SUFFIX)) {
+            return false;
+        }
+        String middle = name.substring(DATABASE_PREFIX.length(), name.length() - DATABASE_SUFFIX.length());
+        int dot = middle.lastIndexOf('.');
+        if (dot < 0) {
+            return prefs.getInt(GENERATION_PREFIX + middle, 0) > 0;
+        }
+        try {
+            int generation = Integer.parseInt(middle.substring(dot + 1));
+            return generation < prefs.getInt(GENERATION_PREFIX + middle.substring(0, dot), 0);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     @Override
-    public void finalize() {
-        mOpenHelper.close();
+    public synchronized void finalize() {
+        for (DatabaseHelper helper : mHelpers.values()) {
+            helper.close();
+        }
     }
 
     @Override
@@ -137,6 +672,16 @@ public class BloaProvider extends ContentProvider {
             return UserStatusRecords.CONTENT_TYPE;
         case USER_STATUS_RECORD_ID:
             return UserStatusRecord.CONTENT_ITEM_TYPE;
+        case USER_TIMELINE:
+        case CONVERSATION:
+        case ENTITY:
+            return UserStatusRecords.CONTENT_TYPE;
+        case USER_PROFILES:
+            return UserProfiles.CONTENT_TYPE;
+        case PAYLOAD:
+            return UserStatusRecord.CONTENT_ITEM_TYPE;
+        case USER_PROFILE_ID:
+            return UserProfile.CONTENT_ITEM_TYPE;
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -144,32 +689,378 @@ public class BloaProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) == USER_TIMELINE) {
+            return insertTimeline(uri, values);
+        }
+        if (sUriMatcher.match(uri) == USER_PROFILES) {
+            return insertProfiles(uri, values);
+        }
+        if (sUriMatcher.match(uri) != USER_STATUS_RECORDS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
         int count = 0;
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteDatabase db = getHelper(uri).getWritableDatabase();
         db.beginTransaction();
-        count = super.bulkInsert(uri, values);
-        if (count == values.length) {
+        try {
+            for (ContentValues v : values) {
+                if (insertRecord(db, v) > 0) {
+                    ++count;
+                }
+            }
+            if (count == values.length) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            db.endTransaction();
+        }
+        // One transaction, one notification
+        if (count == values.length && count > 0) {
+            invalidate(uri, QueryCache.LATEST | QueryCache.STATUSES);
+            mCR.notifyChange(UserStatusRecords.CONTENT_URI, null);
+        }
+        return count;
+    }
+
+    /**
+     * Adds statuses to a timeline. Each needs a {@link UserStatusRecord#STATUS_ID}. A status we
+     * already have is updated in place rather than stored again, so timelines that share statuses
+     * share the rows.
+     */
+    private int insertTimeline(Uri uri, ContentValues[] values) {
+        String timeline = uri.getLastPathSegment();
+        int count = 0;
+        DatabaseHelper helper = getHelper(uri);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            count = storeTimeline(db, timeline, values, helper.getSeen(db, timeline));
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db, successful, helper, timeline);
+        }
+        invalidate(uri, QueryCache.STATUSES | QueryCache.TIMELINES | QueryCache.ENTITIES);
+        // Once for the lot, not once a row
+        mCR.notifyChange(UserStatusRecords.timelineUri(timeline), null);
+        mCR.notifyChange(UserStatusRecords.CONTENT_URI, null);
+        return count;
+    }
+
+    /**
+     * Stores looked up profiles, replacing any we had for the same users.
+     */
+    private int insertProfiles(Uri uri, ContentValues[] values) {
+        int count = 0;
+        SQLiteDatabase db = getHelper(uri).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues v : values) {
+                if (db.replace(USER_PROFILES_TABLE_NAME, null, v) > 0) {
+                    ++count;
+                }
+            }
             db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        db.endTransaction();
+        invalidate(uri, QueryCache.PROFILES);
+        mCR.notifyChange(UserProfiles.CONTENT_URI, null);
         return count;
     }
 
+    /**
+     * Ends a transaction that may have added to a timeline's seen ids. If it didn't commit, some of
+     * them aren't really there, so they're all forgotten. A rollback forgets them before anybody
+     * else can start a transaction and believe them.
+     */
+    private static void endTransaction(SQLiteDatabase db, boolean successful, DatabaseHelper helper,
+            String timeline) {
+        if (!successful) {
+            helper.forgetSeen(timeline);
+        }
+        try {
+            db.endTransaction();
+        } catch (RuntimeException e) {
+            helper.forgetSeen(timeline);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds statuses to a timeline, skipping the ones seen says it has already. Statuses don't
+     * change once they're posted, apart from their counts, which are read from the payload when
+     * somebody looks. Must be in a transaction.
+     *
+     * @return how many of the values are in the timeline now
+     */
+    private static int storeTimeline(SQLiteDatabase db, String timeline, ContentValues[] values, LongHashSet seen) {
+        int count = 0;
+        String[] whereArgs = new String[1];
+        SQLiteStatement entry = db.compileStatement("INSERT OR IGNORE INTO " + TIMELINE_ENTRIES_TABLE_NAME
+                + " (" + UserStatusRecord.TIMELINE + ", " + UserStatusRecord.STATUS_ID + ") VALUES (?, ?)");
+        SQLiteStatement parentRoot = db.compileStatement("SELECT " + UserStatusRecord.THREAD_ROOT_ID + " FROM "
+                + USER_STATUS_RECORDS_TABLE_NAME + " WHERE " + UserStatusRecord.STATUS_ID + "=?");
+        SQLiteStatement reroot = db.compileStatement("UPDATE " + USER_STATUS_RECORDS_TABLE_NAME + " SET "
+                + UserStatusRecord.THREAD_ROOT_ID + "=? WHERE " + UserStatusRecord.THREAD_ROOT_ID + "=?");
+        // A status's entities never change, so one we've seen before just ignores these
+        SQLiteStatement entity = db.compileStatement("INSERT OR IGNORE INTO " + STATUS_ENTITIES_TABLE_NAME
+                + " (" + StatusEntities.TYPE + ", " + StatusEntities.VALUE + ", " + UserStatusRecord.STATUS_ID
+                + ") VALUES (?, ?, ?)");
+        try {
+            for (ContentValues v : values) {
+                Long statusId = v.getAsLong(UserStatusRecord.STATUS_ID);
+                if (statusId == null) {
+                    throw new IllegalArgumentException("Timeline statuses need a " + UserStatusRecord.STATUS_ID);
+                }
+                if (seen.contains(statusId)) {
+                    // An overlapping page, or the stream catching up with a fetch
+                    ++count;
+                    continue;
+                }
+                long root = findThreadRoot(parentRoot, statusId, v.getAsLong(UserStatusRecord.IN_REPLY_TO_STATUS_ID));
+                ContentValues row = new ContentValues(v);
+                row.put(UserStatusRecord.THREAD_ROOT_ID, root);
+                row.remove(UserStatusRecord.ENTITIES);
+                row.remove(UserStatusRecord.MENTION_IDS);
+                whereArgs[0] = statusId.toString();
+                if (db.update(USER_STATUS_RECORDS_TABLE_NAME, row, UserStatusRecord.STATUS_ID + "=?", whereArgs) == 0) {
+                    db.insert(USER_STATUS_RECORDS_TABLE_NAME, UserStatusRecord.CREATED_DATE, row);
+                }
+                if (root != statusId) {
+                    // Replies that arrived before this one were waiting for it as their root. Now
+                    // they hang off whatever it replies to
+                    reroot.bindLong(1, root);
+                    reroot.bindLong(2, statusId);
+                    reroot.execute();
+                }
+                for (String[] e : StatusEntities.unpack(v.getAsString(UserStatusRecord.ENTITIES))) {
+                    entity.bindString(1, e[0]);
+                    entity.bindString(2, e[1]);
+                    entity.bindLong(3, statusId);
+                    entity.execute();
+                }
+                entry.bindString(1, timeline);
+                entry.bindLong(2, statusId);
+                entry.execute();
+                seen.add(statusId);
+                ++count;
+            }
+        } finally {
+            entry.close();
+            parentRoot.close();
+            reroot.close();
+            entity.close();
+        }
+        return count;
+    }
+
+    /**
+     * The thread a status belongs to is its parent's, if we have the parent, or else the parent
+     * itself, which is the one we'd have to fetch to go further back. There's no recursive query
+     * in the SQLite we can count on, so the root is worked out once here instead of on every read.
+     */
+    private static long findThreadRoot(SQLiteStatement parentRoot, long statusId, Long inReplyTo) {
+        if (inReplyTo == null) {
+            return statusId;
+        }
+        parentRoot.bindLong(1, inReplyTo);
+        try {
+            long root = parentRoot.simpleQueryForLong();
+            // Zero is a NULL, from a status stored some other way
+            return (root != 0) ? root : inReplyTo;
+        } catch (SQLiteDoneException e) {
+            // Don't have it
+            return inReplyTo;
+        }
+    }
+
+    /**
+     * Drops all but the newest keep entries of a timeline, and the statuses that were only in it.
+     * Must be in a transaction.
+     *
+     * @param seen the timeline's seen ids, which lose the dropped ones, or null if they aren't loaded
+     */
+    private static int trimTimeline(SQLiteDatabase db, String timeline, int keep, LongHashSet seen) {
+        String where = UserStatusRecord.TIMELINE + "=? AND "
+                + UserStatusRecord.STATUS_ID + " NOT IN (SELECT " + UserStatusRecord.STATUS_ID + " FROM "
+                + TIMELINE_ENTRIES_TABLE_NAME + " WHERE " + UserStatusRecord.TIMELINE + "=? ORDER BY "
+                + UserStatusRecord.STATUS_ID + " DESC LIMIT " + keep + ")";
+        String[] whereArgs = new String[] { timeline, timeline };
+        if (seen != null) {
+            Cursor c = db.query(TIMELINE_ENTRIES_TABLE_NAME, STATUS_ID_PROJECTION, where, whereArgs,
+                    null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    seen.remove(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        int count = db.delete(TIMELINE_ENTRIES_TABLE_NAME, where, whereArgs);
+        if (count > 0) {
+            deleteOrphans(db);
+        }
+        return count;
+    }
+
+    /**
+     * The commands in {@link BloaCommands}. Each is one transaction with one notification.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        String account = (extras == null) ? null : extras.getString(BloaCommands.EXTRA_ACCOUNT);
+        if (BloaCommands.WIPE.equals(method)) {
+            swapDatabase(account);
+            invalidate(account, QueryCache.ALL);
+            mCR.notifyChange(CONTENT_URI, null);
+            return null;
+        }
+        if (BloaCommands.SELECT_ACCOUNT.equals(method)) {
+            if (selectAccount(arg)) {
+                // Everything you were looking at is different now
+                mCR.notifyChange(CONTENT_URI, null);
+            }
+            return null;
+        }
+        int count = 0;
+        Uri changed;
+        int regions;
+        DatabaseHelper helper = getHelper(account);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            if (BloaCommands.REPLACE_STATUS.equals(method)) {
+                ContentValues values = extras.getParcelable(BloaCommands.EXTRA_VALUES);
+                db.delete(USER_STATUS_RECORDS_TABLE_NAME, App.USER_STATUS_QUERY_WHERE, null);
+                count = (insertRecord(db, BloaCommands.asLatestStatus(values)) > 0) ? 1 : 0;
+                changed = UserStatusRecords.CONTENT_URI;
+                // The timelines never see the singleton
+                regions = QueryCache.LATEST;
+            } else if (BloaCommands.INGEST_PAGE.equals(method)) {
+                ContentValues[] values = BloaCommands.toValues(extras.getParcelableArray(BloaCommands.EXTRA_VALUES));
+                LongHashSet seen = helper.getSeen(db, arg);
+                count = storeTimeline(db, arg, values, seen);
+                int keep = extras.getInt(BloaCommands.EXTRA_KEEP);
+                if (keep > 0) {
+                    trimTimeline(db, arg, keep, seen);
+                }
+                // The statuses and the timeline are both under this
+                changed = CONTENT_URI;
+                regions = QueryCache.STATUSES | QueryCache.TIMELINES | QueryCache.ENTITIES;
+            } else {
+                throw new IllegalArgumentException("Unknown method " + method);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db, successful, helper, arg);
+        }
+        invalidate(account, regions);
+        mCR.notifyChange(changed, null);
+        Bundle result = new Bundle();
+        result.putInt(BloaCommands.RESULT_COUNT, count);
+        return result;
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
             String[] selectionArgs, String sortOrder) {
 
+        int match = sUriMatcher.match(uri);
+        String account = resolveAccount(uri.getQueryParameter(UserStatusRecords.ACCOUNT_PARAMETER));
+        int regions = queryRegions(match, selection);
+        String cacheKey = null;
+        long generation = 0;
+        if (regions != 0) {
+            cacheKey = QueryCache.key(key(account), uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(mCR, uri);
+                return cached;
+            }
+            generation = mQueryCache.getGeneration();
+        }
+
+        Cursor c = null;
+
+        if (match == PAYLOAD) {
+            c = queryPayload(uri, projection, account);
+        } else {
+            c = queryDatabase(uri, match, account, projection, selection, selectionArgs, sortOrder);
+        }
+        if (cacheKey != null) {
+            Cursor copy = mQueryCache.put(generation, cacheKey, key(account), regions, c);
+            if (copy != null) {
+                c = copy;
+            }
+        }
+        // Tell the cursor what uri to watch, so it knows when its source data
+        // changes
+        c.setNotificationUri(mCR, uri);
+        return c;
+    }
+
+    /**
+     * What a query reads, as {@link QueryCache} regions, or 0 if it's not worth keeping. Timelines
+     * are long and change with every fetch.
+     */
+    private static int queryRegions(int match, String selection) {
+        switch (match) {
+        case USER_STATUS_RECORDS:
+            if (App.USER_STATUS_QUERY_WHERE.equals(selection)) {
+                return QueryCache.LATEST;
+            } else if (App.USER_TIMELINE_QUERY_WHERE.equals(selection)) {
+                return QueryCache.STATUSES;
+            }
+            return QueryCache.LATEST | QueryCache.STATUSES;
+        case USER_STATUS_RECORD_ID:
+            return QueryCache.LATEST | QueryCache.STATUSES;
+        case USER_PROFILES:
+        case USER_PROFILE_ID:
+            return QueryCache.PROFILES;
+        case CONVERSATION:
+        case PAYLOAD:
+            return QueryCache.STATUSES;
+        case ENTITY:
+            return QueryCache.ENTITIES | QueryCache.STATUSES;
+        default:
+            return 0;
+        }
+    }
+
+    // The limit parameter as a LIMIT clause, parsed so nothing but a number gets into the SQL
+    private static String limit(Uri uri) {
+        String limit = uri.getQueryParameter(UserStatusRecords.LIMIT_PARAMETER);
+        return (limit != null) ? Long.toString(parseNumber(uri, limit)) : null;
+    }
+
+    private static long parseNumber(Uri uri, String parameter) {
+        try {
+            return Long.parseLong(parameter);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + parameter + " in " + uri);
+        }
+    }
+
+    private Cursor queryDatabase(Uri uri, int match, String account, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        // Before we go near the database
+        checkProjection(projection, getProjectionMap(match));
+
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
-        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        SQLiteDatabase db = getHelper(account).getReadableDatabase();
 
         Cursor c = null;
 
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
         case USER_STATUS_RECORDS:
             qb.setTables(USER_STATUS_RECORDS_TABLE_NAME);
             qb.setProjectionMap(sUserStatusProjectionMap);
             c = qb.query(db, projection, selection, selectionArgs, null, null,
-                    sortOrder);
+                    sortOrder, limit(uri));
             break;
         case USER_STATUS_RECORD_ID:
             qb.setTables(USER_STATUS_RECORDS_TABLE_NAME);
@@ -179,31 +1070,145 @@ public class BloaProvider extends ContentProvider {
             c = qb.query(db, projection, selection, selectionArgs, null, null,
                     sortOrder);
             break;
+        case USER_TIMELINE:
+            qb.setTables(TIMELINE_JOIN);
+            qb.setProjectionMap(sTimelineProjectionMap);
+            qb.appendWhere(TIMELINE_ENTRIES_TABLE_NAME + "." + UserStatusRecord.TIMELINE + "=");
+            qb.appendWhereEscapeString(uri.getLastPathSegment());
+            c = qb.query(db, projection, selection, selectionArgs, null, null,
+                    sortOrder, limit(uri));
+            break;
+        case USER_PROFILES:
+            qb.setTables(USER_PROFILES_TABLE_NAME);
+            qb.setProjectionMap(sUserProfileProjectionMap);
+            c = qb.query(db, projection, selection, selectionArgs, null, null,
+                    sortOrder);
+            break;
+        case CONVERSATION:
+            // Everything with the same root, which the index finds in one go
+            qb.setTables(USER_STATUS_RECORDS_TABLE_NAME);
+            qb.setProjectionMap(sUserStatusProjectionMap);
+            qb.appendWhere(UserStatusRecord.THREAD_ROOT_ID + "=(SELECT " + UserStatusRecord.THREAD_ROOT_ID
+                    + " FROM " + USER_STATUS_RECORDS_TABLE_NAME + " WHERE " + UserStatusRecord.STATUS_ID + "="
+                    + uri.getPathSegments().get(1) + ")");
+            c = qb.query(db, projection, selection, selectionArgs, null, null,
+                    (sortOrder != null) ? sortOrder : UserStatusRecord.STATUS_ID + " ASC");
+            break;
+        case ENTITY:
+            // Straight down the (type, value, status id) index, so a page costs the same however
+            // far back it is
+            qb.setTables(ENTITY_JOIN);
+            qb.setProjectionMap(sEntityProjectionMap);
+            qb.appendWhere(STATUS_ENTITIES_TABLE_NAME + "." + StatusEntities.TYPE + "=");
+            qb.appendWhereEscapeString(uri.getPathSegments().get(1));
+            qb.appendWhere(" AND " + STATUS_ENTITIES_TABLE_NAME + "." + StatusEntities.VALUE + "=");
+            qb.appendWhereEscapeString(StatusEntities.normalize(uri.getPathSegments().get(1),
+                    uri.getPathSegments().get(2)));
+            String before = uri.getQueryParameter(StatusEntities.BEFORE_PARAMETER);
+            if (before != null) {
+                qb.appendWhere(" AND " + STATUS_ENTITIES_TABLE_NAME + "." + UserStatusRecord.STATUS_ID + "<"
+                        + parseNumber(uri, before));
+            }
+            c = qb.query(db, projection, selection, selectionArgs, null, null,
+                    (sortOrder != null) ? sortOrder
+                        : STATUS_ENTITIES_TABLE_NAME + "." + UserStatusRecord.STATUS_ID + " DESC",
+                    limit(uri));
+            break;
+        case USER_PROFILE_ID:
+            qb.setTables(USER_PROFILES_TABLE_NAME);
+            qb.setProjectionMap(sUserProfileProjectionMap);
+            qb.appendWhere(UserProfile.USER_ID + "=" + uri.getPathSegments().get(1));
+            c = qb.query(db, projection, selection, selectionArgs, null, null,
+                    sortOrder);
+            break;
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
-        // Tell the cursor what uri to watch, so it knows when its source data
-        // changes
-        c.setNotificationUri(mCR, uri);
         return c;
     }
 
+    private static final String[] PAYLOAD_PROJECTION = { UserStatusRecord.PAYLOAD };
+    private static final String[] STATUS_ID_PROJECTION = { UserStatusRecord.STATUS_ID };
+
+    /**
+     * Decodes the one status's payload and answers with the fields named in the projection. Only
+     * this row is decoded, and only when somebody asks.
+     */
+    private Cursor queryPayload(Uri uri, String[] fields, String account) {
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("Name the fields you want: " + uri);
+        }
+        MatrixCursor result = new MatrixCursor(fields, 1);
+        Cursor c = getHelper(account).getReadableDatabase().query(USER_STATUS_RECORDS_TABLE_NAME,
+                PAYLOAD_PROJECTION, UserStatusRecord.STATUS_ID + "=?",
+                new String[] { uri.getPathSegments().get(1) }, null, null, null);
+        try {
+            if (c.moveToFirst()) {
+                byte[] payload = c.getBlob(0);
+                Object[] row = new Object[fields.length];
+                if (payload != null) {
+                    try {
+                        System.arraycopy(StatusPayload.getFields(payload, fields), 0, row, 0, fields.length);
+                    } catch (JSONException e) {
+                        Log.e(TAG, "Bad payload for " + uri, e);
+                    } catch (IllegalArgumentException e) {
+                        // Corrupt or truncated, so it's as good as no payload
+                        Log.e(TAG, "Bad payload for " + uri, e);
+                    }
+                }
+                result.addRow(row);
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    private static HashMap<String, String> getProjectionMap(int match) {
+        switch (match) {
+        case USER_TIMELINE:
+            return sTimelineProjectionMap;
+        case ENTITY:
+            return sEntityProjectionMap;
+        case USER_PROFILES:
+        case USER_PROFILE_ID:
+            return sUserProfileProjectionMap;
+        default:
+            return sUserStatusProjectionMap;
+        }
+    }
+
+    /**
+     * The projection map passes columns it doesn't know straight through to SQLite, which only
+     * complains after it's compiled the query, if it does at all. A hash lookup is cheaper.
+     */
+    private static void checkProjection(String[] projection, HashMap<String, String> map) {
+        if (projection != null) {
+            for (String column : projection) {
+                if (!map.containsKey(column)) {
+                    throw new IllegalArgumentException("Unknown column " + column);
+                }
+            }
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) throws SQLException {
 
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteDatabase db = getHelper(uri).getWritableDatabase();
         long item_id = -1;
-        ContentValues values = new ContentValues();
-        if (initialValues != null) {
-            values = initialValues;
-        } else {
-            values = new ContentValues();
-        }
         switch (sUriMatcher.match(uri)) {
         case USER_STATUS_RECORDS:
-            item_id = db.insert(USER_STATUS_RECORDS_TABLE_NAME,
-                    UserStatusRecords.UserStatusRecord.CREATED_DATE, values);
+            item_id = insertRecord(db, initialValues);
             break;
+        case USER_PROFILES:
+            if (db.replace(USER_PROFILES_TABLE_NAME, null, initialValues) > 0) {
+                Uri ret = UserProfiles.profileUri(initialValues.getAsLong(UserProfile.USER_ID));
+                invalidate(uri, QueryCache.PROFILES);
+                mCR.notifyChange(ret, null);
+                return ret;
+            }
+            return null;
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -211,41 +1216,179 @@ public class BloaProvider extends ContentProvider {
         if (item_id > 0) {
             ret = ContentUris.withAppendedId(UserStatusRecords.CONTENT_URI,
                     item_id);
+            invalidate(uri, QueryCache.LATEST | QueryCache.STATUSES);
             mCR.notifyChange(ret, null);
         }
         return ret;
     }
 
+    // Doesn't notify, so that a bulk insert can do it once at the end
+    private static long insertRecord(SQLiteDatabase db, ContentValues initialValues) {
+        ContentValues values = (initialValues != null) ? initialValues : new ContentValues();
+        if (values.containsKey(UserStatusRecord.ENTITIES) || values.containsKey(UserStatusRecord.MENTION_IDS)) {
+            // Only timelines keep entities, and nothing keeps the mention ids
+            values = new ContentValues(values);
+            values.remove(UserStatusRecord.ENTITIES);
+            values.remove(UserStatusRecord.MENTION_IDS);
+        }
+        return db.insert(USER_STATUS_RECORDS_TABLE_NAME, UserStatusRecords.UserStatusRecord.CREATED_DATE, values);
+    }
+
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
         int count = 0;
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        DatabaseHelper helper = getHelper(uri);
+        SQLiteDatabase db = helper.getWritableDatabase();
         String recId;
         String whereClause;
+        // The statuses the delete touched, whose leftovers are cleaned up after it
+        long[] touched;
 
-        switch (sUriMatcher.match(uri)) {
-        case USER_STATUS_RECORDS:
-            count = db.delete(USER_STATUS_RECORDS_TABLE_NAME, where, whereArgs);
-            break;
-        case USER_STATUS_RECORD_ID:
-            recId = uri.getPathSegments().get(1);
-            whereClause = UserStatusRecord._ID + "=" + recId
-                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ")" : "");
-            count = db.delete(USER_STATUS_RECORDS_TABLE_NAME, whereClause, whereArgs);
-            break;
-        default:
-            throw new IllegalArgumentException("Unknown URI " + uri);
+        db.beginTransaction();
+        try {
+            switch (sUriMatcher.match(uri)) {
+            case USER_STATUS_RECORDS:
+                // Whatever timelines these were in lose them too
+                helper.forgetSeen(null);
+                if (TextUtils.isEmpty(where)) {
+                    count = db.delete(USER_STATUS_RECORDS_TABLE_NAME, null, null);
+                    deleteOrphans(db);
+                    break;
+                }
+                touched = statusIds(db, USER_STATUS_RECORDS_TABLE_NAME, where, whereArgs);
+                count = db.delete(USER_STATUS_RECORDS_TABLE_NAME, where, whereArgs);
+                deleteOrphans(db, touched);
+                break;
+            case USER_STATUS_RECORD_ID:
+                helper.forgetSeen(null);
+                recId = uri.getPathSegments().get(1);
+                whereClause = UserStatusRecord._ID + "=" + recId
+                        + (!TextUtils.isEmpty(where) ? " AND (" + where + ")" : "");
+                touched = statusIds(db, USER_STATUS_RECORDS_TABLE_NAME, whereClause, whereArgs);
+                count = db.delete(USER_STATUS_RECORDS_TABLE_NAME, whereClause, whereArgs);
+                deleteOrphans(db, touched);
+                break;
+            case USER_TIMELINE:
+                if (!TextUtils.isEmpty(where)) {
+                    throw new IllegalArgumentException("Timelines are deleted whole: " + uri);
+                }
+                String keep = uri.getQueryParameter(BloaCommands.KEEP_PARAMETER);
+                if (keep != null) {
+                    count = trimTimeline(db, uri.getLastPathSegment(), Integer.parseInt(keep),
+                            helper.peekSeen(uri.getLastPathSegment()));
+                } else {
+                    helper.forgetSeen(uri.getLastPathSegment());
+                    String[] timeline = new String[] { uri.getLastPathSegment() };
+                    touched = statusIds(db, TIMELINE_ENTRIES_TABLE_NAME, UserStatusRecord.TIMELINE + "=?", timeline);
+                    count = db.delete(TIMELINE_ENTRIES_TABLE_NAME, UserStatusRecord.TIMELINE + "=?", timeline);
+                    deleteOrphans(db, touched);
+                }
+                break;
+            case USER_PROFILES:
+                count = db.delete(USER_PROFILES_TABLE_NAME, where, whereArgs);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        invalidate(uri, deleteRegions(sUriMatcher.match(uri)));
         mCR.notifyChange(uri, null);
+        // Statuses don't depend on profiles
+        if (sUriMatcher.match(uri) == USER_TIMELINE) {
+            mCR.notifyChange(UserStatusRecords.CONTENT_URI, null);
+        } else if (sUriMatcher.match(uri) != USER_PROFILES) {
+            mCR.notifyChange(UserStatusRecords.TIMELINE_URI, null);
+        }
         return count;
     }
 
+    // What a delete can change, as QueryCache regions
+    private static int deleteRegions(int match) {
+        switch (match) {
+        case USER_TIMELINE:
+            return QueryCache.STATUSES | QueryCache.TIMELINES | QueryCache.ENTITIES;
+        case USER_PROFILES:
+            return QueryCache.PROFILES;
+        default:
+            return QueryCache.ALL & ~QueryCache.PROFILES;
+        }
+    }
+
+    // The status ids in the rows of table that match where
+    private static long[] statusIds(SQLiteDatabase db, String table, String where, String[] whereArgs) {
+        String selection = UserStatusRecord.STATUS_ID + " NOTNULL"
+                + (TextUtils.isEmpty(where) ? "" : " AND (" + where + ")");
+        Cursor c = db.query(table, STATUS_ID_PROJECTION, selection, whereArgs, null, null, null);
+        try {
+            long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); ++i) {
+                ids[i] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * deleteOrphans() for just these statuses, which is what a delete leaves behind. Each step is
+     * an index lookup per status rather than a pass over every row.
+     */
+    private static void deleteOrphans(SQLiteDatabase db, long[] statusIds) {
+        for (int first = 0; first < statusIds.length; first += MAX_IDS_PER_DELETE) {
+            StringBuilder in = new StringBuilder(UserStatusRecord.STATUS_ID).append(" IN (");
+            int end = Math.min(first + MAX_IDS_PER_DELETE, statusIds.length);
+            for (int i = first; i < end; ++i) {
+                if (i > first) {
+                    in.append(',');
+                }
+                in.append(statusIds[i]);
+            }
+            in.append(")");
+            db.delete(TIMELINE_ENTRIES_TABLE_NAME, in + " AND NOT EXISTS (SELECT 1 FROM "
+                    + USER_STATUS_RECORDS_TABLE_NAME + " s WHERE s." + UserStatusRecord.STATUS_ID + "="
+                    + TIMELINE_ENTRIES_TABLE_NAME + "." + UserStatusRecord.STATUS_ID + ")", null);
+            db.delete(USER_STATUS_RECORDS_TABLE_NAME, in + " AND NOT EXISTS (SELECT 1 FROM "
+                    + TIMELINE_ENTRIES_TABLE_NAME + " t WHERE t." + UserStatusRecord.STATUS_ID + "="
+                    + USER_STATUS_RECORDS_TABLE_NAME + "." + UserStatusRecord.STATUS_ID + ")", null);
+            db.delete(STATUS_ENTITIES_TABLE_NAME, in + " AND NOT EXISTS (SELECT 1 FROM "
+                    + USER_STATUS_RECORDS_TABLE_NAME + " s WHERE s." + UserStatusRecord.STATUS_ID + "="
+                    + STATUS_ENTITIES_TABLE_NAME + "." + UserStatusRecord.STATUS_ID + ")", null);
+        }
+    }
+
+    /**
+     * Timeline entries without a status, statuses that aren't in any timeline any more, and their
+     * entities, anywhere. This reads every row, so it's only for trims and whole-table deletes;
+     * deletes of particular statuses use the version that takes their ids.
+     */
+    private static void deleteOrphans(SQLiteDatabase db) {
+        db.delete(TIMELINE_ENTRIES_TABLE_NAME, UserStatusRecord.STATUS_ID + " NOT IN (SELECT "
+                + UserStatusRecord.STATUS_ID + " FROM " + USER_STATUS_RECORDS_TABLE_NAME + " WHERE "
+                + UserStatusRecord.STATUS_ID + " NOTNULL)", null);
+        db.delete(USER_STATUS_RECORDS_TABLE_NAME, UserStatusRecord.STATUS_ID + " NOT IN (SELECT "
+                + UserStatusRecord.STATUS_ID + " FROM " + TIMELINE_ENTRIES_TABLE_NAME + ")", null);
+        db.delete(STATUS_ENTITIES_TABLE_NAME, UserStatusRecord.STATUS_ID + " NOT IN (SELECT "
+                + UserStatusRecord.STATUS_ID + " FROM " + USER_STATUS_RECORDS_TABLE_NAME + " WHERE "
+                + UserStatusRecord.STATUS_ID + " NOTNULL)", null);
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String where,
             String[] whereArgs) {
+        if (sUriMatcher.match(uri) == SELECTION) {
+            // What BloaCommands.selectAccount() does before Honeycomb
+            if (selectAccount(values.getAsString(BloaCommands.EXTRA_ACCOUNT))) {
+                mCR.notifyChange(CONTENT_URI, null);
+            }
+            return 1;
+        }
         int count = 0;
         // Get the database and run the query
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteDatabase db = getHelper(uri).getWritableDatabase();
         String recId;
         String whereClause;
 
@@ -262,6 +1405,7 @@ public class BloaProvider extends ContentProvider {
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
+        invalidate(uri, QueryCache.LATEST | QueryCache.STATUSES);
         mCR.notifyChange(uri, null);
         return count;
     }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentValues;
+
+/**
+ * Parses a page of statuses on all the cores at once. One pass over the text finds where each
+ * status starts and ends, which is cheap next to building the JSON objects and the values from
+ * them, and then runs of statuses are handed out to a pool of threads. Each result goes in its
+ * own slot, so the order is the same as in the page.
+ *
+ * There's no fork/join pool on the platform versions we support, so this is a fixed pool with more
+ * pieces than threads; a thread that finishes early takes the next piece off the queue.
+ */
+public class ParallelStatusParser {
+
+    // Below this it's not worth the hand off
+    public static final int MIN_PARALLEL = 16;
+
+    // Pieces per thread, so that one slow piece doesn't hold everything up
+    private static final int PIECES_PER_THREAD = 4;
+
+    private static ParallelStatusParser sInstance = null;
+
+    private final int mThreads;
+    private final ExecutorService mExecutor;
+
+    public static synchronized ParallelStatusParser get() {
+        if (sInstance == null) {
+            sInstance = new ParallelStatusParser(Runtime.getRuntime().availableProcessors());
+        }
+        return sInstance;
+    }
+
+    public ParallelStatusParser(int threads) {
+        mThreads = Math.max(1, threads);
+        // The calling thread does its share, so one fewer
+        mExecutor = (mThreads > 1) ? Executors.newFixedThreadPool(mThreads - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Status parser");
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * Told on the thread that called {@link ParallelStatusParser#parse(String, Listener)} each time
+     * more of the page is ready, so it can store the first statuses while the rest are parsed.
+     */
+    public interface Listener {
+        /**
+         * @param values the whole page, of which the first ready are parsed
+         */
+        void onParsed(ContentValues[] values, int ready) throws InterruptedException;
+    }
+
+    /**
+     * Parses a JSON array of statuses with {@link StatusParser#parseTimelineJSONObject}.
+     *
+     * @return the values, in the same order as the array
+     */
+    public ContentValues[] parse(String body) throws JSONException, InterruptedException {
+        return parse(body, null);
+    }
+
+    /**
+     * Like {@link #parse(String)}, but tells the listener about each piece as soon as it and
+     * everything before it are parsed.
+     */
+    public ContentValues[] parse(final String body, Listener listener) throws JSONException, InterruptedException {
+        final int[] slices = slice(body);
+        final int count = slices.length / 2;
+        final ContentValues[] values = new ContentValues[count];
+        if (mExecutor == null || count < MIN_PARALLEL) {
+            parseRange(body, slices, values, 0, count);
+            if (listener != null) {
+                listener.onParsed(values, count);
+            }
+            return values;
+        }
+        int pieces = Math.min(count, mThreads * PIECES_PER_THREAD);
+        List<Future<Void>> results = new ArrayList<Future<Void>>(pieces);
+        // The first piece is ours, and the pool takes the rest off its queue in page order
+        for (int piece = 1; piece < pieces; ++piece) {
+            final int first = count * piece / pieces;
+            final int end = count * (piece + 1) / pieces;
+            results.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    parseRange(body, slices, values, first, end);
+                    return null;
+                }
+            }));
+        }
+        try {
+            parseRange(body, slices, values, 0, count / pieces);
+            if (listener != null) {
+                listener.onParsed(values, count / pieces);
+            }
+            for (int piece = 1; piece < pieces; ++piece) {
+                results.get(piece - 1).get();
+                if (listener != null) {
+                    listener.onParsed(values, count * (piece + 1) / pieces);
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+        }
+        return values;
+    }
+
+    private static void parseRange(String body, int[] slices, ContentValues[] values, int first, int end)
+            throws JSONException {
+        for (int i = first; i < end; ++i) {
+            values[i] = StatusParser.parseTimelineJSONObject(
+                new JSONObject(body.substring(slices[2 * i], slices[2 * i + 1])));
+        }
+    }
+
+    /**
+     * Finds the objects in a JSON array without parsing them.
+     *
+     * @return the start and end of each object, in pairs
+     * @throws JSONException if it isn't an array of objects
+     */
+    public static int[] slice(String body) throws JSONException {
+        int length = body.length();
+        int i = skipWhitespace(body, 0);
+        if (i >= length || body.charAt(i) != '[') {
+            throw new JSONException("A JSONArray text must start with '['");
+        }
+        int[] slices = new int[64];
+        int count = 0;
+        ++i;
+        while (true) {
+            i = skipWhitespace(body, i);
+            if (i < length && body.charAt(i) == ',' && count > 0) {
+                i = skipWhitespace(body, i + 1);
+            } else if (i < length && body.charAt(i) == ']') {
+                break;
+            }
+            if (i >= length || body.charAt(i) != '{') {
+                throw new JSONException("Expected a status object at " + i);
+            }
+            int start = i;
+            int depth = 0;
+            boolean inString = false;
+            for (; i < length; ++i) {
+                char c = body.charAt(i);
+                if (inString) {
+                    if (c == '\\') {
+                        ++i;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    ++depth;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        break;
+                    }
+                }
+            }
+            if (i >= length) {
+                throw new JSONException("Unterminated status object at " + start);
+            }
+            ++i;
+            if (2 * count + 2 > slices.length) {
+                int[] bigger = new int[slices.length * 2];
+                System.arraycopy(slices, 0, bigger, 0, slices.length);
+                slices = bigger;
+            }
+            slices[2 * count] = start;
+            slices[2 * count + 1] = i;
+            ++count;
+        }
+        int[] result = new int[2 * count];
+        System.arraycopy(slices, 0, result, 0, result.length);
+        return result;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            ++i;
+        }
+        return i;
+    }
+}
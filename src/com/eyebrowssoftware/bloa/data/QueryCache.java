@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import java.util.Map;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import com.eyebrowssoftware.bloa.util.CacheRegistry;
+
+/**
+ * Small query results, kept in memory so that asking again doesn't go near SQLite. A loader
+ * requeries on every change notification under its uri, and most of those changes are to
+ * something else.
+ *
+ * Each result says which regions of an account's data it was read from, and a write to any of
+ * them throws it away. Only results of a few rows without blobs are kept, and the whole cache is
+ * bounded by a rough count of the bytes in it. Every hit gets its own cursor.
+ */
+public class QueryCache implements CacheRegistry.Trimmable {
+    static final String TAG = QueryCache.class.toString();
+
+    // The regions. The latest status singleton is apart from the statuses in timelines
+    public static final int LATEST = 1;
+    public static final int STATUSES = 2;
+    public static final int TIMELINES = 4;
+    public static final int PROFILES = 8;
+    public static final int ENTITIES = 16;
+    public static final int ALL = LATEST | STATUSES | TIMELINES | PROFILES | ENTITIES;
+
+    public static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // More than this and it isn't the kind of query we're here for
+    public static final int MAX_ROWS = 32;
+
+    // About what the VM spends on an object and a reference to it
+    private static final int OBJECT_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    private static final char SEPARATOR = '\u0000';
+
+    private static class Result {
+        final String account;
+        final int regions;
+        final String[] columns;
+        final Object[][] rows;
+        final int bytes;
+
+        Result(String account, int regions, String[] columns, Object[][] rows) {
+            this.account = account;
+            this.regions = regions;
+            this.columns = columns;
+            this.rows = rows;
+            int size = OBJECT_BYTES * 2;
+            for (Object[] row : rows) {
+                size += OBJECT_BYTES + REFERENCE_BYTES * row.length;
+                for (Object value : row) {
+                    size += sizeOf(value);
+                }
+            }
+            this.bytes = size;
+        }
+    }
+
+    private final LruCache<String, Result> mCache;
+
+    // Guarded by this. Bumped by every invalidation, so a query that was running at the time
+    // can't put back what was just thrown away
+    private long mGeneration = 0;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public QueryCache(int maxBytes) {
+        mCache = new LruCache<String, Result>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Result value) {
+                return value.bytes;
+            }
+        };
+    }
+
+    /**
+     * The key for a query. The account is the one the query was resolved to, not what the uri
+     * asked for, since no account means whichever one is selected.
+     */
+    public static String key(String account, Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(account).append(SEPARATOR).append(uri).append(SEPARATOR);
+        if (projection != null) {
+            for (String column : projection) {
+                sb.append(column).append(',');
+            }
+        }
+        sb.append(SEPARATOR).append(selection).append(SEPARATOR);
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                sb.append(arg).append(SEPARATOR);
+            }
+        }
+        return sb.append(SEPARATOR).append(sortOrder).toString();
+    }
+
+    /**
+     * Read before running a query, and hand it to put() afterwards.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a cursor over a copy of the result, or null if we don't have it
+     */
+    public Cursor get(String key) {
+        Result result = mCache.get(key);
+        if (result == null) {
+            return null;
+        }
+        return cursor(result.columns, result.rows);
+    }
+
+    /**
+     * Keeps what the cursor has, if it's small enough, unless there's been a write since
+     * generation was read.
+     *
+     * @return a cursor over the copy, in which case c has been closed, or null if it wasn't kept
+     * and c is back before its first row
+     */
+    public Cursor put(long generation, String key, String account, int regions, Cursor c) {
+        Object[][] rows = copy(c);
+        if (rows == null) {
+            c.moveToPosition(-1);
+            return null;
+        }
+        String[] columns = c.getColumnNames();
+        c.close();
+        put(generation, key, new Result(account, regions, columns, rows));
+        return cursor(columns, rows);
+    }
+
+    /**
+     * Keeps a result that was never in a cursor.
+     */
+    public void put(long generation, String key, String account, int regions, String[] columns,
+            Object[][] rows) {
+        if (rows.length <= MAX_ROWS) {
+            put(generation, key, new Result(account, regions, columns, rows));
+        }
+    }
+
+    private synchronized void put(long generation, String key, Result result) {
+        if (generation == mGeneration) {
+            mCache.put(key, result);
+        }
+    }
+
+    private static Cursor cursor(String[] columns, Object[][] rows) {
+        MatrixCursor c = new MatrixCursor(columns, rows.length);
+        for (Object[] row : rows) {
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    /**
+     * Throws away everything of the account's that was read from any of the regions. Call it
+     * after the write has committed.
+     */
+    public synchronized void invalidate(String account, int regions) {
+        ++mGeneration;
+        for (Map.Entry<String, Result> entry : mCache.snapshot().entrySet()) {
+            Result result = entry.getValue();
+            if ((result.regions & regions) != 0 && result.account.equals(account)) {
+                mCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    public synchronized void evictAll() {
+        ++mGeneration;
+        mCache.evictAll();
+    }
+
+    /**
+     * Drops the least recently used results until there's no more than maxBytes left.
+     */
+    @Override
+    public void trimToSize(int maxBytes) {
+        mCache.trimToSize(maxBytes);
+    }
+
+    @Override
+    public int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    // The rows, or null if there are too many or any of them has a blob
+    private static Object[][] copy(Cursor c) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB && !(c instanceof AbstractWindowedCursor)) {
+            // No way to tell the types
+            return null;
+        }
+        int count = c.getCount();
+        if (count > MAX_ROWS) {
+            return null;
+        }
+        int columns = c.getColumnCount();
+        Object[][] rows = new Object[count][];
+        c.moveToPosition(-1);
+        for (int i = 0; c.moveToNext(); ++i) {
+            Object[] row = new Object[columns];
+            for (int column = 0; column < columns; ++column) {
+                if (isBlob(c, column)) {
+                    return null;
+                }
+                row[column] = value(c, column);
+            }
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    // The AbstractWindowedCursor type checks are deprecated, but before Honeycomb they're the only
+    // way to tell a blob from a string, and minSdk is well before that
+    @SuppressWarnings("deprecation")
+    private static boolean isBlob(Cursor c, int column) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return c.getType(column) == Cursor.FIELD_TYPE_BLOB;
+        }
+        return ((AbstractWindowedCursor) c).isBlob(column);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Object value(Cursor c, int column) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            switch (c.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return c.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return c.getDouble(column);
+            default:
+                return c.getString(column);
+            }
+        }
+        AbstractWindowedCursor w = (AbstractWindowedCursor) c;
+        if (w.isNull(column)) {
+            return null;
+        } else if (w.isLong(column)) {
+            return c.getLong(column);
+        } else if (w.isFloat(column)) {
+            return c.getDouble(column);
+        }
+        return c.getString(column);
+    }
+
+    private static int sizeOf(Object value) {
+        if (value == null) {
+            return REFERENCE_BYTES;
+        } else if (value instanceof String) {
+            return OBJECT_BYTES * 2 + ((String) value).length() * 2;
+        }
+        // A boxed number, or whatever a payload field is
+        return OBJECT_BYTES + value.toString().length();
+    }
+}
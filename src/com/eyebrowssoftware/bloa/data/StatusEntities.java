@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.net.Uri;
+
+/**
+ * The hashtags, mentions and links in statuses. The provider keeps them in a table of their own,
+ * indexed by type and value, so "everything tagged #foo" is an index lookup instead of a scan of
+ * every status's text.
+ *
+ * They travel into the provider with the rest of a status's values, packed into one string under
+ * {@link UserStatusRecords.UserStatusRecord#ENTITIES}, a "type:value" a line.
+ */
+public final class StatusEntities {
+
+    // This class cannot be instantiated
+    private StatusEntities() {
+    }
+
+    public static final String TYPE_HASHTAG = "hashtag";
+    public static final String TYPE_MENTION = "mention";
+    public static final String TYPE_URL = "url";
+
+    /**
+     * The content:// style URL for entities. Append a type and a value to get the statuses that
+     * have that entity, newest first.
+     */
+    public static final Uri CONTENT_URI =
+        BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.ENTITY_PATH).build();
+
+    /**
+     * Only statuses older than this status id. Pass the last one of a page to get the next page.
+     */
+    public static final String BEFORE_PARAMETER = "before";
+
+    /**
+     * At most this many statuses.
+     */
+    public static final String LIMIT_PARAMETER = "limit";
+
+    // In the table
+    public static final String TYPE = "type";
+    public static final String VALUE = "value";
+
+    public static Uri entityUri(String type, String value) {
+        return CONTENT_URI.buildUpon().appendPath(type).appendPath(normalize(type, value)).build();
+    }
+
+    /**
+     * A page of statuses with the entity, newest first.
+     *
+     * @param before the status id the page starts after, or null for the first page
+     */
+    public static Uri entityPageUri(String type, String value, Long before, int limit) {
+        Uri.Builder builder = entityUri(type, value).buildUpon();
+        if (before != null) {
+            builder.appendQueryParameter(BEFORE_PARAMETER, before.toString());
+        }
+        return builder.appendQueryParameter(LIMIT_PARAMETER, Integer.toString(limit)).build();
+    }
+
+    /**
+     * What we look entities up by: hashtags and screen names are case insensitive and lose their
+     * # or @, and links lose a trailing slash.
+     */
+    public static String normalize(String type, String value) {
+        if (TYPE_URL.equals(type)) {
+            return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+        }
+        if (value.startsWith("#") || value.startsWith("@")) {
+            value = value.substring(1);
+        }
+        return value.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Pulls the entities out of a status's JSON, already normalized and packed.
+     *
+     * @return the packed entities, or null if there aren't any
+     */
+    public static String parse(JSONObject status) {
+        JSONObject entities = status.optJSONObject("entities");
+        if (entities == null) {
+            return null;
+        }
+        StringBuilder packed = new StringBuilder();
+        add(packed, TYPE_HASHTAG, entities.optJSONArray("hashtags"), "text");
+        add(packed, TYPE_MENTION, entities.optJSONArray("user_mentions"), "screen_name");
+        add(packed, TYPE_URL, entities.optJSONArray("urls"), "expanded_url");
+        return (packed.length() > 0) ? packed.toString() : null;
+    }
+
+    /**
+     * @return the ids of the users the status mentions, comma separated, or null if there aren't any
+     */
+    public static String parseMentionIds(JSONObject status) {
+        JSONObject entities = status.optJSONObject("entities");
+        JSONArray mentions = (entities == null) ? null : entities.optJSONArray("user_mentions");
+        if (mentions == null) {
+            return null;
+        }
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < mentions.length(); ++i) {
+            JSONObject mention = mentions.optJSONObject(i);
+            long id = (mention == null) ? 0 : mention.optLong("id");
+            if (id > 0) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(id);
+            }
+        }
+        return (ids.length() > 0) ? ids.toString() : null;
+    }
+
+    private static void add(StringBuilder packed, String type, JSONArray array, String key) {
+        if (array == null) {
+            return;
+        }
+        for (int i = 0; i < array.length(); ++i) {
+            JSONObject entity = array.optJSONObject(i);
+            String value = (entity == null || entity.isNull(key)) ? null : entity.optString(key);
+            if (value != null && value.length() > 0 && value.indexOf('\n') < 0) {
+                if (packed.length() > 0) {
+                    packed.append('\n');
+                }
+                packed.append(type).append(':').append(normalize(type, value));
+            }
+        }
+    }
+
+    /**
+     * @return pairs of type and value
+     */
+    public static List<String[]> unpack(String packed) {
+        List<String[]> entities = new ArrayList<String[]>();
+        if (packed != null) {
+            for (String line : packed.split("\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    entities.add(new String[] { line.substring(0, colon), line.substring(colon + 1) });
+                }
+            }
+        }
+        return entities;
+    }
+}
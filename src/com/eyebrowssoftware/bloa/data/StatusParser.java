@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentValues;
+
+import com.eyebrowssoftware.bloa.data.UserProfiles.UserProfile;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.util.CreatedAtParser;
+
+/**
+ * Turns the JSON the service sends us into the values we keep in {@link BloaProvider}.
+ */
+public final class StatusParser {
+
+    // This class cannot be instantiated
+    private StatusParser() {
+    }
+
+    /**
+     * Parses the response from verify_credentials into the latest status singleton. It has no status
+     * id, so it never collides with the same status in a timeline.
+     */
+    public static ContentValues parseVerifyUserJSONObject(JSONObject object) throws JSONException {
+        ContentValues values = new ContentValues();
+        values.put(UserStatusRecord.USER_NAME, object.getString("name"));
+        values.put(UserStatusRecord.RECORD_ID, object.getLong("id"));
+        values.put(UserStatusRecord.USER_CREATED_DATE, object.getString("created_at"));
+        JSONObject status = object.getJSONObject("status");
+        values.put(UserStatusRecord.USER_TEXT, status.getString("text"));
+        values.put(UserStatusRecord.CREATED_DATE, parseCreatedAt(status));
+        return values;
+    }
+
+    /**
+     * Parses a status from a timeline, or the one we get back after posting.
+     */
+    public static ContentValues parseTimelineJSONObject(JSONObject object) throws JSONException {
+        ContentValues values = new ContentValues();
+        JSONObject user = object.getJSONObject("user");
+        values.put(UserStatusRecord.USER_NAME, user.getString("name"));
+        values.put(UserStatusRecord.RECORD_ID, user.getLong("id"));
+        values.put(UserStatusRecord.USER_CREATED_DATE, object.getString("created_at"));
+        values.put(UserStatusRecord.CREATED_DATE, parseCreatedAt(object));
+        values.put(UserStatusRecord.USER_TEXT, object.getString("text"));
+        values.put(UserStatusRecord.STATUS_ID, object.getLong("id"));
+        if (!object.isNull("in_reply_to_status_id")) {
+            values.put(UserStatusRecord.IN_REPLY_TO_STATUS_ID, object.getLong("in_reply_to_status_id"));
+        }
+        values.put(UserStatusRecord.PAYLOAD, StatusPayload.compress(object.toString()));
+        String entities = StatusEntities.parse(object);
+        if (entities != null) {
+            values.put(UserStatusRecord.ENTITIES, entities);
+        }
+        String mentions = StatusEntities.parseMentionIds(object);
+        if (mentions != null) {
+            values.put(UserStatusRecord.MENTION_IDS, mentions);
+        }
+        return values;
+    }
+
+    /**
+     * Parses a user object, from users/lookup or verify_credentials, into a profile.
+     *
+     * @param fetched when we got it, in milliseconds
+     */
+    public static ContentValues parseUserJSONObject(JSONObject object, long fetched) throws JSONException {
+        ContentValues values = new ContentValues();
+        values.put(UserProfile.USER_ID, object.getLong("id"));
+        values.put(UserProfile.NAME, object.getString("name"));
+        values.put(UserProfile.SCREEN_NAME, object.optString("screen_name"));
+        values.put(UserProfile.DESCRIPTION, object.optString("description"));
+        values.put(UserProfile.PROFILE_IMAGE_URL, object.optString("profile_image_url_https"));
+        values.put(UserProfile.FOLLOWERS_COUNT, object.optInt("followers_count"));
+        values.put(UserProfile.FRIENDS_COUNT, object.optInt("friends_count"));
+        values.put(UserProfile.FETCHED_DATE, fetched);
+        return values;
+    }
+
+    // The sort order is on this, so we keep it as a number. A date that won't parse falls back on
+    // the time in the id, not the time now, which would put the status on top of the timeline
+    private static long parseCreatedAt(JSONObject status) {
+        return CreatedAtParser.parse(status.optString("created_at"),
+                CreatedAtParser.fromStatusId(status.optLong("id")));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The JSON a status came in, squeezed down to keep next to the columns we query on. When we want
+ * something the parser didn't keep, it's a local decode away instead of a refetch.
+ *
+ * A payload is a format byte followed by deflated UTF-8. Statuses are small, and most of each one
+ * is the same keys over and over, so the deflater is primed with those.
+ */
+public final class StatusPayload {
+
+    // This class cannot be instantiated
+    private StatusPayload() {
+    }
+
+    private static final byte FORMAT_DEFLATE_DICTIONARY_1 = 1;
+
+    private static final String UTF_8 = "UTF-8";
+
+    // Deflate looks back from the end, so the commonest strings go last
+    private static final byte[] DICTIONARY = utf8("\"profile_sidebar_border_color\":\"\"profile_sidebar_fill_color\":\""
+        + "\"profile_link_color\":\"\"profile_text_color\":\"\"profile_background_color\":\""
+        + "\"profile_background_tile\":false,\"profile_use_background_image\":true,"
+        + "\"profile_background_image_url_https\":\"https:\\/\\/\"profile_background_image_url\":\"http:\\/\\/"
+        + "\"profile_image_url_https\":\"https:\\/\\/pbs.twimg.com\\/profile_images\\/"
+        + "\"profile_image_url\":\"http:\\/\\/pbs.twimg.com\\/profile_images\\/\"default_profile\":false,"
+        + "\"default_profile_image\":false,\"contributors_enabled\":false,\"is_translator\":false,"
+        + "\"geo_enabled\":false,\"verified\":false,\"protected\":false,\"follow_request_sent\":null,"
+        + "\"notifications\":null,\"following\":null,\"utc_offset\":null,\"time_zone\":null,\"lang\":\"en\","
+        + "\"listed_count\":\"favourites_count\":\"statuses_count\":\"followers_count\":\"friends_count\":"
+        + "\"location\":\"\"description\":\"\"url\":null,\"entities\":{\"description\":{\"urls\":[]}},"
+        + "\"screen_name\":\"\"name\":\"\"user\":{\"id\":\"id_str\":\"\"contributors\":null,\"place\":null,"
+        + "\"coordinates\":null,\"geo\":null,\"in_reply_to_screen_name\":null,\"in_reply_to_user_id_str\":null,"
+        + "\"in_reply_to_user_id\":null,\"in_reply_to_status_id_str\":null,\"in_reply_to_status_id\":null,"
+        + "\"truncated\":false,\"source\":\"<a href=\\\"http:\\/\\/\" rel=\\\"nofollow\\\">web<\\/a>\","
+        + "\"favorited\":false,\"retweeted\":false,\"possibly_sensitive\":false,\"retweet_count\":"
+        + "\"favorite_count\":\"indices\":[\"display_url\":\"\"expanded_url\":\"http:\\/\\/\"url\":\"http:\\/\\/t.co\\/"
+        + "\"hashtags\":[],\"symbols\":[],\"urls\":[],\"user_mentions\":[]},\"entities\":{\"hashtags\":["
+        + "\"created_at\":\"Mon Tue Wed Thu Fri Sat Sun Jan Feb Mar Apr May Jun Jul Aug Sep Oct Nov Dec +0000 20"
+        + "\"text\":\"");
+
+    public static byte[] compress(String json) {
+        byte[] input = utf8(json);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+            out.write(FORMAT_DEFLATE_DICTIONARY_1);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if it isn't a payload we made
+     */
+    public static String decompress(byte[] payload) {
+        if (payload == null || payload.length == 0 || payload[0] != FORMAT_DEFLATE_DICTIONARY_1) {
+            throw new IllegalArgumentException("Unknown payload format");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload, 1, payload.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalArgumentException("Truncated payload");
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt payload", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Finds a field by a dotted path, like "user.screen_name".
+     *
+     * @return the field as a string, JSON for objects and arrays, or null if it isn't there or is null
+     */
+    public static String getField(JSONObject status, String path) {
+        Object value = status;
+        for (String key : path.split("\\.")) {
+            if (!(value instanceof JSONObject)) {
+                return null;
+            }
+            value = ((JSONObject) value).opt(key);
+        }
+        return (value == null || value == JSONObject.NULL) ? null : value.toString();
+    }
+
+    /**
+     * Decodes a payload and picks out the fields.
+     */
+    public static String[] getFields(byte[] payload, String[] paths) throws JSONException {
+        JSONObject status = new JSONObject(decompress(payload));
+        String[] values = new String[paths.length];
+        for (int i = 0; i < paths.length; ++i) {
+            values[i] = getField(status, paths[i]);
+        }
+        return values;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * A small binary copy of the first screen of the home timeline plus the latest status record. It's
+ * written after each sync and memory mapped at startup so we have something to show before the
+ * provider has even opened the database. The live cursors replace it as soon as they arrive.
+ *
+ * The file is: magic, version, latest status (a flag, then name and text), row count, then for each
+ * row the columns of {@link App#USER_TIMELINE_PROJECTION}. Strings are an int length and UTF-8 bytes,
+ * with a length of -1 for null.
+ */
+public class TimelineSnapshot {
+    static final String TAG = TimelineSnapshot.class.toString();
+
+    public static final int FIRST_SCREEN_ROWS = 20;
+
+    private static final String FILE_NAME = "timeline.snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x426c6f61; // "Bloa"
+    private static final int VERSION = 2;
+
+    private static final String UTF_8 = "UTF-8";
+
+    private final String mUserName;
+    private final String mUserText;
+    private final MatrixCursor mTimeline;
+
+    private TimelineSnapshot(String userName, String userText, MatrixCursor timeline) {
+        mUserName = userName;
+        mUserText = userText;
+        mTimeline = timeline;
+    }
+
+    public String getUserName() {
+        return mUserName;
+    }
+
+    public String getUserText() {
+        return mUserText;
+    }
+
+    /**
+     * The snapshot rows, with the columns of {@link App#USER_TIMELINE_PROJECTION}. The caller owns
+     * the cursor and should close it once the real one takes over.
+     */
+    public Cursor getTimeline() {
+        return mTimeline;
+    }
+
+    /**
+     * Reads the snapshot, or returns null if there isn't one or it's no good.
+     */
+    public static TimelineSnapshot read(File directory) {
+        File file = new File(directory, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception reading snapshot", e);
+        } catch (BufferUnderflowException e) {
+            Log.e(TAG, "Truncated snapshot", e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing to be done
+                }
+            }
+        }
+        return null;
+    }
+
+    private static TimelineSnapshot decode(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            Log.w(TAG, "Ignoring snapshot with the wrong version");
+            return null;
+        }
+        String userName = null, userText = null;
+        if (buffer.get() != 0) {
+            userName = getString(buffer);
+            userText = getString(buffer);
+        }
+        int count = buffer.getInt();
+        // We never write more than a screenful, and anything else would be allocated on the UI thread
+        if (count < 0 || count > FIRST_SCREEN_ROWS) {
+            throw new IOException("Bad row count " + count);
+        }
+        MatrixCursor timeline = new MatrixCursor(App.USER_TIMELINE_PROJECTION, count);
+        for (int i = 0; i < count; ++i) {
+            Object[] row = new Object[App.USER_TIMELINE_PROJECTION.length];
+            row[App.IDX_USER_TIMELINE_ID] = buffer.getLong();
+            row[App.IDX_USER_TIMELINE_USER_NAME] = getString(buffer);
+            row[App.IDX_USER_TIMELINE_USER_TEXT] = getString(buffer);
+            row[App.IDX_USER_TIMELINE_CREATED_DATE] = buffer.getLong();
+            timeline.addRow(row);
+        }
+        return new TimelineSnapshot(userName, userText, timeline);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes a new snapshot from what's in the provider now. Call this off the UI thread.
+     */
+    public static void write(File directory, ContentResolver cr) {
+        Cursor status = null, timeline = null;
+        try {
+            // Only what the snapshot keeps, not the whole timeline
+            status = cr.query(UserStatusRecords.withLimit(UserStatusRecords.CONTENT_URI, 1), App.USER_STATUS_PROJECTION,
+                    App.USER_STATUS_QUERY_WHERE, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+            timeline = cr.query(UserStatusRecords.withLimit(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                    FIRST_SCREEN_ROWS), App.USER_TIMELINE_PROJECTION,
+                    App.USER_TIMELINE_QUERY_WHERE, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+            write(directory, encode(status, timeline));
+        } catch (IOException e) {
+            Log.e(TAG, "Exception writing snapshot", e);
+        } finally {
+            if (status != null) {
+                status.close();
+            }
+            if (timeline != null) {
+                timeline.close();
+            }
+        }
+    }
+
+    /**
+     * Throws the snapshot away, as when the user logs out.
+     */
+    public static synchronized void delete(File directory) {
+        new File(directory, FILE_NAME).delete();
+    }
+
+    private static byte[] encode(Cursor status, Cursor timeline) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        if (status != null && status.moveToFirst()) {
+            out.writeByte(1);
+            putString(out, status.getString(App.IDX_USER_STATUS_USER_NAME));
+            putString(out, status.getString(App.IDX_USER_STATUS_USER_TEXT));
+        } else {
+            out.writeByte(0);
+        }
+        int count = (timeline == null) ? 0 : Math.min(timeline.getCount(), FIRST_SCREEN_ROWS);
+        out.writeInt(count);
+        for (int i = 0; i < count && timeline.moveToPosition(i); ++i) {
+            out.writeLong(timeline.getLong(App.IDX_USER_TIMELINE_ID));
+            putString(out, timeline.getString(App.IDX_USER_TIMELINE_USER_NAME));
+            putString(out, timeline.getString(App.IDX_USER_TIMELINE_USER_TEXT));
+            out.writeLong(timeline.getLong(App.IDX_USER_TIMELINE_CREATED_DATE));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    // Write to the side and rename, so a reader never sees half a file
+    private static synchronized void write(File directory, byte[] data) throws IOException {
+        File temp = new File(directory, FILE_NAME + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(directory, FILE_NAME))) {
+            throw new IOException("Couldn't rename " + temp);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * The user profiles we've looked up, kept alongside the statuses so that showing who somebody is
+ * doesn't have to go to the network every time.
+ */
+public final class UserProfiles {
+
+    // Private constructor - This class cannot be instantiated
+    private UserProfiles() {
+    }
+
+    /**
+     * The content:// style URL for this table. Append a user id for one profile.
+     */
+    public static final Uri CONTENT_URI =
+        BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.USER_PROFILES_PATH).build();
+
+    public static Uri profileUri(long userId) {
+        return ContentUris.withAppendedId(CONTENT_URI, userId);
+    }
+
+    public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+        + "/vnd.com.example.bloa.user_profile";
+
+    public static final class UserProfile implements BaseColumns {
+
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+            + "/vnd.com.example.bloa.user_profile";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String USER_ID = "user_id";
+        public static final String NAME = "name";
+        public static final String SCREEN_NAME = "screen_name";
+        public static final String DESCRIPTION = "description";
+        public static final String PROFILE_IMAGE_URL = "profile_image_url";
+        public static final String FOLLOWERS_COUNT = "followers_count";
+        public static final String FRIENDS_COUNT = "friends_count";
+        // When we got it, in milliseconds, so we know when to ask again
+        public static final String FETCHED_DATE = "fetched_at";
+    }
+}
@@ -16,6 +16,7 @@
 package com.eyebrowssoftware.bloa.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -35,6 +36,72 @@ public final class UserStatusRecords {
     public static final Uri CONTENT_URI =
         BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.USER_STATUS_PATH).build();
 
+    /**
+     * The content:// style URL for the timelines. Append a timeline key to get the statuses in that
+     * timeline.
+     */
+    public static final Uri TIMELINE_URI =
+        BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.USER_TIMELINE_PATH).build();
+
+    /**
+     * Timeline keys. A status that's in more than one timeline is only stored once.
+     */
+    public static final String TIMELINE_HOME = "home";
+    public static final String TIMELINE_USER = "user";
+    public static final String TIMELINE_FRIENDS = "friends";
+    // Statuses we fetched only because something in a timeline replies to them
+    public static final String TIMELINE_CONVERSATION = "conversation";
+
+    public static Uri timelineUri(String timeline) {
+        return TIMELINE_URI.buildUpon().appendPath(timeline).build();
+    }
+
+    /**
+     * The content:// style URL for conversations. Append any status id in a thread to get the whole
+     * thread, oldest first.
+     */
+    public static final Uri CONVERSATION_URI =
+        BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.CONVERSATION_PATH).build();
+
+    public static Uri conversationUri(long statusId) {
+        return ContentUris.withAppendedId(CONVERSATION_URI, statusId);
+    }
+
+    /**
+     * The content:// style URL for the fields the parser didn't keep. Append a status id, and ask
+     * for fields from the original JSON by name as the projection: "retweet_count", or with dots
+     * for nested ones, "user.screen_name". The one row has each field as a string, or null.
+     */
+    public static final Uri PAYLOAD_URI =
+        BloaProvider.CONTENT_URI.buildUpon().appendPath(BloaProvider.PAYLOAD_PATH).build();
+
+    public static Uri payloadUri(long statusId) {
+        return ContentUris.withAppendedId(PAYLOAD_URI, statusId);
+    }
+
+    /**
+     * Each account has its own statuses and timelines. A uri without this parameter is for the
+     * selected account, which is what the UI shows.
+     */
+    public static final String ACCOUNT_PARAMETER = "account";
+
+    /**
+     * The same uri for a particular account, or for the selected one if account is null.
+     */
+    public static Uri forAccount(Uri uri, String account) {
+        return (account == null) ? uri : uri.buildUpon().appendQueryParameter(ACCOUNT_PARAMETER, account).build();
+    }
+
+    /**
+     * At most this many rows. The provider takes it on statuses and timelines, so a caller that
+     * only wants the first few doesn't read the rest into a cursor window.
+     */
+    public static final String LIMIT_PARAMETER = "limit";
+
+    public static Uri withLimit(Uri uri, int limit) {
+        return uri.buildUpon().appendQueryParameter(LIMIT_PARAMETER, Integer.toString(limit)).build();
+    }
+
     /**
      * The MIME type of {@link #CONTENT_URI} providing a directory of
      * breweries.
@@ -66,5 +133,22 @@ public final class UserStatusRecords {
         public static final String USER_CREATED_DATE = "user_created_date";
         public static final String CREATED_DATE = "created_at";
         public static final String LATEST_STATUS = "latest_status";
+        public static final String STATUS_ID = "status_id";
+        // The status this one replies to, or null
+        public static final String IN_REPLY_TO_STATUS_ID = "in_reply_to_status_id";
+        // The oldest status we know of in this one's reply chain. If we don't have that status yet
+        // it's the id of the one we're missing. Kept up to date by the provider
+        public static final String THREAD_ROOT_ID = "thread_root_id";
+        // The JSON the status came in, compressed by StatusPayload. Read its fields through
+        // payloadUri() rather than selecting this
+        public static final String PAYLOAD = "payload";
+        // Only on the way in - the status's entities, packed by StatusEntities. The provider keeps
+        // them in a table of their own
+        public static final String ENTITIES = "entities";
+        // Only on the way in - the ids of the users the status mentions, comma separated, so a
+        // fetch can look up their profiles along with the author's. The provider drops them
+        public static final String MENTION_IDS = "mention_ids";
+        // Only in timeline queries - the key of the timeline the row came from
+        public static final String TIMELINE = "timeline";
     }
 }
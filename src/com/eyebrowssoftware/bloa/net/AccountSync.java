@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.ContentResolver;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.TokenStore;
+
+/**
+ * Refreshes every account at once. They all share the one connection pool, but each signs with its
+ * own credentials, stores into its own database and spends its own rate limit. The accounts other
+ * than the current one are background work, so they leave some of their limit alone.
+ */
+public class AccountSync {
+    static final String TAG = AccountSync.class.toString();
+
+    // Each account's fetch mostly waits on the fetcher's pool, so these threads are cheap
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    private final App mApp;
+    private final ContentResolver mCR;
+
+    public AccountSync(App app, ContentResolver cr) {
+        mApp = app;
+        mCR = cr;
+    }
+
+    /**
+     * Fetches the selectors for every account and waits for them all. An account that fails is
+     * logged and skipped.
+     *
+     * @param listener told about the current account's chunks, or null
+     * @return the number of statuses stored for the current account
+     */
+    public int syncAll(final TimelineSelector[] selectors, final TimelineFetcher.Listener listener)
+            throws InterruptedException {
+        TokenStore store = mApp.getTokenStore();
+        final String current = store.getCurrentAccount();
+        List<String> accounts = store.getAccounts();
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(accounts.size());
+        for (final String account : accounts) {
+            results.add(sExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    TimelineFetcher fetcher = new TimelineFetcher(mCR, account, mApp.getFetchPolicy(),
+                            mApp.getRateLimit(account));
+                    boolean isCurrent = account.equals(current);
+                    fetcher.setBackground(!isCurrent);
+                    fetcher.setProfileCache(mApp.getProfileCache());
+                    if (isCurrent) {
+                        fetcher.setListener(listener);
+                    }
+                    int count = fetcher.fetch(mApp.getRequestSigner(account), selectors);
+                    return isCurrent ? count : 0;
+                }
+            }));
+        }
+        int count = 0;
+        try {
+            for (int i = 0; i < results.size(); ++i) {
+                try {
+                    count += results.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception syncing account " + accounts.get(i), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Integer> result : results) {
+                result.cancel(true);
+            }
+            throw e;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicResponseHandler;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.BloaCommands;
+import com.eyebrowssoftware.bloa.data.ParallelStatusParser;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * Fills in the start of conversations. Whatever we're missing from the front of each thread is
+ * asked for in one statuses/lookup request per hundred statuses, and that goes on, a step back at a
+ * time, until every thread reaches a status that doesn't reply to anything.
+ */
+public class ConversationFetcher {
+    static final String TAG = ConversationFetcher.class.toString();
+
+    // The most statuses/lookup takes at once
+    public static final int MAX_BATCH = 100;
+
+    // Each round goes one reply further back in every thread
+    public static final int MAX_ROUNDS = 20;
+
+    private static final String[] PROJECTION = {
+        UserStatusRecord.STATUS_ID,
+        UserStatusRecord.THREAD_ROOT_ID
+    };
+
+    private final ContentResolver mCR;
+    private final String mAccount;
+    private final HttpClient mClient;
+    private final String mLookupUrl;
+
+    public ConversationFetcher(ContentResolver cr, String account) {
+        this(cr, account, SharedHttpClient.get(), App.STATUSES_LOOKUP_URL_STRING);
+    }
+
+    /**
+     * @param account whose data to use, or null for the selected account
+     * @param lookupUrl where statuses/lookup is
+     */
+    public ConversationFetcher(ContentResolver cr, String account, HttpClient client, String lookupUrl) {
+        mCR = cr;
+        mAccount = account;
+        mClient = client;
+        mLookupUrl = lookupUrl;
+    }
+
+    /**
+     * Fetches the statuses missing from the front of the threads these statuses are in.
+     *
+     * @return how many were stored
+     */
+    public int fetchAncestors(RequestSigner signer, long... statusIds) throws Exception {
+        int stored = 0;
+        Set<Long> asked = new LinkedHashSet<Long>();
+        for (int round = 0; round < MAX_ROUNDS; ++round) {
+            List<Long> missing = new ArrayList<Long>();
+            for (long statusId : statusIds) {
+                Long root = findMissingRoot(statusId);
+                // If we've asked and didn't get it, it's been deleted or we can't see it
+                if (root != null && asked.add(root) && !missing.contains(root)) {
+                    missing.add(root);
+                }
+            }
+            if (missing.isEmpty()) {
+                break;
+            }
+            int found = 0;
+            for (int first = 0; first < missing.size(); first += MAX_BATCH) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                ContentValues[] values = lookup(signer, missing.subList(first, Math.min(first + MAX_BATCH,
+                        missing.size())));
+                if (values.length > 0) {
+                    found += BloaCommands.ingestPage(mCR, mAccount, UserStatusRecords.TIMELINE_CONVERSATION,
+                            values, BloaCommands.DEFAULT_KEEP);
+                }
+            }
+            if (found == 0) {
+                break;
+            }
+            stored += found;
+        }
+        Log.d(TAG, "Fetched " + stored + " earlier statuses");
+        return stored;
+    }
+
+    /**
+     * @return the id of the status the thread starts from, if we don't have it, or null if we do or
+     * we don't have the status itself
+     */
+    private Long findMissingRoot(long statusId) {
+        Cursor c = mCR.query(UserStatusRecords.forAccount(UserStatusRecords.conversationUri(statusId), mAccount),
+                PROJECTION, null, null, null);
+        if (c == null) {
+            return null;
+        }
+        try {
+            Long root = null;
+            while (c.moveToNext()) {
+                root = c.getLong(1);
+                if (c.getLong(0) == root) {
+                    return null;
+                }
+            }
+            return root;
+        } finally {
+            c.close();
+        }
+    }
+
+    private ContentValues[] lookup(RequestSigner signer, List<Long> batch) throws Exception {
+        StringBuilder ids = new StringBuilder();
+        for (Long id : batch) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        Uri uri = Uri.parse(mLookupUrl).buildUpon()
+            .appendQueryParameter("id", ids.toString())
+            .build();
+        HttpGet get = new HttpGet(uri.toString());
+        signer.sign(get);
+        return ParallelStatusParser.get().parse(mClient.execute(get, new BasicResponseHandler()));
+    }
+}
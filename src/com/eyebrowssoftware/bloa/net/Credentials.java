@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+/**
+ * An immutable snapshot of everything needed to sign a request: the app's consumer key and secret
+ * and, once the user has logged in, their token and secret. Because it never changes it can be
+ * handed to any number of background requests at once.
+ */
+public final class Credentials {
+
+    private final String mConsumerKey;
+    private final String mConsumerSecret;
+    private final String mToken;
+    private final String mTokenSecret;
+
+    public Credentials(String consumerKey, String consumerSecret, String token, String tokenSecret) {
+        if (consumerKey == null || consumerSecret == null) {
+            throw new IllegalArgumentException("Consumer key and secret are required");
+        }
+        mConsumerKey = consumerKey;
+        mConsumerSecret = consumerSecret;
+        mToken = token;
+        mTokenSecret = tokenSecret;
+    }
+
+    public Credentials withToken(String token, String tokenSecret) {
+        return new Credentials(mConsumerKey, mConsumerSecret, token, tokenSecret);
+    }
+
+    public String getConsumerKey() {
+        return mConsumerKey;
+    }
+
+    public String getConsumerSecret() {
+        return mConsumerSecret;
+    }
+
+    public String getToken() {
+        return mToken;
+    }
+
+    public String getTokenSecret() {
+        return mTokenSecret;
+    }
+
+    public boolean hasToken() {
+        return mToken != null && mTokenSecret != null;
+    }
+}
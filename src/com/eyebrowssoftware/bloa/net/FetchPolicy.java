@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+/**
+ * Picks how many statuses to ask for per page, and how many older pages to prefetch, from what
+ * recent fetches tell us about the network. On fast Wi-Fi that means big pages and prefetching; on
+ * a weak mobile link it means small pages, so the first screen still shows up in about
+ * {@link #getTargetMs()}.
+ */
+public class FetchPolicy {
+
+    public static final int MIN_COUNT = 20; // the server's default, and about a screen
+    public static final int MAX_COUNT = TimelineSelector.MAX_COUNT;
+    public static final long DEFAULT_TARGET_MS = 2000;
+    public static final int MAX_PREFETCH_PAGES = 2;
+
+    // A status in JSON, with its user object, until we've measured some
+    private static final double DEFAULT_BYTES_PER_STATUS = 3000;
+    // How much a new measurement counts against the history
+    private static final double WEIGHT = 0.3;
+
+    private final long mTargetMs;
+
+    // Guarded by this. Negative until we have a measurement.
+    private double mLatencyMs = -1;
+    private double mBytesPerMs = -1;
+    private double mBytesPerStatus = DEFAULT_BYTES_PER_STATUS;
+
+    public FetchPolicy() {
+        this(DEFAULT_TARGET_MS);
+    }
+
+    public FetchPolicy(long targetMs) {
+        mTargetMs = targetMs;
+    }
+
+    public long getTargetMs() {
+        return mTargetMs;
+    }
+
+    /**
+     * Records one fetch.
+     *
+     * @param latencyMs time from sending the request to getting the response headers
+     * @param transferMs time to read the body
+     * @param bytes size of the body
+     * @param statuses how many statuses were in it
+     */
+    public synchronized void record(long latencyMs, long transferMs, long bytes, int statuses) {
+        mLatencyMs = average(mLatencyMs, latencyMs);
+        if (bytes > 0) {
+            mBytesPerMs = average(mBytesPerMs, (double) bytes / Math.max(transferMs, 1));
+        }
+        if (statuses > 0) {
+            mBytesPerStatus = average(mBytesPerStatus, (double) bytes / statuses);
+        }
+    }
+
+    private static double average(double old, double sample) {
+        return (old < 0) ? sample : old + WEIGHT * (sample - old);
+    }
+
+    public synchronized boolean hasMeasurements() {
+        return mLatencyMs >= 0 && mBytesPerMs > 0;
+    }
+
+    /**
+     * The page size that should arrive within the target time
+     */
+    public synchronized int getPageSize() {
+        if (!hasMeasurements()) {
+            return MIN_COUNT;
+        }
+        double budgetMs = mTargetMs - mLatencyMs;
+        int count = (int) (budgetMs * mBytesPerMs / mBytesPerStatus);
+        return Math.max(MIN_COUNT, Math.min(MAX_COUNT, count));
+    }
+
+    /**
+     * Roughly how long a page of the given size will take, or -1 if we don't know yet
+     */
+    public synchronized long estimateMs(int count) {
+        if (!hasMeasurements()) {
+            return -1;
+        }
+        return (long) (mLatencyMs + count * mBytesPerStatus / mBytesPerMs);
+    }
+
+    /**
+     * How many older pages to fetch ahead of the user. None on a metered network, where it would
+     * cost them money, or before we know what the network can do.
+     */
+    public synchronized int getPrefetchDepth(boolean unmetered) {
+        if (!unmetered || !hasMeasurements()) {
+            return 0;
+        }
+        // A full page well inside the target means the network is fast enough to go further ahead
+        return (estimateMs(getPageSize()) * 2 < mTargetMs) ? MAX_PREFETCH_PAGES : 1;
+    }
+
+    public static boolean isUnmetered(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        return info.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+}
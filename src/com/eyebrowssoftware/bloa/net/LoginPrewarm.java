@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import oauth.signpost.OAuthConsumer;
+import oauth.signpost.exception.OAuthException;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.StageTrace;
+
+/**
+ * Does the slow part of logging in before anybody asks to. As soon as the login checkbox is
+ * showing, this looks up the OAuth host and fetches a request token over the shared client, which
+ * leaves a connection with its TLS handshake done in the pool. If the user goes on to log in, the
+ * browser opens without waiting on the network, and the access token exchange reuses that
+ * connection.
+ *
+ * Each step of a login, ahead of time or not, goes in the same {@link StageTrace}.
+ */
+public class LoginPrewarm {
+    static final String TAG = LoginPrewarm.class.toString();
+
+    // Twitter doesn't say how long a request token is good for; this is well inside it
+    public static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final App mApp;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // Guarded by this
+    private StageTrace mTrace = null;
+    private Future<?> mPending = null;
+    private String mToken = null;
+    private String mSecret = null;
+    private String mAuthorizeUrl = null;
+    private long mFetchedAt = 0;
+
+    public LoginPrewarm(App app) {
+        mApp = app;
+    }
+
+    /**
+     * Starts getting a request token in the background, unless we have a fresh one or are
+     * already getting one.
+     */
+    public synchronized void prewarm() {
+        if ((mPending != null && !mPending.isDone()) || isFresh()) {
+            return;
+        }
+        final StageTrace trace = getTrace();
+        mPending = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                warm(trace);
+            }
+        });
+    }
+
+    private void warm(StageTrace trace) {
+        long start = trace.start();
+        try {
+            InetAddress.getByName(Uri.parse(App.TWITTER_REQUEST_TOKEN_URL).getHost());
+        } catch (UnknownHostException e) {
+            // No network, so nothing else will work either
+            Log.w(TAG, "Couldn't look up the OAuth host", e);
+            return;
+        }
+        trace.record("dns", start);
+
+        start = trace.start();
+        OAuthConsumer consumer = mApp.newOAuthConsumer();
+        try {
+            String url = mApp.getOAuthProvider().retrieveRequestToken(consumer, App.CALLBACK_URL);
+            trace.record("request token ahead of time", start);
+            synchronized (this) {
+                mToken = consumer.getToken();
+                mSecret = consumer.getTokenSecret();
+                mAuthorizeUrl = url;
+                mFetchedAt = SystemClock.elapsedRealtime();
+            }
+        } catch (OAuthException e) {
+            Log.w(TAG, "Couldn't get a request token ahead of time", e);
+        }
+    }
+
+    /**
+     * Hands over the request token fetched ahead of time, waiting for it if it's on its way. Each
+     * one is only handed over once. Don't call this on the UI thread.
+     *
+     * @param consumer gets the request token and secret
+     * @return the url to authorize the token at, or null if there isn't a fresh one to be had and
+     * the caller should fetch its own
+     */
+    public String takeRequestToken(OAuthConsumer consumer) throws InterruptedException {
+        Future<?> pending;
+        synchronized (this) {
+            pending = mPending;
+        }
+        if (pending != null) {
+            try {
+                // It's further along than a new request would be
+                pending.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Exception getting a request token ahead of time", e.getCause());
+            }
+        }
+        synchronized (this) {
+            String url = isFresh() ? mAuthorizeUrl : null;
+            if (url != null) {
+                consumer.setTokenWithSecret(mToken, mSecret);
+            }
+            mToken = null;
+            mSecret = null;
+            mAuthorizeUrl = null;
+            return url;
+        }
+    }
+
+    /**
+     * The trace for the login under way, started by whichever comes first, the warm up or the
+     * login itself.
+     */
+    public synchronized StageTrace getTrace() {
+        if (mTrace == null) {
+            mTrace = new StageTrace("login");
+        }
+        return mTrace;
+    }
+
+    /**
+     * Logs the steps of the login and starts a new trace for the next one.
+     */
+    public synchronized void finishTrace() {
+        if (mTrace != null) {
+            mTrace.dump();
+            mTrace = null;
+        }
+    }
+
+    // Must hold the lock
+    private boolean isFresh() {
+        return mAuthorizeUrl != null && SystemClock.elapsedRealtime() - mFetchedAt < MAX_AGE_MS;
+    }
+}
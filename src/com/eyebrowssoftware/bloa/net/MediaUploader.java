@@ -0,0 +1,287 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.json.JSONObject;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+
+/**
+ * Uploads a picture, or any other media, the way media/upload wants big things: INIT says how much
+ * is coming, each APPEND carries one segment of the file as a {@link MultipartFileEntity}, and
+ * FINALIZE hands back a media id to put on a status. The file is read from its channel a buffer at
+ * a time, so it never has to fit in memory.
+ *
+ * Where the upload has got to is kept in an {@link Upload}. If a segment still fails after a few
+ * tries, or the task is canceled, the same Upload can be passed in again later and it carries on
+ * from the first segment the server didn't take, until the service forgets the media id.
+ */
+public class MediaUploader {
+    static final String TAG = MediaUploader.class.toString();
+
+    // Small enough that a dropped connection on a phone doesn't cost much to send again
+    public static final int DEFAULT_SEGMENT_SIZE = 512 * 1024;
+    public static final int MAX_ATTEMPTS = 3;
+
+    // Each time finish() is tried; an upload that's still being processed after that can try again
+    public static final int MAX_STATUS_CHECKS = 10;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    /**
+     * Hears how many bytes of the file have gone out. Called on the uploading thread, often, so
+     * don't do much in it.
+     */
+    public interface ProgressListener {
+        void onProgress(long sent, long total);
+    }
+
+    /**
+     * One file's trip to the server. Only one thread at a time should be uploading with it.
+     */
+    public static class Upload {
+        final long mOffset;
+        final long mTotalBytes;
+        final String mMediaType;
+        String mMediaId = null;
+        long mExpiresAt = 0;
+        int mNextSegment = 0;
+        long mSent = 0;
+        // The server has the whole file, and may still be processing it
+        boolean mFinalized = false;
+        boolean mDone = false;
+
+        public Upload(long totalBytes, String mediaType) {
+            this(0, totalBytes, mediaType);
+        }
+
+        /**
+         * @param offset where the media starts in the channel, for one packed in a bigger file
+         */
+        public Upload(long offset, long totalBytes, String mediaType) {
+            mOffset = offset;
+            mTotalBytes = totalBytes;
+            mMediaType = mediaType;
+        }
+
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * @return how much of the file the server has taken so far
+         */
+        public long getSent() {
+            return mSent;
+        }
+
+        /**
+         * @return the id to post with, or null until the upload is finished
+         */
+        public String getMediaId() {
+            return mDone ? mMediaId : null;
+        }
+
+        public boolean isDone() {
+            return mDone;
+        }
+
+        void restart() {
+            mMediaId = null;
+            mExpiresAt = 0;
+            mNextSegment = 0;
+            mSent = 0;
+            mFinalized = false;
+        }
+    }
+
+    private final HttpClient mClient;
+    private final String mUploadUrl;
+    private final int mSegmentSize;
+
+    public MediaUploader() {
+        this(SharedHttpClient.get(), App.MEDIA_UPLOAD_URL_STRING, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param uploadUrl where media/upload is
+     * @param segmentSize how much of the file goes in each APPEND
+     */
+    public MediaUploader(HttpClient client, String uploadUrl, int segmentSize) {
+        mClient = client;
+        mUploadUrl = uploadUrl;
+        mSegmentSize = segmentSize;
+    }
+
+    /**
+     * Sends whatever the server doesn't have yet. The channel is read, never closed or moved.
+     *
+     * @return the media id
+     */
+    public String upload(RequestSigner signer, Upload upload, FileChannel channel, ProgressListener listener)
+            throws Exception {
+        if (upload.mDone) {
+            return upload.mMediaId;
+        }
+        if (upload.mMediaId != null && System.currentTimeMillis() >= upload.mExpiresAt) {
+            Log.d(TAG, "Media " + upload.mMediaId + " has expired, starting over");
+            upload.restart();
+        }
+        if (upload.mMediaId == null) {
+            init(signer, upload);
+        }
+        while (upload.mSent < upload.mTotalBytes) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Stopped after " + upload.mSent + " bytes");
+            }
+            append(signer, upload, channel, listener);
+        }
+        finish(signer, upload);
+        return upload.mMediaId;
+    }
+
+    private void init(RequestSigner signer, Upload upload) throws Exception {
+        LinkedList<BasicNameValuePair> form = new LinkedList<BasicNameValuePair>();
+        form.add(new BasicNameValuePair("command", "INIT"));
+        form.add(new BasicNameValuePair("total_bytes", Long.toString(upload.mTotalBytes)));
+        form.add(new BasicNameValuePair("media_type", upload.mMediaType));
+        HttpPost post = new HttpPost(mUploadUrl);
+        post.setEntity(new UrlEncodedFormEntity(form, HTTP.UTF_8));
+        JSONObject jso = new JSONObject(execute(signer.sign(post)));
+        upload.mMediaId = jso.getString("media_id_string");
+        // Leave a minute's slack so we don't start on a segment the server is about to forget
+        long expiresIn = jso.optLong("expires_after_secs", 60 * 60) * 1000 - 60 * 1000;
+        upload.mExpiresAt = System.currentTimeMillis() + Math.max(expiresIn, 0);
+        upload.mNextSegment = 0;
+        upload.mSent = 0;
+    }
+
+    private void append(RequestSigner signer, Upload upload, FileChannel channel, final ProgressListener listener)
+            throws Exception {
+        final long offset = upload.mSent;
+        final long total = upload.mTotalBytes;
+        long length = Math.min(mSegmentSize, total - offset);
+        for (int attempt = 1; ; ++attempt) {
+            MultipartFileEntity entity = new MultipartFileEntity()
+                .addText("command", "APPEND")
+                .addText("media_id", upload.mMediaId)
+                .addText("segment_index", Integer.toString(upload.mNextSegment))
+                .setFile("media", "media", "application/octet-stream", channel, upload.mOffset + offset, length);
+            if (listener != null) {
+                entity.setWriteListener(new MultipartFileEntity.WriteListener() {
+                    @Override
+                    public void onWrite(long written, long segment) {
+                        listener.onProgress(offset + written, total);
+                    }
+                });
+            }
+            // Multipart bodies aren't part of an OAuth signature, so it's signed before the body is
+            // even attached and Signpost never goes near the file
+            HttpPost post = signer.sign(new HttpPost(mUploadUrl));
+            post.setEntity(entity);
+            try {
+                execute(post);
+                break;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || !isWorthRetrying(e)) {
+                    throw e;
+                }
+                Log.w(TAG, "Segment " + upload.mNextSegment + " failed, trying again", e);
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            }
+        }
+        ++upload.mNextSegment;
+        upload.mSent += length;
+    }
+
+    private void finish(RequestSigner signer, Upload upload) throws Exception {
+        JSONObject jso;
+        if (!upload.mFinalized) {
+            LinkedList<BasicNameValuePair> form = new LinkedList<BasicNameValuePair>();
+            form.add(new BasicNameValuePair("command", "FINALIZE"));
+            form.add(new BasicNameValuePair("media_id", upload.mMediaId));
+            HttpPost post = new HttpPost(mUploadUrl);
+            post.setEntity(new UrlEncodedFormEntity(form, HTTP.UTF_8));
+            jso = new JSONObject(execute(signer.sign(post)));
+            upload.mFinalized = true;
+        } else {
+            // Finalized last time, but it wasn't ready
+            jso = checkStatus(signer, upload);
+        }
+        // Video and animations get processed before they can be used; pictures don't
+        for (int check = 0; ; ++check) {
+            JSONObject processing = jso.optJSONObject("processing_info");
+            String state = (processing == null) ? null : processing.optString("state");
+            if (processing == null || "succeeded".equals(state)) {
+                break;
+            }
+            if ("failed".equals(state)) {
+                // That media id is no good to anybody, so another try starts over
+                String mediaId = upload.mMediaId;
+                upload.restart();
+                throw new IOException("Processing failed for media " + mediaId);
+            }
+            if (check >= MAX_STATUS_CHECKS) {
+                // Not done, so nobody posts with it yet; trying the upload again picks up from here
+                throw new IOException("Media " + upload.mMediaId + " is still " + state + " after "
+                        + MAX_STATUS_CHECKS + " checks");
+            }
+            Thread.sleep(processing.optLong("check_after_secs", 1) * 1000);
+            jso = checkStatus(signer, upload);
+        }
+        upload.mDone = true;
+    }
+
+    private JSONObject checkStatus(RequestSigner signer, Upload upload) throws Exception {
+        Uri status = Uri.parse(mUploadUrl).buildUpon()
+            .appendQueryParameter("command", "STATUS")
+            .appendQueryParameter("media_id", upload.mMediaId)
+            .build();
+        return new JSONObject(execute(signer.sign(new HttpGet(status.toString()))));
+    }
+
+    private String execute(HttpUriRequest request) throws IOException {
+        // Whatever client we were given; the service answers Expect: 100-continue with a 417
+        HttpProtocolParams.setUseExpectContinue(request.getParams(), false);
+        String response = mClient.execute(request, new BasicResponseHandler());
+        // APPEND answers with nothing at all
+        return (response == null || response.length() == 0) ? "{}" : response;
+    }
+
+    // The server turning down what we sent won't change by sending it again
+    private static boolean isWorthRetrying(IOException e) {
+        return !(e instanceof HttpResponseException)
+            || ((HttpResponseException) e).getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A multipart/form-data body with a few text fields and one part cut from a file. The file part is
+ * copied straight from the channel to the connection through one small buffer, so however big the
+ * file is, only BUFFER_SIZE bytes of it are ever on the heap. The length is worked out up front,
+ * which lets HttpClient send a Content-Length instead of chunking.
+ *
+ * Reads are positional and don't move the channel, so the body can be written again when a request
+ * is retried, and several entities can share one channel as long as they take turns.
+ */
+public class MultipartFileEntity extends AbstractHttpEntity {
+
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final String CRLF = "\r\n";
+    private static final String DASHES = "--";
+    private static final char[] BOUNDARY_CHARS =
+        "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    /**
+     * Hears about every buffer of the file part as it goes out. Called on the thread doing the
+     * request.
+     */
+    public interface WriteListener {
+        void onWrite(long written, long length);
+    }
+
+    private final String mBoundary;
+    private final StringBuilder mHead = new StringBuilder();
+
+    private FileChannel mChannel = null;
+    private long mOffset;
+    private long mLength;
+    private byte[] mHeadBytes = null;
+    private final byte[] mTailBytes;
+    private WriteListener mListener = null;
+
+    public MultipartFileEntity() {
+        this(newBoundary());
+    }
+
+    public MultipartFileEntity(String boundary) {
+        mBoundary = boundary;
+        setContentType("multipart/form-data; boundary=" + boundary);
+        mTailBytes = ascii(CRLF + DASHES + mBoundary + DASHES + CRLF);
+    }
+
+    public String getBoundary() {
+        return mBoundary;
+    }
+
+    /**
+     * Adds a text field. All of them have to come before the file.
+     */
+    public MultipartFileEntity addText(String name, String value) {
+        if (mChannel != null) {
+            throw new IllegalStateException("Text after the file");
+        }
+        mHead.append(DASHES).append(mBoundary).append(CRLF)
+            .append("Content-Disposition: form-data; name=\"").append(name).append('"').append(CRLF)
+            .append(CRLF)
+            .append(value).append(CRLF);
+        return this;
+    }
+
+    /**
+     * Sets the file part to length bytes of the channel, starting at offset. The channel is only
+     * read, never closed; that's up to whoever opened it.
+     */
+    public MultipartFileEntity setFile(String name, String fileName, String mimeType, FileChannel channel,
+            long offset, long length) {
+        if (mChannel != null) {
+            throw new IllegalStateException("Only one file");
+        }
+        mHead.append(DASHES).append(mBoundary).append(CRLF)
+            .append("Content-Disposition: form-data; name=\"").append(name)
+            .append("\"; filename=\"").append(fileName).append('"').append(CRLF)
+            .append("Content-Type: ").append(mimeType).append(CRLF)
+            .append("Content-Transfer-Encoding: binary").append(CRLF)
+            .append(CRLF);
+        mChannel = channel;
+        mOffset = offset;
+        mLength = length;
+        return this;
+    }
+
+    public void setWriteListener(WriteListener listener) {
+        mListener = listener;
+    }
+
+    private byte[] getHead() {
+        if (mHeadBytes == null) {
+            if (mChannel == null) {
+                throw new IllegalStateException("No file");
+            }
+            try {
+                mHeadBytes = mHead.toString().getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return mHeadBytes;
+    }
+
+    @Override
+    public long getContentLength() {
+        return getHead().length + mLength + mTailBytes.length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * The same bytes writeTo() sends, as a stream. The file part is read from the channel as the
+     * stream is read, a buffer at a time, so this doesn't load the file either. Signpost never asks
+     * for it, since it only reads bodies that are form encoded.
+     */
+    @Override
+    public InputStream getContent() {
+        if (mChannel == null) {
+            throw new IllegalStateException("No file");
+        }
+        return new SequenceInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(getHead()),
+                        new ChannelSliceInputStream(mChannel, mOffset, mLength)),
+                new ByteArrayInputStream(mTailBytes));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(getHead());
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long written = 0;
+        while (written < mLength) {
+            buffer.clear();
+            if (mLength - written < BUFFER_SIZE) {
+                buffer.limit((int) (mLength - written));
+            }
+            int read = mChannel.read(buffer, mOffset + written);
+            if (read < 0) {
+                throw new IOException("File ended " + (mLength - written) + " bytes early");
+            }
+            out.write(buffer.array(), 0, read);
+            written += read;
+            if (mListener != null) {
+                mListener.onWrite(written, mLength);
+            }
+        }
+        out.write(mTailBytes);
+        out.flush();
+    }
+
+    /**
+     * length bytes of a channel from offset, read positionally so the channel doesn't move.
+     */
+    private static class ChannelSliceInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private final long mEnd;
+        private long mPosition;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        ChannelSliceInputStream(FileChannel channel, long offset, long length) {
+            mChannel = channel;
+            mPosition = offset;
+            mEnd = offset + length;
+            // Starts out empty
+            mBuffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        // false at the end of the slice
+        private boolean fill() throws IOException {
+            if (mBuffer.hasRemaining()) {
+                return true;
+            }
+            if (mPosition >= mEnd) {
+                return false;
+            }
+            mBuffer.clear();
+            if (mEnd - mPosition < BUFFER_SIZE) {
+                mBuffer.limit((int) (mEnd - mPosition));
+            }
+            int read = mChannel.read(mBuffer, mPosition);
+            if (read < 0) {
+                throw new IOException("File ended " + (mEnd - mPosition) + " bytes early");
+            }
+            mPosition += read;
+            mBuffer.flip();
+            return mBuffer.hasRemaining();
+        }
+    }
+
+    private static String newBoundary() {
+        Random random = new Random();
+        StringBuilder sb = new StringBuilder("bloa");
+        for (int i = 0; i < 30; ++i) {
+            sb.append(BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] ascii(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
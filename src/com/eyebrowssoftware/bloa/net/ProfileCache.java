@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.json.JSONArray;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.StatusParser;
+import com.eyebrowssoftware.bloa.data.UserProfiles;
+import com.eyebrowssoftware.bloa.data.UserProfiles.UserProfile;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.util.CacheRegistry;
+
+/**
+ * User profiles, from memory if we can, then from the provider, and only then from the network.
+ * Whatever's missing or too old is asked for in one users/lookup request per hundred users rather
+ * than one request each, and what comes back is kept in both places.
+ */
+public class ProfileCache implements CacheRegistry.Trimmable {
+    static final String TAG = ProfileCache.class.toString();
+
+    // The most users/lookup takes at once
+    public static final int MAX_BATCH = 100;
+
+    public static final long DEFAULT_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int MEMORY_SIZE = 500;
+
+    private static final String[] PROJECTION = {
+        UserProfile.USER_ID,
+        UserProfile.NAME,
+        UserProfile.SCREEN_NAME,
+        UserProfile.DESCRIPTION,
+        UserProfile.PROFILE_IMAGE_URL,
+        UserProfile.FOLLOWERS_COUNT,
+        UserProfile.FRIENDS_COUNT,
+        UserProfile.FETCHED_DATE
+    };
+
+    private final ContentResolver mCR;
+    private final HttpClient mClient;
+    private final String mLookupUrl;
+    private final long mTtlMs;
+
+    // Thread safe on its own
+    private final LruCache<Long, ContentValues> mMemory = new LruCache<Long, ContentValues>(MEMORY_SIZE);
+
+    public ProfileCache(ContentResolver cr) {
+        this(cr, SharedHttpClient.get(), App.USERS_LOOKUP_URL_STRING, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * @param lookupUrl where users/lookup is
+     * @param ttlMs how long a profile is good for before we ask again
+     */
+    public ProfileCache(ContentResolver cr, HttpClient client, String lookupUrl, long ttlMs) {
+        mCR = cr;
+        mClient = client;
+        mLookupUrl = lookupUrl;
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * Keeps a profile we got some other way, like from verify_credentials.
+     */
+    public void put(ContentValues profile) {
+        mMemory.put(profile.getAsLong(UserProfile.USER_ID), profile);
+        mCR.insert(UserProfiles.CONTENT_URI, profile);
+    }
+
+    /**
+     * What we have locally, however old, without going to the network. Don't call this on the UI
+     * thread unless you don't mind a query.
+     *
+     * @return the profile, or null if we've never seen the user
+     */
+    public ContentValues peek(long userId) {
+        Map<Long, ContentValues> found = new HashMap<Long, ContentValues>();
+        List<Long> ids = new ArrayList<Long>(1);
+        ids.add(userId);
+        loadLocal(ids, found);
+        return found.get(userId);
+    }
+
+    public ContentValues get(RequestSigner signer, long userId) {
+        return getAll(signer, userId).get(userId);
+    }
+
+    /**
+     * Gets the profiles for all the users, doing as few lookups as it can. If the network fails,
+     * profiles that are out of date are returned anyway.
+     *
+     * @return the profiles we could find, by user id
+     */
+    public Map<Long, ContentValues> getAll(RequestSigner signer, long... userIds) {
+        LinkedHashSet<Long> ids = new LinkedHashSet<Long>(userIds.length);
+        for (long id : userIds) {
+            ids.add(id);
+        }
+        Map<Long, ContentValues> found = new HashMap<Long, ContentValues>(ids.size());
+        loadLocal(ids, found);
+
+        long staleBefore = System.currentTimeMillis() - mTtlMs;
+        List<Long> wanted = new ArrayList<Long>();
+        for (Long id : ids) {
+            ContentValues profile = found.get(id);
+            if (profile == null || profile.getAsLong(UserProfile.FETCHED_DATE) < staleBefore) {
+                wanted.add(id);
+            }
+        }
+        for (int first = 0; first < wanted.size(); first += MAX_BATCH) {
+            List<Long> batch = wanted.subList(first, Math.min(first + MAX_BATCH, wanted.size()));
+            try {
+                ContentValues[] profiles = lookup(signer, batch);
+                // Users that are gone just aren't in the answer, and we'll ask about them next time
+                if (profiles.length > 0) {
+                    mCR.bulkInsert(UserProfiles.CONTENT_URI, profiles);
+                }
+                for (ContentValues profile : profiles) {
+                    Long id = profile.getAsLong(UserProfile.USER_ID);
+                    mMemory.put(id, profile);
+                    found.put(id, profile);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Exception looking up " + batch.size() + " users", e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Makes sure we have the profiles of everyone who wrote or is mentioned in a page of statuses,
+     * in as few lookups as {@link #getAll} can manage.
+     */
+    public void getUsersIn(RequestSigner signer, ContentValues[] statuses) {
+        LinkedHashSet<Long> ids = new LinkedHashSet<Long>(statuses.length);
+        for (ContentValues status : statuses) {
+            Long author = status.getAsLong(UserStatusRecord.RECORD_ID);
+            if (author != null) {
+                ids.add(author);
+            }
+            String mentions = status.getAsString(UserStatusRecord.MENTION_IDS);
+            if (mentions != null) {
+                for (String id : mentions.split(",")) {
+                    ids.add(Long.valueOf(id));
+                }
+            }
+        }
+        long[] userIds = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids) {
+            userIds[i++] = id;
+        }
+        getAll(signer, userIds);
+    }
+
+    // Memory first, then one query for everything that wasn't there
+    private void loadLocal(Iterable<Long> ids, Map<Long, ContentValues> found) {
+        List<String> args = new ArrayList<String>();
+        for (Long id : ids) {
+            ContentValues profile = mMemory.get(id);
+            if (profile != null) {
+                found.put(id, profile);
+            } else {
+                args.add(id.toString());
+            }
+        }
+        for (int first = 0; first < args.size(); first += MAX_BATCH) {
+            List<String> batch = args.subList(first, Math.min(first + MAX_BATCH, args.size()));
+            StringBuilder where = new StringBuilder(UserProfile.USER_ID).append(" IN (");
+            for (int i = 0; i < batch.size(); ++i) {
+                where.append((i == 0) ? "?" : ",?");
+            }
+            where.append(')');
+            Cursor c = mCR.query(UserProfiles.CONTENT_URI, PROJECTION, where.toString(),
+                    batch.toArray(new String[batch.size()]), null);
+            if (c == null) {
+                continue;
+            }
+            try {
+                while (c.moveToNext()) {
+                    ContentValues profile = toValues(c);
+                    Long id = profile.getAsLong(UserProfile.USER_ID);
+                    mMemory.put(id, profile);
+                    found.put(id, profile);
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    private ContentValues[] lookup(RequestSigner signer, List<Long> batch) throws Exception {
+        StringBuilder ids = new StringBuilder();
+        for (Long id : batch) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        Uri uri = Uri.parse(mLookupUrl).buildUpon()
+            .appendQueryParameter("user_id", ids.toString())
+            .appendQueryParameter("include_entities", "false")
+            .build();
+        HttpGet get = new HttpGet(uri.toString());
+        signer.sign(get);
+        String body = mClient.execute(get, new BasicResponseHandler());
+        JSONArray array = new JSONArray(body);
+        long now = System.currentTimeMillis();
+        ContentValues[] profiles = new ContentValues[array.length()];
+        for (int i = 0; i < profiles.length; ++i) {
+            profiles[i] = StatusParser.parseUserJSONObject(array.getJSONObject(i), now);
+        }
+        return profiles;
+    }
+
+    // The ones in memory. The provider's are the provider's business
+    @Override
+    public int size() {
+        return mMemory.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mMemory.maxSize();
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        mMemory.trimToSize(maxSize);
+    }
+
+    private static ContentValues toValues(Cursor c) {
+        ContentValues profile = new ContentValues();
+        profile.put(UserProfile.USER_ID, c.getLong(0));
+        profile.put(UserProfile.NAME, c.getString(1));
+        profile.put(UserProfile.SCREEN_NAME, c.getString(2));
+        profile.put(UserProfile.DESCRIPTION, c.getString(3));
+        profile.put(UserProfile.PROFILE_IMAGE_URL, c.getString(4));
+        profile.put(UserProfile.FOLLOWERS_COUNT, c.getInt(5));
+        profile.put(UserProfile.FRIENDS_COUNT, c.getInt(6));
+        profile.put(UserProfile.FETCHED_DATE, c.getLong(7));
+        return profile;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.io.IOException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/**
+ * Keeps track of how many requests one account has left in the server's rate limit window, from
+ * the headers on each response, so we stop asking before the server starts saying no. A few
+ * requests are held back from background work for the things the user does by hand.
+ */
+public class RateLimit {
+
+    public static final String REMAINING_HEADER = "x-rate-limit-remaining";
+    public static final String RESET_HEADER = "x-rate-limit-reset"; // seconds since the epoch
+
+    public static final int DEFAULT_RESERVE = 2;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long DEFAULT_WINDOW_MS = 15 * 60 * 1000L;
+
+    /**
+     * Thrown instead of making a request that the server would refuse.
+     */
+    public static class ExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ExceededException(long resetMillis) {
+            super("Rate limit exceeded until " + resetMillis);
+        }
+    }
+
+    private final int mReserve;
+
+    // Guarded by this. We know nothing until the first response
+    private int mRemaining = -1;
+    private long mResetMillis = 0;
+
+    public RateLimit() {
+        this(DEFAULT_RESERVE);
+    }
+
+    public RateLimit(int reserve) {
+        mReserve = reserve;
+    }
+
+    /**
+     * Takes one request from the budget.
+     *
+     * @param background true if nobody's waiting for it, in which case it can't use the reserve
+     * @throws ExceededException if there's nothing left until the window resets
+     */
+    public synchronized void acquire(boolean background) throws ExceededException {
+        if (mRemaining < 0 || System.currentTimeMillis() >= mResetMillis) {
+            // Don't know, or it's a new window; the next response will tell us
+            return;
+        }
+        if (mRemaining > (background ? mReserve : 0)) {
+            --mRemaining;
+            return;
+        }
+        throw new ExceededException(mResetMillis);
+    }
+
+    /**
+     * Reads what the server said about the limit.
+     */
+    public synchronized void update(HttpResponse response) {
+        Header remaining = response.getFirstHeader(REMAINING_HEADER);
+        Header reset = response.getFirstHeader(RESET_HEADER);
+        try {
+            if (remaining != null && reset != null) {
+                update(Integer.parseInt(remaining.getValue().trim()), Long.parseLong(reset.getValue().trim()) * 1000L);
+                return;
+            }
+        } catch (NumberFormatException e) {
+            // Then we go by the status alone
+        }
+        if (response.getStatusLine().getStatusCode() == TOO_MANY_REQUESTS) {
+            update(0, System.currentTimeMillis() + DEFAULT_WINDOW_MS);
+        }
+    }
+
+    public synchronized void update(int remaining, long resetMillis) {
+        mRemaining = remaining;
+        mResetMillis = resetMillis;
+    }
+
+    /**
+     * @return how many requests are left, or -1 if we don't know
+     */
+    public synchronized int getRemaining() {
+        return (System.currentTimeMillis() >= mResetMillis) ? -1 : mRemaining;
+    }
+
+    public synchronized long getResetMillis() {
+        return mResetMillis;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import oauth.signpost.OAuthConsumer;
+import oauth.signpost.commonshttp.CommonsHttpOAuthConsumer;
+import oauth.signpost.exception.OAuthException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Signs requests with a fixed set of {@link Credentials}. Signpost consumers keep per-request state
+ * and synchronize on themselves while signing, so sharing one between threads either serializes the
+ * requests or races with whoever is changing its token. Here every call gets its own throwaway
+ * consumer instead, which makes sign() safe to call from as many threads as we like.
+ */
+public class RequestSigner {
+
+    private final Credentials mCredentials;
+
+    public RequestSigner(Credentials credentials) {
+        mCredentials = credentials;
+    }
+
+    public Credentials getCredentials() {
+        return mCredentials;
+    }
+
+    public <T extends HttpUriRequest> T sign(T request) throws OAuthException {
+        newConsumer(mCredentials).sign(request);
+        return request;
+    }
+
+    /**
+     * Makes a new consumer, which the caller owns. Use this where Signpost wants to change the
+     * token itself, as in the login flow.
+     */
+    public static OAuthConsumer newConsumer(Credentials credentials) {
+        OAuthConsumer consumer = new CommonsHttpOAuthConsumer(credentials.getConsumerKey(),
+                credentials.getConsumerSecret());
+        if (credentials.hasToken()) {
+            consumer.setTokenWithSecret(credentials.getToken(), credentials.getTokenSecret());
+        }
+        return consumer;
+    }
+}
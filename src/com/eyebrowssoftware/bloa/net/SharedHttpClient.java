@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * One HttpClient for the whole app, with a pool of connections that requests on any thread can
+ * share. Requests to the same host reuse a connection instead of doing the TCP and TLS handshakes
+ * all over again.
+ */
+public final class SharedHttpClient {
+
+    public static final int MAX_CONNECTIONS = 6;
+
+    private static final int CONNECT_TIMEOUT_MS = 20 * 1000;
+    private static final int SOCKET_TIMEOUT_MS = 30 * 1000;
+
+    private static HttpClient sClient = null;
+
+    // This class cannot be instantiated
+    private SharedHttpClient() {
+    }
+
+    public static synchronized HttpClient get() {
+        if (sClient == null) {
+            HttpParams params = new BasicHttpParams();
+            HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+            HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+            // set this to false, or else you'll get an Expectation Failed: error
+            HttpProtocolParams.setUseExpectContinue(params, false);
+            HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT_MS);
+            HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+            ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+            ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+
+            SchemeRegistry registry = new SchemeRegistry();
+            registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+            registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+            sClient = new DefaultHttpClient(new ThreadSafeClientConnManager(params, registry), params);
+        }
+        return sClient;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.data.StatusParser;
+
+/**
+ * Holds one long-lived connection to a streaming endpoint and reads length-delimited status
+ * messages off it as they arrive. New statuses are collected and handed to a {@link Sink} in
+ * batches every so often, rather than one provider write per status. If the connection drops we
+ * reconnect, backing off more each time it fails.
+ */
+public class StreamingClient {
+    static final String TAG = StreamingClient.class.toString();
+
+    public static final long DEFAULT_BATCH_INTERVAL_MS = 1000;
+    public static final long DEFAULT_MIN_BACKOFF_MS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    // The service says to back off harder than this when it's rate limiting us
+    private static final long RATE_LIMITED_BACKOFF_MS = 60 * 1000;
+    private static final int HTTP_RATE_LIMITED = 420;
+    private static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+    private static final int SOCKET_TIMEOUT_MS = 90 * 1000; // the service sends a keep alive every 30s
+
+    /**
+     * Where the batches go. Called on the batching thread, never more than one at a time.
+     */
+    public interface Sink {
+        void onStatuses(ContentValues[] statuses);
+    }
+
+    private final Uri mUri;
+    private final RequestSigner mSigner;
+    private final Sink mSink;
+    private final long mBatchIntervalMs;
+    private final long mMinBackoffMs;
+    private final long mMaxBackoffMs;
+    private final HttpClient mClient;
+
+    private final List<ContentValues> mPending = new ArrayList<ContentValues>(); // guarded by itself
+    private final Object mFlushLock = new Object();
+
+    // Guarded by this
+    private boolean mRunning = false;
+    private Thread mReader = null;
+    private HttpGet mRequest = null;
+    private ScheduledExecutorService mBatcher = null;
+    private int mConnections = 0;
+
+    public StreamingClient(Uri uri, RequestSigner signer, Sink sink) {
+        this(uri, signer, sink, DEFAULT_BATCH_INTERVAL_MS, DEFAULT_MIN_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS);
+    }
+
+    public StreamingClient(Uri uri, RequestSigner signer, Sink sink, long batchIntervalMs,
+            long minBackoffMs, long maxBackoffMs) {
+        mUri = uri;
+        mSigner = signer;
+        mSink = sink;
+        mBatchIntervalMs = batchIntervalMs;
+        mMinBackoffMs = minBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        // Its own client, so it doesn't tie up a connection from the shared pool forever
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+        mClient = new DefaultHttpClient(params);
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * How many times we've connected, counting reconnects
+     */
+    public synchronized int getConnectionCount() {
+        return mConnections;
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mBatcher = Executors.newSingleThreadScheduledExecutor();
+        mBatcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, mBatchIntervalMs, mBatchIntervalMs, TimeUnit.MILLISECONDS);
+        mReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "Streaming reader");
+        mReader.start();
+    }
+
+    /**
+     * Closes the connection and hands over whatever statuses are still waiting.
+     */
+    public void stop() {
+        Thread reader;
+        ScheduledExecutorService batcher;
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            reader = mReader;
+            batcher = mBatcher;
+            mReader = null;
+            mBatcher = null;
+            if (mRequest != null) {
+                // Unblocks the read
+                mRequest.abort();
+            }
+        }
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        batcher.shutdown();
+        try {
+            if (!batcher.awaitTermination(mBatchIntervalMs * 2, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Batcher still storing, the last batch waits for it");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Waits its turn if the batcher is still in the middle of one
+        flush();
+    }
+
+    private void readLoop() {
+        long backoff = 0;
+        while (isRunning()) {
+            if (backoff > 0) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            HttpGet get = new HttpGet(mUri.toString());
+            synchronized (this) {
+                if (!mRunning) {
+                    break;
+                }
+                mRequest = get;
+                ++mConnections;
+            }
+            try {
+                mSigner.sign(get);
+                HttpResponse response = mClient.execute(get);
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (status == HttpStatus.SC_OK && entity != null) {
+                    InputStream in = entity.getContent();
+                    try {
+                        if (readMessages(in)) {
+                            // We got something through, so the connection was good. Start over.
+                            backoff = 0;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    Log.w(TAG, "Stream refused: " + response.getStatusLine());
+                    if (entity != null) {
+                        entity.consumeContent();
+                    }
+                    if (status == HTTP_RATE_LIMITED) {
+                        backoff = Math.max(backoff, RATE_LIMITED_BACKOFF_MS);
+                    }
+                }
+            } catch (Exception e) {
+                if (isRunning()) {
+                    Log.w(TAG, "Stream dropped", e);
+                }
+            } finally {
+                synchronized (this) {
+                    mRequest = null;
+                }
+            }
+            backoff = (backoff == 0) ? mMinBackoffMs : Math.min(backoff * 2, mMaxBackoffMs);
+        }
+    }
+
+    /**
+     * Reads messages until the stream ends. Returns true if we read at least one.
+     */
+    boolean readMessages(InputStream in) throws IOException {
+        boolean any = false;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (isRunning()) {
+            int length = readLength(in);
+            if (length < 0) {
+                return any;
+            }
+            if (length == 0) {
+                // A keep alive
+                continue;
+            }
+            buffer.reset();
+            int remaining = length;
+            while (remaining > 0) {
+                int n = in.read(chunk, 0, Math.min(chunk.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("Stream ended in a message");
+                }
+                buffer.write(chunk, 0, n);
+                remaining -= n;
+            }
+            any = true;
+            onMessage(buffer.toString("UTF-8"));
+        }
+        return any;
+    }
+
+    /**
+     * Reads the length line in front of each message. Blank lines are keep alives and come back as
+     * zero. Returns -1 at the end of the stream.
+     *
+     * @throws IOException as soon as the length goes over MAX_MESSAGE_LENGTH, before it can overflow
+     */
+    static int readLength(InputStream in) throws IOException {
+        long length = 0;
+        boolean digits = false;
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c >= '0' && c <= '9') {
+                length = length * 10 + (c - '0');
+                if (length > MAX_MESSAGE_LENGTH) {
+                    throw new IOException("Message too long: " + length + "...");
+                }
+                digits = true;
+            } else if (c == '\n') {
+                return digits ? (int) length : 0;
+            } else if (c != '\r' && c != ' ') {
+                throw new IOException("Bad length character: " + c);
+            }
+        }
+        return -1;
+    }
+
+    private void onMessage(String message) {
+        try {
+            JSONObject object = new JSONObject(message);
+            // Only statuses - there are deletes, friends lists and so on in there too
+            if (object.has("text") && object.has("user")) {
+                ContentValues values = StatusParser.parseTimelineJSONObject(object);
+                synchronized (mPending) {
+                    mPending.add(values);
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Skipping bad message", e);
+        }
+    }
+
+    // One at a time, and in order, whether it's the batcher or stop() doing it
+    private void flush() {
+        synchronized (mFlushLock) {
+            ContentValues[] batch;
+            synchronized (mPending) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                batch = mPending.toArray(new ContentValues[mPending.size()]);
+                mPending.clear();
+            }
+            try {
+                mSink.onStatuses(batch);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exception storing streamed statuses", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicResponseHandler;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.data.BloaCommands;
+import com.eyebrowssoftware.bloa.data.ParallelStatusParser;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * Fetches several timelines at once over the shared connection pool and stores each one under its
+ * own key in the provider. The provider keeps one copy of a status no matter how many timelines
+ * it's in, so switching between timelines afterwards is just a local query.
+ */
+public class TimelineFetcher {
+    static final String TAG = TimelineFetcher.class.toString();
+
+    // About a screenful of rows
+    public static final int CHUNK_SIZE = 20;
+
+    private static final String[] OLDEST_PROJECTION = { UserStatusRecord.STATUS_ID };
+
+    // Shared by every account, as many as the connection pool allows
+    private static final ExecutorService sExecutor =
+        Executors.newFixedThreadPool(SharedHttpClient.MAX_CONNECTIONS);
+
+    private final ContentResolver mCR;
+    private final HttpClient mClient;
+    private final String mAccount;
+    private final FetchPolicy mPolicy;
+    private final RateLimit mRateLimit;
+    private volatile Listener mListener;
+    private volatile ProfileCache mProfiles;
+    private volatile boolean mBackground = false;
+
+    /**
+     * Told about each chunk as it's committed. Called on the fetching threads.
+     */
+    public interface Listener {
+        void onChunkStored(TimelineSource source, int count);
+    }
+
+    public TimelineFetcher(ContentResolver cr, FetchPolicy policy) {
+        this(cr, SharedHttpClient.get(), null, policy, null);
+    }
+
+    public TimelineFetcher(ContentResolver cr, String account, FetchPolicy policy, RateLimit limit) {
+        this(cr, SharedHttpClient.get(), account, policy, limit);
+    }
+
+    /**
+     * @param account whose data to store it in, or null for the selected account
+     * @param policy gets told how each fetch went, or null
+     * @param limit the account's rate limit budget, or null not to keep track
+     */
+    public TimelineFetcher(ContentResolver cr, HttpClient client, String account, FetchPolicy policy,
+            RateLimit limit) {
+        mCR = cr;
+        mClient = client;
+        mAccount = account;
+        mPolicy = policy;
+        mRateLimit = limit;
+    }
+
+    /**
+     * Background fetches leave some of the rate limit for what the user is waiting for.
+     */
+    public void setBackground(boolean background) {
+        mBackground = background;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Once each page is stored, the profiles of the users in it are looked up together.
+     */
+    public void setProfileCache(ProfileCache profiles) {
+        mProfiles = profiles;
+    }
+
+    /**
+     * Fetches all the selectors in parallel and waits for them to finish. A timeline that fails is
+     * logged and skipped; the rest are still stored.
+     *
+     * @return the number of statuses stored
+     */
+    public int fetch(final RequestSigner signer, TimelineSelector... selectors) throws InterruptedException {
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(selectors.length);
+        for (final TimelineSelector selector : selectors) {
+            results.add(sExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return fetchOne(signer, selector);
+                }
+            }));
+        }
+        return collect(results, selectors);
+    }
+
+    private static int collect(List<Future<Integer>> results, TimelineSelector[] selectors)
+            throws InterruptedException {
+        int count = 0;
+        try {
+            for (int i = 0; i < results.size(); ++i) {
+                try {
+                    count += results.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception fetching " + selectors[i].source.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Integer> result : results) {
+                result.cancel(true);
+            }
+            throw e;
+        }
+        return count;
+    }
+
+    /**
+     * Fetches one timeline on the calling thread.
+     */
+    public int fetchOne(RequestSigner signer, TimelineSelector selector) throws Exception {
+        HttpGet get = new HttpGet(selector.toUri().toString());
+        signer.sign(get);
+        if (mRateLimit != null) {
+            mRateLimit.acquire(mBackground);
+        }
+        long start = SystemClock.elapsedRealtime();
+        HttpResponse response = mClient.execute(get);
+        long headers = SystemClock.elapsedRealtime();
+        if (mRateLimit != null) {
+            mRateLimit.update(response);
+        }
+        // Throws for anything but success, like the BasicResponseHandler
+        String body = new BasicResponseHandler().handleResponse(response);
+        long end = SystemClock.elapsedRealtime();
+        // On every core, storing newest first a chunk at a time as the parsed part of the page
+        // covers it, so the list can show the top of the timeline while the rest is still being
+        // parsed and going in. Each chunk is its own transaction and change notification.
+        ChunkStore store = new ChunkStore(selector.source);
+        ContentValues[] parsed = ParallelStatusParser.get().parse(body, store);
+        if (mPolicy != null) {
+            // Characters, not bytes, but near enough for JSON that's mostly ASCII
+            mPolicy.record(headers - start, end - headers, body.length(), parsed.length);
+        }
+        // After the statuses are in, since nothing is waiting on these
+        ProfileCache profiles = mProfiles;
+        if (profiles != null && parsed.length > 0) {
+            profiles.getUsersIn(signer, parsed);
+        }
+        return store.mStored;
+    }
+
+    private class ChunkStore implements ParallelStatusParser.Listener {
+        private final TimelineSource mSource;
+        private int mNext = 0;
+        int mStored = 0;
+
+        ChunkStore(TimelineSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public void onParsed(ContentValues[] parsed, int ready) throws InterruptedException {
+            // Whole chunks only, until the end of the page
+            while (mNext < ready && (ready - mNext >= CHUNK_SIZE || ready == parsed.length)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                ContentValues[] values = new ContentValues[Math.min(CHUNK_SIZE, ready - mNext)];
+                System.arraycopy(parsed, mNext, values, 0, values.length);
+                mNext += values.length;
+                mStored += BloaCommands.ingestPage(mCR, mAccount, mSource.getKey(), values,
+                        BloaCommands.DEFAULT_KEEP);
+                if (mListener != null) {
+                    mListener.onChunkStored(mSource, values.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches up to depth pages older than what we have for each source, all sources in parallel.
+     */
+    public int prefetch(final RequestSigner signer, TimelineSource[] sources, final int depth,
+            final int count) throws InterruptedException {
+        TimelineSelector[] selectors = new TimelineSelector[sources.length];
+        for (int i = 0; i < sources.length; ++i) {
+            selectors[i] = new TimelineSelector(sources[i]);
+        }
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(sources.length);
+        for (final TimelineSelector selector : selectors) {
+            results.add(sExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int fetched = 0;
+                    for (int page = 0; page < depth; ++page) {
+                        Long oldest = getOldestStatusId(selector.source);
+                        if (oldest == null) {
+                            break;
+                        }
+                        int n = fetchOne(signer, new TimelineSelector(selector.source, null, oldest - 1, count, null));
+                        if (n == 0) {
+                            // That's the end of it
+                            break;
+                        }
+                        fetched += n;
+                    }
+                    return fetched;
+                }
+            }));
+        }
+        return collect(results, selectors);
+    }
+
+    private Long getOldestStatusId(TimelineSource source) {
+        Uri uri = UserStatusRecords.withLimit(UserStatusRecords.forAccount(source.getContentUri(), mAccount), 1);
+        Cursor c = mCR.query(uri, OLDEST_PROJECTION, null, null, UserStatusRecord.STATUS_ID + " ASC");
+        try {
+            return (c != null && c.moveToFirst()) ? c.getLong(0) : null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+}
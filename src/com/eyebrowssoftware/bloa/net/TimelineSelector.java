@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import android.net.Uri;
+
+public class TimelineSelector extends Object {
+    public static final int MAX_COUNT = 200;
+
+    public TimelineSource source; // the timeline to perform the query from
+    // not all these apply to every url - you are responsible
+    public Long since_id; // ids newer than this will be fetched
+    public Long max_id; // ids older than this will be fetched
+    public Integer count; // # of tweets to fetch Max is 200
+    public Integer page; // # of page to fetch (with limits)
+
+    public TimelineSelector(TimelineSource s) {
+        source = s;
+        max_id = null;
+        since_id = null;
+        count = null;
+        page = null;
+    }
+
+    public TimelineSelector(TimelineSource s, Long since, Long max, Integer cnt, Integer pg) {
+        source = s;
+        max_id = max;
+        since_id = since;
+        count = cnt;
+        page = pg;
+    }
+
+    public Uri toUri() {
+        Uri.Builder builder = Uri.parse(source.getUrl()).buildUpon();
+        if(since_id != null) {
+            builder.appendQueryParameter("since_id", String.valueOf(since_id));
+        } else if (max_id != null) { // these are mutually exclusive
+            builder.appendQueryParameter("max_id", String.valueOf(max_id));
+        }
+        if(count != null) {
+            builder.appendQueryParameter("count", String.valueOf((count > MAX_COUNT) ? MAX_COUNT : count));
+        }
+        if(page != null) {
+            builder.appendQueryParameter("page", String.valueOf(page));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.net;
+
+import android.net.Uri;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+
+/**
+ * A timeline we can fetch: where it comes from on the service and the key it's stored under in
+ * the provider.
+ */
+public final class TimelineSource {
+
+    public static final TimelineSource HOME =
+        new TimelineSource(UserStatusRecords.TIMELINE_HOME, App.HOME_TIMELINE_URL_STRING);
+    public static final TimelineSource USER =
+        new TimelineSource(UserStatusRecords.TIMELINE_USER, App.USER_TIMELINE_URL_STRING);
+    public static final TimelineSource FRIENDS =
+        new TimelineSource(UserStatusRecords.TIMELINE_FRIENDS, App.FRIENDS_TIMELINE_URL_STRING);
+
+    public static final TimelineSource[] ALL = { HOME, USER, FRIENDS };
+
+    private final String mKey;
+    private final String mUrl;
+
+    public TimelineSource(String key, String url) {
+        mKey = key;
+        mUrl = url;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Where the statuses are kept locally
+     */
+    public Uri getContentUri() {
+        return UserStatusRecords.timelineUri(mKey);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+/**
+ * Every in-memory cache in the process, so that when the system is short of memory we give some
+ * back instead of being killed. Each cache is in a tier that says what it's for, and each trim
+ * level takes a share of each tier: the caches only the visible UI needs go first, the copies of
+ * what's in the database next. Trimming only evicts; the caches keep their maximum sizes and
+ * fill up again when things are better.
+ *
+ * Keeps count of what pressure has cost each cache, by name.
+ */
+public class CacheRegistry {
+    static final String TAG = CacheRegistry.class.toString();
+
+    /**
+     * Only there to make the visible UI quicker, and cheap to redo
+     */
+    public static final int TIER_UI = 0;
+
+    /**
+     * Copies of what's in the database, or was on the network
+     */
+    public static final int TIER_DATA = 1;
+
+    /**
+     * What a registered cache gives us to work with. Sizes are in whatever units the cache
+     * counts in; all we need is the fraction.
+     */
+    public interface Trimmable {
+        int size();
+
+        int maxSize();
+
+        /**
+         * Evicts until size() is no more than maxSize.
+         */
+        void trimToSize(int maxSize);
+    }
+
+    private static class Registration {
+        final String name;
+        final int tier;
+        final Trimmable cache;
+
+        Registration(String name, int tier, Trimmable cache) {
+            this.name = name;
+            this.tier = tier;
+            this.cache = cache;
+        }
+    }
+
+    /**
+     * What memory pressure has done to the caches of one name.
+     */
+    public static class Metrics {
+        public int trims;
+        public long evicted;
+
+        Metrics copy() {
+            Metrics m = new Metrics();
+            m.trims = trims;
+            m.evicted = evicted;
+            return m;
+        }
+    }
+
+    // Guarded by this
+    private final List<Registration> mCaches = new ArrayList<Registration>();
+    private final Map<String, Metrics> mMetrics = new HashMap<String, Metrics>();
+    private int mLastLevel = 0;
+
+    public synchronized void register(String name, int tier, Trimmable cache) {
+        if (tier != TIER_UI && tier != TIER_DATA) {
+            throw new IllegalArgumentException("tier " + tier);
+        }
+        mCaches.add(new Registration(name, tier, cache));
+    }
+
+    public synchronized void unregister(Trimmable cache) {
+        for (int i = mCaches.size() - 1; i >= 0; --i) {
+            if (mCaches.get(i).cache == cache) {
+                mCaches.remove(i);
+            }
+        }
+    }
+
+    /**
+     * How full each cache is, by name, added up over all the caches with the name, as { size,
+     * maxSize }.
+     */
+    public synchronized Map<String, int[]> getSizes() {
+        Map<String, int[]> sizes = new LinkedHashMap<String, int[]>();
+        for (Registration r : mCaches) {
+            int[] size = sizes.get(r.name);
+            if (size == null) {
+                size = new int[2];
+                sizes.put(r.name, size);
+            }
+            size[0] += r.cache.size();
+            size[1] += r.cache.maxSize();
+        }
+        return sizes;
+    }
+
+    /**
+     * @return a copy of what pressure has cost the caches of this name
+     */
+    public synchronized Metrics getMetrics(String name) {
+        Metrics m = mMetrics.get(name);
+        return (m == null) ? new Metrics() : m.copy();
+    }
+
+    public synchronized int getLastLevel() {
+        return mLastLevel;
+    }
+
+    /**
+     * For Application.onTrimMemory().
+     */
+    public synchronized void onTrimMemory(int level) {
+        mLastLevel = level;
+        for (Registration r : mCaches) {
+            trim(r, keepPercent(r.tier, level));
+        }
+        Log.i(TAG, "Trimmed to level " + level + ": " + this);
+    }
+
+    /**
+     * For Application.onLowMemory(), which is as bad as it gets.
+     */
+    public synchronized void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * How much of its maximum a cache in the tier gets to keep at the trim level.
+     */
+    static int keepPercent(int tier, int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            // Next in line to be killed
+            return 0;
+        }
+        if (tier == TIER_UI) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                // Nothing to show it on
+                return 0;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                return 25;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                return 50;
+            }
+            return 100;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 50;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Coming back to the app will want these
+            return 100;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 50;
+        }
+        return 100;
+    }
+
+    // Must hold the lock
+    private void trim(Registration r, int percent) {
+        int before = r.cache.size();
+        int target = (int) ((long) r.cache.maxSize() * percent / 100);
+        if (before <= target) {
+            return;
+        }
+        r.cache.trimToSize(target);
+        Metrics m = mMetrics.get(r.name);
+        if (m == null) {
+            m = new Metrics();
+            mMetrics.put(r.name, m);
+        }
+        ++m.trims;
+        m.evicted += before - r.cache.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, int[]> entry : getSizes().entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            Metrics m = getMetrics(entry.getKey());
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()[0]).append('/')
+                .append(entry.getValue()[1]).append(" (").append(m.evicted).append(" evicted in ")
+                .append(m.trims).append(" trims)");
+        }
+        return sb.toString();
+    }
+}
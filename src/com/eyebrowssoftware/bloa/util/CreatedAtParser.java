@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.util;
+
+/**
+ * Parses Twitter's created_at dates, which always look like "Wed Aug 27 13:08:45 +0000 2008", into
+ * milliseconds since the epoch. Every field is at a fixed position, so we just pick the digits out
+ * instead of using SimpleDateFormat, which is slow, allocates a lot and isn't thread safe. This class
+ * has no state, so any thread can use it.
+ */
+public final class CreatedAtParser {
+
+    // "Wed Aug 27 13:08:45 +0000 2008"
+    //  0123456789012345678901234567890
+    private static final int LENGTH = 30;
+
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long SECONDS_PER_MINUTE = 60L;
+    private static final long SECONDS_PER_HOUR = 3600L;
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    // Status ids since late 2010 have the time they were made, less this, in the bits above 22
+    private static final long ID_EPOCH = 1288834974657L;
+    private static final int ID_TIME_SHIFT = 22;
+    private static final long FIRST_TIMED_ID = 29700859247L;
+
+    // This class cannot be instantiated
+    private CreatedAtParser() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the date isn't in the expected format
+     */
+    public static long parse(CharSequence s) {
+        if (s == null || s.length() != LENGTH || s.charAt(3) != ' ' || s.charAt(7) != ' '
+                || s.charAt(10) != ' ' || s.charAt(13) != ':' || s.charAt(16) != ':'
+                || s.charAt(19) != ' ' || s.charAt(25) != ' ') {
+            throw new IllegalArgumentException("Bad created_at: " + s);
+        }
+        int month = month(s.charAt(4), s.charAt(5), s.charAt(6));
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        int offset = digits(s, 21, 2) * 60 + digits(s, 23, 2);
+        int year = digits(s, 26, 4);
+        if (month < 0 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw new IllegalArgumentException("Bad created_at: " + s);
+        }
+        switch (s.charAt(20)) {
+        case '+':
+            break;
+        case '-':
+            offset = -offset;
+            break;
+        default:
+            throw new IllegalArgumentException("Bad created_at: " + s);
+        }
+        long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * SECONDS_PER_HOUR
+                + minute * SECONDS_PER_MINUTE + second - offset * SECONDS_PER_MINUTE;
+        return seconds * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Like {@link #parse(CharSequence)}, but returns the default instead of throwing, so one bad
+     * date doesn't cost us a whole page of statuses.
+     */
+    public static long parse(CharSequence s, long defaultValue) {
+        try {
+            return parse(s);
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * When a status was made, going by its id, for when its created_at won't do.
+     *
+     * @return the time, or 0 for ids from before they had one in them, so they sort oldest
+     */
+    public static long fromStatusId(long statusId) {
+        return (statusId >= FIRST_TIMED_ID) ? (statusId >> ID_TIME_SHIFT) + ID_EPOCH : 0;
+    }
+
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; ++i) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Bad created_at: " + s);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Returns 1-12, or -1
+    private static int month(char a, char b, char c) {
+        for (int i = 0; i < 12; ++i) {
+            int j = i * 3;
+            if (MONTHS.charAt(j) == a && MONTHS.charAt(j + 1) == b && MONTHS.charAt(j + 2) == c) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar, from Howard Hinnant's algorithm
+    static long daysFromCivil(int year, int month, int day) {
+        year -= (month <= 2) ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
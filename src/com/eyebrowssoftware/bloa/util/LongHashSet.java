@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.util;
+
+/**
+ * A set of longs that stores them as longs: one array, open addressing with linear probing, and
+ * nothing allocated per entry. Removing shifts the rest of the cluster back instead of leaving a
+ * marker, so lookups never have to step over dead slots however much churn there's been.
+ *
+ * It never holds more than its maximum size. Once it's full, adding does nothing, so it's only
+ * good for questions where not knowing is a safe answer. Not thread safe.
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Zero marks an empty slot, so zero itself is kept on the side
+    private static final long EMPTY = 0;
+
+    private final int mMaxSize;
+    private long[] mSlots;
+    private int mMask;
+    private int mSize = 0;
+    private boolean mHasZero = false;
+
+    public LongHashSet(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize " + maxSize);
+        }
+        mMaxSize = maxSize;
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public boolean isFull() {
+        return mSize >= mMaxSize;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return mHasZero;
+        }
+        return mSlots[find(value)] == value;
+    }
+
+    /**
+     * @return true if it's in the set now and wasn't before; false if it was already there, or
+     * the set is full
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (mHasZero || isFull()) {
+                return false;
+            }
+            mHasZero = true;
+            ++mSize;
+            return true;
+        }
+        int slot = find(value);
+        if (mSlots[slot] == value || isFull()) {
+            return false;
+        }
+        mSlots[slot] = value;
+        ++mSize;
+        // Kept at most half full, so a miss is over in a probe or two
+        if (mSize * 2 > mSlots.length) {
+            rehash(mSlots.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if it was there
+     */
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!mHasZero) {
+                return false;
+            }
+            mHasZero = false;
+            --mSize;
+            return true;
+        }
+        int hole = find(value);
+        if (mSlots[hole] != value) {
+            return false;
+        }
+        // Anything further along the cluster that could live in the hole moves back into it,
+        // leaving a new hole where it was
+        for (int next = (hole + 1) & mMask; mSlots[next] != EMPTY; next = (next + 1) & mMask) {
+            int home = slotOf(mSlots[next]);
+            boolean between = (hole <= next) ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!between) {
+                mSlots[hole] = mSlots[next];
+                hole = next;
+            }
+        }
+        mSlots[hole] = EMPTY;
+        --mSize;
+        return true;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        mSize = 0;
+        mHasZero = false;
+    }
+
+    // The slot value is in, or the empty one where it would go
+    private int find(long value) {
+        int slot = slotOf(value);
+        while (mSlots[slot] != EMPTY && mSlots[slot] != value) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    private int slotOf(long value) {
+        // Status ids are mostly time in the high bits, so mix them all down
+        int h = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mMask;
+    }
+
+    private void allocate(int capacity) {
+        mSlots = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = mSlots;
+        allocate(capacity);
+        for (long value : old) {
+            if (value != EMPTY) {
+                mSlots[find(value)] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.util;
+
+import android.support.v4.util.LruCache;
+import android.text.format.DateUtils;
+
+/**
+ * Caches the "5 min. ago" strings for the timeline. They only change when the minute does, so
+ * every row from the same minute shares one string until then. Main thread only.
+ */
+public class RelativeTimeCache implements CacheRegistry.Trimmable {
+
+    public static final int DEFAULT_SIZE = 128;
+
+    private final LruCache<Long, CharSequence> mCache;
+    private long mMinute = -1;
+
+    public RelativeTimeCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public RelativeTimeCache(int size) {
+        mCache = new LruCache<Long, CharSequence>(size);
+    }
+
+    /**
+     * @param when the time to describe, or 0 if we don't know it
+     * @param now the current time
+     */
+    public CharSequence get(long when, long now) {
+        if (when <= 0) {
+            return "";
+        }
+        long minute = now / DateUtils.MINUTE_IN_MILLIS;
+        if (minute != mMinute) {
+            // Everything we have is a minute out of date
+            mCache.evictAll();
+            mMinute = minute;
+        }
+        Long key = when / DateUtils.MINUTE_IN_MILLIS;
+        CharSequence s = mCache.get(key);
+        if (s == null) {
+            s = DateUtils.getRelativeTimeSpanString(when, now, DateUtils.MINUTE_IN_MILLIS,
+                    DateUtils.FORMAT_ABBREV_RELATIVE);
+            mCache.put(key, s);
+        }
+        return s;
+    }
+
+    @Override
+    public int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        mCache.trimToSize(maxSize);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 - Brion Noble Emde
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.eyebrowssoftware.bloa.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.text.SpannableString;
+import android.text.util.Linkify;
+
+/**
+ * Turns status text into text with links for the web addresses, @mentions and #hashtags in it.
+ * Finding them is too slow to do while binding a row, so it's done on a background thread and the
+ * result handed back on the main thread, and kept for the next time the row is shown.
+ *
+ * Row ids are only unique within one database, and a wipe or an account switch starts them over,
+ * so each result keeps the text it was made from and is only used for that same text.
+ */
+public class StatusTextFormatter implements CacheRegistry.Trimmable {
+    static final String TAG = StatusTextFormatter.class.toString();
+
+    public static final int DEFAULT_SIZE = 256;
+
+    private static final Pattern MENTION = Pattern.compile("@\\w{1,15}");
+    private static final Pattern HASHTAG = Pattern.compile("#\\w+");
+
+    private static final String PROFILE_URL = "https://twitter.com/";
+    private static final String SEARCH_URL = "https://twitter.com/search?q=%23";
+
+    // Drops the @ or # that the pattern matched
+    private static final Linkify.TransformFilter STRIP_PREFIX = new Linkify.TransformFilter() {
+        @Override
+        public String transformUrl(Matcher match, String url) {
+            return url.substring(1);
+        }
+    };
+
+    public interface Callback {
+        /**
+         * Called on the main thread when the text for key is ready.
+         *
+         * @param source the text it was made from
+         */
+        void onFormatted(long key, String source, CharSequence text);
+    }
+
+    private static class Entry {
+        final String source;
+        final CharSequence formatted;
+
+        Entry(String source, CharSequence formatted) {
+            this.source = source;
+            this.formatted = formatted;
+        }
+    }
+
+    private final LruCache<Long, Entry> mCache;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Never at the expense of the frame being drawn
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "Status formatter");
+        }
+    });
+
+    public StatusTextFormatter() {
+        this(DEFAULT_SIZE);
+    }
+
+    public StatusTextFormatter(int size) {
+        mCache = new LruCache<Long, Entry>(size);
+    }
+
+    /**
+     * @param text the row's text, which the cached result has to be made from
+     * @return the formatted text, or null if it hasn't been done yet
+     */
+    public CharSequence get(long key, char[] text, int length) {
+        Entry entry = mCache.get(key);
+        return (entry != null && matches(entry.source, text, length)) ? entry.formatted : null;
+    }
+
+    // Without making a String of the row's text
+    public static boolean matches(String source, char[] text, int length) {
+        if (source.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (source.charAt(i) != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets everything, as when the rows are from a different database now.
+     */
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Formats the text in the background, unless it's already been done, and tells the callback.
+     */
+    public void request(final long key, final String text, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = mCache.get(key);
+                if (entry == null || !entry.source.equals(text)) {
+                    entry = new Entry(text, format(text));
+                    mCache.put(key, entry);
+                }
+                final CharSequence result = entry.formatted;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFormatted(key, text, result);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        mCache.trimToSize(maxSize);
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public static CharSequence format(String text) {
+        SpannableString s = new SpannableString(text);
+        Linkify.addLinks(s, Linkify.WEB_URLS);
+        Linkify.addLinks(s, MENTION, PROFILE_URL, null, STRIP_PREFIX);
+        Linkify.addLinks(s, HASHTAG, SEARCH_URL, null, STRIP_PREFIX);
+        return s;
+    }
+}
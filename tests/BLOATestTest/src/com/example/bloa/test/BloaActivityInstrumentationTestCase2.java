@@ -1,17 +1,16 @@
 package com.example.bloa.test;
 
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 import android.test.ActivityInstrumentationTestCase2;
 
 import com.eyebrowssoftware.bloa.App;
 import com.eyebrowssoftware.bloa.KeysProvider;
+import com.eyebrowssoftware.bloa.TokenStore;
 import com.eyebrowssoftware.bloa.activities.BloaActivity;
 
 public class BloaActivityInstrumentationTestCase2 extends ActivityInstrumentationTestCase2<BloaActivity> {
     // You'll have to create your own
     KeysProvider mKeysProvider = new MyUserKeyProvider();
-    SharedPreferences mSettings;
+    TokenStore mTokenStore;
 
     public BloaActivityInstrumentationTestCase2() {
         super(BloaActivity.class);
@@ -19,11 +18,12 @@ public class BloaActivityInstrumentationTestCase2 extends ActivityInstrumentatio
 
     public void setUp() throws Exception {
         super.setUp();
-        mSettings = PreferenceManager.getDefaultSharedPreferences(this.getInstrumentation().getTargetContext());
+        App app = (App) this.getInstrumentation().getTargetContext().getApplicationContext();
+        mTokenStore = app.getTokenStore();
     }
 
     public void tearDown() throws Exception {
-        mSettings = null;
+        mTokenStore = null;
         super.tearDown();
     }
 
@@ -32,10 +32,7 @@ public class BloaActivityInstrumentationTestCase2 extends ActivityInstrumentatio
     }
 
     public void testKeysSet() {
-        SharedPreferences.Editor editor = mSettings.edit();
-        editor.putString(App.USER_TOKEN, mKeysProvider.getKey1());
-        editor.putString(App.USER_SECRET, mKeysProvider.getKey2());
-        editor.commit();
+        mTokenStore.saveAuthInformation(mKeysProvider.getKey1(), mKeysProvider.getKey2());
         assertNotNull(this.getActivity());
     }
 }
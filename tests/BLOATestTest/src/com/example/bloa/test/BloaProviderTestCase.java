@@ -1,5 +1,6 @@
 package com.example.bloa.test;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
@@ -7,7 +8,10 @@ import android.test.ProviderTestCase2;
 import android.test.mock.MockContentResolver;
 
 import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.BloaCommands;
 import com.eyebrowssoftware.bloa.data.BloaProvider;
+import com.eyebrowssoftware.bloa.data.StatusEntities;
+import com.eyebrowssoftware.bloa.data.StatusPayload;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords;
 import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
 
@@ -173,4 +177,442 @@ public class BloaProviderTestCase extends ProviderTestCase2<BloaProvider> {
     public void testBothKinds() {
 
     }
+
+    // Timeline tests
+
+    private ContentValues newTimelineValues(long statusId, String text) {
+        ContentValues v = new ContentValues();
+        v.put(UserStatusRecord.STATUS_ID, statusId);
+        v.put(UserStatusRecord.RECORD_ID, 1);
+        v.put(UserStatusRecord.USER_NAME, UserStatusRecord.USER_NAME + statusId);
+        v.put(UserStatusRecord.USER_TEXT, text);
+        v.put(UserStatusRecord.CREATED_DATE, statusId);
+        return v;
+    }
+
+    private int countTimeline(String timeline) {
+        Cursor c = mCR.query(UserStatusRecords.timelineUri(timeline), App.USER_STATUS_PROJECTION,
+                App.USER_TIMELINE_QUERY_WHERE, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+
+    private int countStatuses() {
+        Cursor c = mCR.query(UserStatusRecords.CONTENT_URI, App.USER_STATUS_PROJECTION,
+                App.USER_TIMELINE_QUERY_WHERE, null, null);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+
+    public void testTimelinesShareStatuses() {
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two") };
+        ContentValues[] user = { newTimelineValues(2, "two again"), newTimelineValues(3, "three") };
+        assertEquals(2, mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), home));
+        assertEquals(2, mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_USER), user));
+        assertEquals(2, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        assertEquals(2, countTimeline(UserStatusRecords.TIMELINE_USER));
+        assertEquals(0, countTimeline(UserStatusRecords.TIMELINE_FRIENDS));
+        // Status 2 is only stored once, and has the latest text
+        assertEquals(3, countStatuses());
+        Cursor c = mCR.query(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                App.USER_STATUS_PROJECTION, null, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+        assertTrue(c.moveToFirst());
+        assertEquals("two again", c.getString(App.IDX_USER_STATUS_USER_TEXT));
+        c.close();
+    }
+
+    public void testDeleteTimeline() {
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two") };
+        ContentValues[] user = { newTimelineValues(2, "two") };
+        mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), home);
+        mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_USER), user);
+        assertEquals(2, mCR.delete(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), null, null));
+        assertEquals(0, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        assertEquals(1, countTimeline(UserStatusRecords.TIMELINE_USER));
+        // Status 1 isn't in any timeline now
+        assertEquals(1, countStatuses());
+        mCR.delete(UserStatusRecords.CONTENT_URI, App.USER_TIMELINE_QUERY_WHERE, null);
+        assertEquals(0, countTimeline(UserStatusRecords.TIMELINE_USER));
+    }
+
+    public void testTimelineLimit() {
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two"),
+                newTimelineValues(3, "three") };
+        mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), home);
+        Cursor c = mCR.query(UserStatusRecords.withLimit(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), 2),
+                App.USER_STATUS_PROJECTION, null, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+        assertEquals(2, c.getCount());
+        assertTrue(c.moveToFirst());
+        assertEquals("three", c.getString(App.IDX_USER_STATUS_USER_TEXT));
+        c.close();
+        // The unlimited query isn't answered from the limited one's cache entry
+        assertEquals(3, countTimeline(UserStatusRecords.TIMELINE_HOME));
+    }
+
+    private int countEntity(String type, String value) {
+        Cursor c = mCR.query(StatusEntities.entityUri(type, value), new String[] { UserStatusRecord.STATUS_ID },
+                null, null, null);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+
+    public void testDeleteTakesOnlyItsLeftovers() {
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two"), newTimelineValues(3, "three") };
+        for (ContentValues v : home) {
+            v.put(UserStatusRecord.ENTITIES, "hashtag:bloa");
+        }
+        ContentValues[] user = { newTimelineValues(2, "two"), newTimelineValues(4, "four") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, home, 0);
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_USER, user, 0);
+
+        // One status goes from both timelines, with its entities
+        assertEquals(1, mCR.delete(UserStatusRecords.CONTENT_URI, UserStatusRecord.STATUS_ID + "=2", null));
+        assertEquals(2, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        assertEquals(1, countTimeline(UserStatusRecords.TIMELINE_USER));
+        assertEquals(2, countEntity(StatusEntities.TYPE_HASHTAG, "bloa"));
+
+        // A whole timeline takes the statuses only it had
+        mCR.delete(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), null, null);
+        assertEquals(1, countStatuses());
+        assertEquals(0, countEntity(StatusEntities.TYPE_HASHTAG, "bloa"));
+        assertEquals(1, countTimeline(UserStatusRecords.TIMELINE_USER));
+    }
+
+    public void testTimelineListProjection() {
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two") };
+        mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), home);
+        Cursor c = mCR.query(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                App.USER_TIMELINE_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+        assertEquals(App.USER_TIMELINE_PROJECTION.length, c.getColumnCount());
+        assertTrue(c.moveToFirst());
+        assertEquals("two", c.getString(App.IDX_USER_TIMELINE_USER_TEXT));
+        long id = c.getLong(App.IDX_USER_TIMELINE_ID);
+        c.close();
+
+        // And the rest of it by _id
+        c = mCR.query(ContentUris.withAppendedId(UserStatusRecords.CONTENT_URI, id),
+                App.USER_STATUS_DETAIL_PROJECTION, null, null, null);
+        assertEquals(1, c.getCount());
+        assertTrue(c.moveToFirst());
+        assertEquals(2, c.getLong(App.IDX_USER_STATUS_DETAIL_STATUS_ID));
+        assertEquals(UserStatusRecord.USER_NAME + 2, c.getString(App.IDX_USER_STATUS_DETAIL_USER_NAME));
+        c.close();
+    }
+
+    public void testUnknownColumn() {
+        String[] projection = { UserStatusRecord.USER_NAME, "password" };
+        try {
+            mCR.query(UserStatusRecords.CONTENT_URI, projection, null, null, null);
+            fail("Unknown column accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            mCR.query(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), projection, null, null, null);
+            fail("Unknown column accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // Commands
+
+    public void testReplaceStatus() {
+        newUserStatusRecord(1, 1000);
+        ContentValues v = newTimelineValues(5, "five");
+        assertEquals(1, BloaCommands.replaceStatus(mCR, v));
+        Cursor c = queryUserStatusRecord(UserStatusRecords.CONTENT_URI);
+        assertEquals(1, c.getCount());
+        assertTrue(c.moveToFirst());
+        assertEquals("five", c.getString(App.IDX_USER_STATUS_USER_TEXT));
+        c.close();
+        // The singleton doesn't take the status from a timeline
+        assertEquals(0, countStatuses());
+    }
+
+    public void testIngestPageTrims() {
+        ContentValues[] page = new ContentValues[10];
+        for (int i = 0; i < page.length; ++i) {
+            page[i] = newTimelineValues(i + 1, "status " + (i + 1));
+        }
+        assertEquals(10, BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 4));
+        assertEquals(4, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        Cursor c = mCR.query(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                App.USER_TIMELINE_PROJECTION, null, null, UserStatusRecord.DEFAULT_SORT_ORDER);
+        assertTrue(c.moveToLast());
+        // The newest four are left
+        assertEquals("status 7", c.getString(App.IDX_USER_TIMELINE_USER_TEXT));
+        c.close();
+        assertEquals(4, countStatuses());
+    }
+
+    private String queryText(String timeline, long statusId) {
+        Cursor c = mCR.query(UserStatusRecords.timelineUri(timeline), App.USER_TIMELINE_PROJECTION,
+                UserStatusRecord.STATUS_ID + "=" + statusId, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(App.IDX_USER_TIMELINE_USER_TEXT) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testOverlappingPagesSkipped() {
+        ContentValues[] page = { newTimelineValues(1, "one"), newTimelineValues(2, "two"), newTimelineValues(3, "three") };
+        assertEquals(3, BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 3));
+        // 2 and 3 are already there, so they're skipped without being written again
+        ContentValues[] overlap = { newTimelineValues(2, "two again"), newTimelineValues(3, "three again"),
+            newTimelineValues(4, "four") };
+        assertEquals(3, BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, overlap, 3));
+        assertEquals("two", queryText(UserStatusRecords.TIMELINE_HOME, 2));
+        assertEquals("four", queryText(UserStatusRecords.TIMELINE_HOME, 4));
+        // 1 was trimmed, so it goes back in when it comes round again
+        assertNull(queryText(UserStatusRecords.TIMELINE_HOME, 1));
+        ContentValues[] again = { newTimelineValues(1, "one again") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, again, 0);
+        assertEquals("one again", queryText(UserStatusRecords.TIMELINE_HOME, 1));
+        // Another timeline doesn't have it yet, so it's stored there
+        ContentValues[] user = { newTimelineValues(2, "two for user") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_USER, user, 0);
+        assertEquals(1, countTimeline(UserStatusRecords.TIMELINE_USER));
+        // Once the timeline is deleted, nothing in it counts as seen
+        mCR.delete(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), null, null);
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 0);
+        assertEquals(3, countTimeline(UserStatusRecords.TIMELINE_HOME));
+    }
+
+    public void testCachedQueriesSeeWrites() {
+        BloaCommands.replaceStatus(mCR, newTimelineValues(1, "first"));
+        Cursor c = queryUserStatusRecord(UserStatusRecords.CONTENT_URI);
+        assertTrue(c.moveToFirst());
+        assertEquals("first", c.getString(App.IDX_USER_STATUS_USER_TEXT));
+        c.close();
+        // Timeline writes leave the singleton alone
+        ContentValues[] page = { newTimelineValues(2, "two") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 0);
+        c = queryUserStatusRecord(UserStatusRecords.CONTENT_URI);
+        assertEquals(1, c.getCount());
+        c.close();
+        BloaCommands.replaceStatus(mCR, newTimelineValues(1, "second"));
+        c = queryUserStatusRecord(UserStatusRecords.CONTENT_URI);
+        assertTrue(c.moveToFirst());
+        assertEquals("second", c.getString(App.IDX_USER_STATUS_USER_TEXT));
+        c.close();
+        // And the statuses a conversation is read from
+        assertEquals(1, queryConversation(2).length);
+        ContentValues[] reply = { newReply(3, 2) };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, reply, 0);
+        assertEquals(2, queryConversation(2).length);
+    }
+
+    public void testWipe() {
+        newUserStatusRecord(1, 1000);
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, home, 0);
+        Cursor before = mCR.query(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                App.USER_TIMELINE_PROJECTION, null, null, null);
+        BloaCommands.wipe(mCR);
+        assertEquals(0, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        // Whoever was reading the old database can finish
+        assertEquals(2, before.getCount());
+        assertTrue(before.moveToLast());
+        before.close();
+        Cursor c = queryUserStatusRecord(UserStatusRecords.CONTENT_URI);
+        assertEquals(0, c.getCount());
+        c.close();
+        // And it still works afterwards
+        assertEquals(2, BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, home, 0));
+        assertEquals(2, countTimeline(UserStatusRecords.TIMELINE_HOME));
+    }
+
+    public void testAccountsAreSeparate() {
+        ContentValues[] a = { newTimelineValues(1, "one"), newTimelineValues(2, "two") };
+        ContentValues[] b = { newTimelineValues(3, "three") };
+        BloaCommands.ingestPage(mCR, "100", UserStatusRecords.TIMELINE_HOME, a, 0);
+        BloaCommands.ingestPage(mCR, "200", UserStatusRecords.TIMELINE_HOME, b, 0);
+        try {
+            // Unqualified URIs follow the selected account
+            BloaCommands.selectAccount(mCR, "100");
+            assertEquals(2, countTimeline(UserStatusRecords.TIMELINE_HOME));
+            BloaCommands.selectAccount(mCR, "200");
+            assertEquals(1, countTimeline(UserStatusRecords.TIMELINE_HOME));
+
+            // Wiping one leaves the other alone
+            BloaCommands.wipe(mCR, "100");
+            Cursor c = mCR.query(UserStatusRecords.forAccount(
+                    UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), "100"),
+                    App.USER_TIMELINE_PROJECTION, null, null, null);
+            assertEquals(0, c.getCount());
+            c.close();
+            assertEquals(1, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        } finally {
+            BloaCommands.wipe(mCR, "100");
+            BloaCommands.wipe(mCR, "200");
+            BloaCommands.selectAccount(mCR, null);
+        }
+    }
+
+    public void testLegacyDataGoesToFirstAccount() {
+        ContentValues[] home = { newTimelineValues(1, "one"), newTimelineValues(2, "two") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, home, 0);
+        Cursor before = mCR.query(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                App.USER_TIMELINE_PROJECTION, null, null, null);
+        try {
+            BloaCommands.selectAccount(mCR, "300");
+            assertEquals(2, countTimeline(UserStatusRecords.TIMELINE_HOME));
+            // Whoever was reading the old database can finish
+            assertEquals(2, before.getCount());
+            assertTrue(before.moveToLast());
+            // And there's nothing left behind for no account
+            BloaCommands.selectAccount(mCR, null);
+            assertEquals(0, countTimeline(UserStatusRecords.TIMELINE_HOME));
+        } finally {
+            before.close();
+            BloaCommands.wipe(mCR, "300");
+            BloaCommands.selectAccount(mCR, null);
+        }
+    }
+
+    private ContentValues newReply(long statusId, long inReplyTo) {
+        ContentValues v = newTimelineValues(statusId, "reply " + statusId);
+        v.put(UserStatusRecord.IN_REPLY_TO_STATUS_ID, inReplyTo);
+        return v;
+    }
+
+    private long[] queryConversation(long statusId) {
+        Cursor c = mCR.query(UserStatusRecords.conversationUri(statusId),
+                new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+        long[] ids = new long[c.getCount()];
+        for (int i = 0; c.moveToNext(); ++i) {
+            ids[i] = c.getLong(0);
+        }
+        c.close();
+        return ids;
+    }
+
+    public void testConversationThreads() {
+        // Newest first, the way timelines come: the replies arrive before what they reply to
+        ContentValues[] page = { newReply(4, 3), newReply(3, 2), newTimelineValues(10, "unrelated") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 0);
+        assertEquals(2, queryConversation(4).length);
+        assertEquals(1, queryConversation(10).length);
+
+        ContentValues[] older = { newReply(2, 1), newTimelineValues(1, "root") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_CONVERSATION, older, 0);
+        long[] thread = queryConversation(3);
+        assertEquals(4, thread.length);
+        // Oldest first
+        for (int i = 0; i < thread.length; ++i) {
+            assertEquals(i + 1, thread[i]);
+        }
+        // The same thread from anywhere in it
+        assertEquals(4, queryConversation(1).length);
+        assertEquals(0, queryConversation(99).length);
+    }
+
+    public void testEntityPages() {
+        ContentValues[] page = new ContentValues[25];
+        for (int i = 0; i < page.length; ++i) {
+            page[i] = newTimelineValues(i + 1, "status " + (i + 1));
+            // Every odd one has the tag; every status mentions somebody
+            page[i].put(UserStatusRecord.ENTITIES, ((i % 2 == 0) ? "hashtag:bloa\n" : "") + "mention:user" + (i % 3));
+        }
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 0);
+
+        // Pages of five, newest first, each starting after the last one of the page before
+        Long before = null;
+        int seen = 0;
+        long last = Long.MAX_VALUE;
+        while (true) {
+            Cursor c = mCR.query(StatusEntities.entityPageUri(StatusEntities.TYPE_HASHTAG, "#BLOA", before, 5),
+                    new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+            int count = c.getCount();
+            while (c.moveToNext()) {
+                assertTrue(c.getLong(0) < last);
+                last = c.getLong(0);
+                assertEquals(1, last % 2);
+            }
+            c.close();
+            seen += count;
+            if (count < 5) {
+                break;
+            }
+            before = last;
+        }
+        assertEquals(13, seen);
+
+        Cursor c = mCR.query(StatusEntities.entityUri(StatusEntities.TYPE_MENTION, "@User0"),
+                App.USER_TIMELINE_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null, null);
+        assertEquals(9, c.getCount());
+        c.close();
+
+        // Trimming the timeline takes the entities with it
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, new ContentValues[0], 5);
+        c = mCR.query(StatusEntities.entityUri(StatusEntities.TYPE_HASHTAG, "bloa"),
+                new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+        assertEquals(3, c.getCount());
+        c.close();
+    }
+
+    public void testBadPageParameters() {
+        Uri uri = StatusEntities.entityUri(StatusEntities.TYPE_HASHTAG, "bloa").buildUpon()
+                .appendQueryParameter(StatusEntities.BEFORE_PARAMETER, "1 OR 1=1").build();
+        try {
+            mCR.query(uri, new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+            fail("took a before that isn't a number");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            mCR.query(UserStatusRecords.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(UserStatusRecords.LIMIT_PARAMETER, "ten").build(),
+                    new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+            fail("took a limit that isn't a number");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testPayloadFields() {
+        ContentValues v = newTimelineValues(7, "seven");
+        v.put(UserStatusRecord.PAYLOAD, StatusPayload.compress(
+                "{\"id\":7,\"retweet_count\":12,\"user\":{\"screen_name\":\"seven\"}}"));
+        ContentValues[] page = { v, newTimelineValues(8, "no payload") };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 0);
+
+        Cursor c = mCR.query(UserStatusRecords.payloadUri(7),
+                new String[] { "retweet_count", "user.screen_name", "coordinates" }, null, null, null);
+        assertTrue(c.moveToFirst());
+        assertEquals("12", c.getString(0));
+        assertEquals("seven", c.getString(1));
+        assertTrue(c.isNull(2));
+        c.close();
+
+        c = mCR.query(UserStatusRecords.payloadUri(8), new String[] { "retweet_count" }, null, null, null);
+        assertTrue(c.moveToFirst());
+        assertTrue(c.isNull(0));
+        c.close();
+
+        c = mCR.query(UserStatusRecords.payloadUri(9), new String[] { "retweet_count" }, null, null, null);
+        assertEquals(0, c.getCount());
+        c.close();
+    }
+
+    public void testCorruptPayload() {
+        byte[] payload = StatusPayload.compress("{\"id\":7,\"retweet_count\":12}");
+        byte[] truncated = new byte[payload.length / 2];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        ContentValues v = newTimelineValues(7, "seven");
+        v.put(UserStatusRecord.PAYLOAD, truncated);
+        ContentValues[] page = { v };
+        BloaCommands.ingestPage(mCR, UserStatusRecords.TIMELINE_HOME, page, 0);
+
+        // The same as a status with no payload
+        Cursor c = mCR.query(UserStatusRecords.payloadUri(7), new String[] { "retweet_count" }, null, null, null);
+        assertTrue(c.moveToFirst());
+        assertTrue(c.isNull(0));
+        c.close();
+    }
 }
@@ -0,0 +1,102 @@
+package com.example.bloa.test;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import android.content.ComponentCallbacks2;
+
+import com.eyebrowssoftware.bloa.util.CacheRegistry;
+
+public class CacheRegistryTestCase extends TestCase {
+    static final String TAG = CacheRegistryTestCase.class.toString();
+
+    // Counts in whatever units it likes, like the real ones
+    static class FakeCache implements CacheRegistry.Trimmable {
+        final int mMaxSize;
+        int mSize;
+
+        FakeCache(int maxSize) {
+            mMaxSize = maxSize;
+            mSize = maxSize;
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public int maxSize() {
+            return mMaxSize;
+        }
+
+        @Override
+        public void trimToSize(int maxSize) {
+            mSize = Math.min(mSize, maxSize);
+        }
+    }
+
+    private CacheRegistry mRegistry;
+    private FakeCache mUi;
+    private FakeCache mData;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mRegistry = new CacheRegistry();
+        mUi = new FakeCache(100);
+        mData = new FakeCache(1000);
+        mRegistry.register("ui", CacheRegistry.TIER_UI, mUi);
+        mRegistry.register("data", CacheRegistry.TIER_DATA, mData);
+    }
+
+    public void testRunningLowHalvesBoth() {
+        mRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(50, mUi.size());
+        assertEquals(500, mData.size());
+        assertEquals(1, mRegistry.getMetrics("data").trims);
+        assertEquals(500, mRegistry.getMetrics("data").evicted);
+    }
+
+    public void testHiddenDropsOnlyUi() {
+        mRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, mUi.size());
+        assertEquals(1000, mData.size());
+        assertEquals(100, mRegistry.getMetrics("ui").evicted);
+        assertEquals(0, mRegistry.getMetrics("data").trims);
+    }
+
+    public void testBackgroundLevels() {
+        mRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(500, mData.size());
+        mRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        assertEquals(250, mData.size());
+        mRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, mData.size());
+        CacheRegistry.Metrics m = mRegistry.getMetrics("data");
+        assertEquals(3, m.trims);
+        assertEquals(1000, m.evicted);
+        assertEquals(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, mRegistry.getLastLevel());
+    }
+
+    public void testLowMemoryDropsEverything() {
+        mRegistry.onLowMemory();
+        assertEquals(0, mUi.size());
+        assertEquals(0, mData.size());
+    }
+
+    public void testSizesByName() {
+        FakeCache another = new FakeCache(100);
+        another.mSize = 40;
+        mRegistry.register("ui", CacheRegistry.TIER_UI, another);
+        Map<String, int[]> sizes = mRegistry.getSizes();
+        assertEquals(140, sizes.get("ui")[0]);
+        assertEquals(200, sizes.get("ui")[1]);
+        mRegistry.unregister(another);
+        assertEquals(100, mRegistry.getSizes().get("ui")[0]);
+        // Gone, so not trimmed
+        mRegistry.onLowMemory();
+        assertEquals(40, another.size());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.bloa.test;
+
+import junit.framework.TestCase;
+
+import com.eyebrowssoftware.bloa.net.FetchPolicy;
+
+public class FetchPolicyTestCase extends TestCase {
+    static final String TAG = FetchPolicyTestCase.class.toString();
+
+    private static final int BYTES_PER_STATUS = 2500;
+
+    // Feed the policy a few identical fetches so the averages settle on them
+    private static void train(FetchPolicy policy, long latencyMs, double bytesPerMs) {
+        int statuses = 50;
+        long bytes = statuses * BYTES_PER_STATUS;
+        for (int i = 0; i < 30; ++i) {
+            policy.record(latencyMs, (long) (bytes / bytesPerMs), bytes, statuses);
+        }
+    }
+
+    public void testDefaultsBeforeMeasuring() {
+        FetchPolicy policy = new FetchPolicy();
+        assertFalse(policy.hasMeasurements());
+        assertEquals(FetchPolicy.MIN_COUNT, policy.getPageSize());
+        assertEquals(-1, policy.estimateMs(100));
+        assertEquals(0, policy.getPrefetchDepth(true));
+    }
+
+    public void testFastNetworkGetsFullPages() {
+        FetchPolicy policy = new FetchPolicy();
+        // 100ms to first byte, 1MB/s
+        train(policy, 100, 1000);
+        assertEquals(FetchPolicy.MAX_COUNT, policy.getPageSize());
+        assertEquals(FetchPolicy.MAX_PREFETCH_PAGES, policy.getPrefetchDepth(true));
+        assertEquals(0, policy.getPrefetchDepth(false));
+    }
+
+    public void testSlowNetworkGetsSmallPages() {
+        FetchPolicy policy = new FetchPolicy();
+        // 1.5s to first byte, 10KB/s: only a couple of statuses fit in what's left of two seconds
+        train(policy, 1500, 10);
+        assertEquals(FetchPolicy.MIN_COUNT, policy.getPageSize());
+        assertEquals(1, policy.getPrefetchDepth(true));
+    }
+
+    public void testPageSizeFitsTarget() {
+        FetchPolicy policy = new FetchPolicy(2000);
+        // 500ms latency, 100KB/s leaves 1.5s for 150KB, which is 60 statuses
+        train(policy, 500, 100);
+        int count = policy.getPageSize();
+        assertTrue("count " + count, count >= 58 && count <= 62);
+        long estimate = policy.estimateMs(count);
+        assertTrue("estimate " + estimate, Math.abs(estimate - 2000) < 100);
+    }
+
+    public void testAdaptsToChange() {
+        FetchPolicy policy = new FetchPolicy();
+        train(policy, 100, 1000);
+        int fast = policy.getPageSize();
+        train(policy, 1000, 20);
+        assertTrue(policy.getPageSize() < fast);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.bloa.test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.eyebrowssoftware.bloa.util.LongHashSet;
+
+public class LongHashSetTestCase extends TestCase {
+    static final String TAG = LongHashSetTestCase.class.toString();
+
+    public void testAddContainsRemove() {
+        LongHashSet set = new LongHashSet(100);
+        assertFalse(set.contains(5));
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertTrue(set.contains(5));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(5));
+        assertFalse(set.remove(5));
+        assertFalse(set.contains(5));
+        assertEquals(0, set.size());
+    }
+
+    public void testZeroAndNegatives() {
+        LongHashSet set = new LongHashSet(10);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(2, set.size());
+    }
+
+    public void testStopsAtMaxSize() {
+        LongHashSet set = new LongHashSet(3);
+        assertTrue(set.add(1));
+        assertTrue(set.add(2));
+        assertTrue(set.add(3));
+        assertTrue(set.isFull());
+        assertFalse(set.add(4));
+        assertFalse(set.contains(4));
+        assertTrue(set.remove(2));
+        assertTrue(set.add(4));
+    }
+
+    public void testMatchesHashSet() {
+        // Ids close together, like a timeline's, so the clusters are long and removals shift a lot
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet(5000);
+        HashSet<Long> expected = new HashSet<Long>();
+        long base = 300000000000000000L;
+        for (int i = 0; i < 100000; ++i) {
+            long id = base + random.nextInt(8000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), set.remove(id));
+            } else if (expected.size() < set.getMaxSize()) {
+                assertEquals(expected.add(id), set.add(id));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int i = 0; i < 8000; ++i) {
+            assertEquals(expected.contains(base + i), set.contains(base + i));
+        }
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(base + random.nextInt(8000)));
+    }
+}
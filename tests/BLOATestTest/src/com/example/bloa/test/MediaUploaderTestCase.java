@@ -0,0 +1,393 @@
+package com.example.bloa.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.eyebrowssoftware.bloa.net.Credentials;
+import com.eyebrowssoftware.bloa.net.MediaUploader;
+import com.eyebrowssoftware.bloa.net.MultipartFileEntity;
+import com.eyebrowssoftware.bloa.net.RequestSigner;
+
+public class MediaUploaderTestCase extends TestCase {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int FILE_SIZE = 3 * SEGMENT_SIZE + 1234;
+
+    /**
+     * Stands in for media/upload. Puts the segments back together in order, and can be told to
+     * turn a segment down a few times.
+     */
+    static class StandInServer extends Thread {
+        final ServerSocket mServer;
+        final ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+        final List<String> mCommands = new ArrayList<String>();
+        int mNextSegment = 0;
+        boolean mUnsigned = false;
+        int mFailSegment = -1;
+        int mFailures = 0;
+        int mFailStatus = 503;
+        // How many more STATUS checks answer that it's still being processed
+        int mPendingChecks = 0;
+
+        StandInServer() throws IOException {
+            super("Stand in upload");
+            mServer = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + mServer.getLocalPort() + "/1.1/media/upload.json";
+        }
+
+        synchronized void failSegment(int segment, int times, int status) {
+            mFailSegment = segment;
+            mFailures = times;
+            mFailStatus = status;
+        }
+
+        synchronized void pendFor(int checks) {
+            mPendingChecks = checks;
+        }
+
+        synchronized List<String> commands() {
+            return new ArrayList<String>(mCommands);
+        }
+
+        synchronized byte[] received() {
+            return mReceived.toByteArray();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mServer.accept();
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    Map<String, String> headers = new HashMap<String, String>();
+                    String request = readLine(in);
+                    String line;
+                    while ((line = readLine(in)).length() > 0) {
+                        int colon = line.indexOf(':');
+                        headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                    }
+                    String length = headers.get("content-length");
+                    byte[] body = new byte[(length == null) ? 0 : Integer.parseInt(length)];
+                    in.readFully(body);
+                    int status = 200;
+                    String response = handle(request, headers, new String(body, "ISO-8859-1"));
+                    if (response == null) {
+                        status = mFailStatus;
+                        response = "{\"errors\":[]}";
+                    }
+                    byte[] bytes = response.getBytes("UTF-8");
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 " + status + " Whatever\r\nContent-Type: application/json\r\nContent-Length: "
+                            + bytes.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                    out.write(bytes);
+                    out.flush();
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Closed by the test
+            }
+        }
+
+        // Returns null to turn the request down
+        private synchronized String handle(String request, Map<String, String> headers, String body)
+                throws IOException {
+            String auth = headers.get("authorization");
+            if (auth == null || !auth.startsWith("OAuth ")) {
+                mUnsigned = true;
+            }
+            if (request.startsWith("GET ")) {
+                // Only STATUS is a GET
+                mCommands.add("STATUS");
+                return processing((mPendingChecks-- > 0) ? "in_progress" : "succeeded");
+            }
+            String type = headers.get("content-type");
+            Map<String, String> fields = new HashMap<String, String>();
+            String media = null;
+            if (type.startsWith("multipart/form-data")) {
+                String boundary = "--" + type.substring(type.indexOf("boundary=") + 9);
+                for (String part : body.split(boundary)) {
+                    int split = part.indexOf("\r\n\r\n");
+                    if (split < 0) {
+                        continue;
+                    }
+                    String head = part.substring(0, split);
+                    String value = part.substring(split + 4, part.length() - 2);
+                    String name = head.substring(head.indexOf("name=\"") + 6);
+                    name = name.substring(0, name.indexOf('"'));
+                    if (head.contains("filename=")) {
+                        media = value;
+                    } else {
+                        fields.put(name, value);
+                    }
+                }
+            } else {
+                for (String pair : body.split("&")) {
+                    String[] kv = pair.split("=");
+                    fields.put(kv[0], URLDecoder.decode(kv[1], "UTF-8"));
+                }
+            }
+            String command = fields.get("command");
+            if (command.equals("APPEND")) {
+                int segment = Integer.parseInt(fields.get("segment_index"));
+                command += " " + segment;
+                if (segment == mFailSegment && mFailures > 0) {
+                    --mFailures;
+                    mCommands.add(command + " failed");
+                    return null;
+                }
+                assertEquals("media_id", "710511363345354753", fields.get("media_id"));
+                assertEquals("segment order", mNextSegment, segment);
+                ++mNextSegment;
+                mReceived.write(media.getBytes("ISO-8859-1"));
+                mCommands.add(command);
+                return "";
+            }
+            mCommands.add(command);
+            if (command.equals("INIT")) {
+                assertEquals(Integer.toString(FILE_SIZE), fields.get("total_bytes"));
+                assertEquals("image/png", fields.get("media_type"));
+                return "{\"media_id\":710511363345354753,\"media_id_string\":\"710511363345354753\","
+                    + "\"expires_after_secs\":86400}";
+            }
+            if (mPendingChecks > 0) {
+                return processing("pending");
+            }
+            return "{\"media_id\":710511363345354753,\"media_id_string\":\"710511363345354753\",\"size\":"
+                + mReceived.size() + "}";
+        }
+
+        private String processing(String state) {
+            return "{\"media_id\":710511363345354753,\"media_id_string\":\"710511363345354753\","
+                + "\"processing_info\":{\"state\":\"" + state + "\",\"check_after_secs\":0}}";
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    throw new IOException("Closed");
+                }
+                if (c != '\r') {
+                    sb.append((char) c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    static class Progress implements MediaUploader.ProgressListener {
+        long mLast = 0;
+        boolean mBackwards = false;
+
+        @Override
+        public void onProgress(long sent, long total) {
+            assertEquals(FILE_SIZE, total);
+            // A segment sent again starts from where that segment began, never before
+            if (sent < mLast && sent % SEGMENT_SIZE > MultipartFileEntity.BUFFER_SIZE) {
+                mBackwards = true;
+            }
+            mLast = sent;
+        }
+    }
+
+    StandInServer mServer;
+    RequestSigner mSigner = new RequestSigner(new Credentials("key", "secret", "token", "token_secret"));
+    File mFile;
+    byte[] mContents;
+    FileInputStream mIn;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mServer = new StandInServer();
+        mServer.start();
+        mContents = new byte[FILE_SIZE];
+        new Random(42).nextBytes(mContents);
+        mFile = File.createTempFile("upload", ".png");
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(mContents);
+        out.close();
+        mIn = new FileInputStream(mFile);
+    }
+
+    public void tearDown() throws Exception {
+        mIn.close();
+        mFile.delete();
+        mServer.mServer.close();
+        super.tearDown();
+    }
+
+    private MediaUploader newUploader() {
+        return new MediaUploader(new DefaultHttpClient(), mServer.url(), SEGMENT_SIZE);
+    }
+
+    public void testUploadsInSegments() throws Exception {
+        MediaUploader.Upload upload = new MediaUploader.Upload(FILE_SIZE, "image/png");
+        Progress progress = new Progress();
+        FileChannel channel = mIn.getChannel();
+        String id = newUploader().upload(mSigner, upload, channel, progress);
+
+        assertEquals("710511363345354753", id);
+        assertEquals(id, upload.getMediaId());
+        assertTrue(upload.isDone());
+        assertEquals(Arrays.asList("INIT", "APPEND 0", "APPEND 1", "APPEND 2", "APPEND 3", "FINALIZE"),
+                mServer.commands());
+        assertTrue(Arrays.equals(mContents, mServer.received()));
+        assertEquals(FILE_SIZE, progress.mLast);
+        assertFalse(progress.mBackwards);
+        assertFalse("unsigned request", mServer.mUnsigned);
+        // Reads were positional
+        assertEquals(0, channel.position());
+    }
+
+    public void testRetriesServerErrors() throws Exception {
+        mServer.failSegment(1, 2, 503);
+        MediaUploader.Upload upload = new MediaUploader.Upload(FILE_SIZE, "image/png");
+        Progress progress = new Progress();
+        newUploader().upload(mSigner, upload, mIn.getChannel(), progress);
+
+        assertEquals(Arrays.asList("INIT", "APPEND 0", "APPEND 1 failed", "APPEND 1 failed", "APPEND 1",
+                "APPEND 2", "APPEND 3", "FINALIZE"), mServer.commands());
+        assertTrue(Arrays.equals(mContents, mServer.received()));
+        assertFalse(progress.mBackwards);
+    }
+
+    public void testResumesWhereItStopped() throws Exception {
+        mServer.failSegment(2, MediaUploader.MAX_ATTEMPTS, 503);
+        MediaUploader.Upload upload = new MediaUploader.Upload(FILE_SIZE, "image/png");
+        try {
+            newUploader().upload(mSigner, upload, mIn.getChannel(), null);
+            fail("upload should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(upload.isDone());
+        assertNull(upload.getMediaId());
+        assertEquals(2 * SEGMENT_SIZE, upload.getSent());
+
+        // Only what the server didn't take goes again
+        newUploader().upload(mSigner, upload, mIn.getChannel(), null);
+        List<String> commands = mServer.commands();
+        assertEquals(0, commands.lastIndexOf("INIT"));
+        assertEquals(2, commands.lastIndexOf("APPEND 1"));
+        assertEquals("APPEND 2", commands.get(2 + MediaUploader.MAX_ATTEMPTS + 1));
+        assertTrue(Arrays.equals(mContents, mServer.received()));
+        assertTrue(upload.isDone());
+    }
+
+    public void testWaitsForProcessing() throws Exception {
+        mServer.pendFor(2);
+        MediaUploader.Upload upload = new MediaUploader.Upload(FILE_SIZE, "image/png");
+        newUploader().upload(mSigner, upload, mIn.getChannel(), null);
+        assertTrue(upload.isDone());
+        assertEquals(Arrays.asList("INIT", "APPEND 0", "APPEND 1", "APPEND 2", "APPEND 3", "FINALIZE",
+                "STATUS", "STATUS", "STATUS"), mServer.commands());
+    }
+
+    public void testNotDoneWhileStillProcessing() throws Exception {
+        mServer.pendFor(MediaUploader.MAX_STATUS_CHECKS + 1);
+        MediaUploader.Upload upload = new MediaUploader.Upload(FILE_SIZE, "image/png");
+        try {
+            newUploader().upload(mSigner, upload, mIn.getChannel(), null);
+            fail("upload finished before processing did");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(upload.isDone());
+        assertNull(upload.getMediaId());
+
+        // Trying again only checks on it, without finalizing twice
+        newUploader().upload(mSigner, upload, mIn.getChannel(), null);
+        assertTrue(upload.isDone());
+        List<String> commands = mServer.commands();
+        assertEquals(1, commands.size() - commands.lastIndexOf("STATUS"));
+        assertEquals(commands.indexOf("FINALIZE"), commands.lastIndexOf("FINALIZE"));
+        assertEquals(MediaUploader.MAX_STATUS_CHECKS + 2, commands.size() - commands.indexOf("STATUS"));
+    }
+
+    public void testClientErrorsAreNotRetried() throws Exception {
+        mServer.failSegment(0, 1, 400);
+        MediaUploader.Upload upload = new MediaUploader.Upload(FILE_SIZE, "image/png");
+        try {
+            newUploader().upload(mSigner, upload, mIn.getChannel(), null);
+            fail("upload should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(Arrays.asList("INIT", "APPEND 0 failed"), mServer.commands());
+        assertEquals(0, upload.getSent());
+    }
+
+    public void testEntityStreamsThroughSmallBuffer() throws Exception {
+        final int[] biggest = new int[1];
+        final long[] total = new long[1];
+        OutputStream counter = new OutputStream() {
+            @Override
+            public void write(int b) {
+                ++total[0];
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                biggest[0] = Math.max(biggest[0], len);
+                total[0] += len;
+            }
+        };
+        MultipartFileEntity entity = new MultipartFileEntity()
+            .addText("command", "APPEND")
+            .setFile("media", "media", "image/png", mIn.getChannel(), 100, FILE_SIZE - 100);
+        entity.writeTo(counter);
+        assertEquals(entity.getContentLength(), total[0]);
+        assertTrue("wrote " + biggest[0] + " at once", biggest[0] <= MultipartFileEntity.BUFFER_SIZE);
+        assertTrue(entity.isRepeatable());
+
+        // And again, the same
+        total[0] = 0;
+        entity.writeTo(counter);
+        assertEquals(entity.getContentLength(), total[0]);
+    }
+
+    public void testEntityContentMatchesWhatIsWritten() throws Exception {
+        MultipartFileEntity entity = new MultipartFileEntity("boundary")
+            .addText("command", "APPEND")
+            .setFile("media", "media", "image/png", mIn.getChannel(), 100, FILE_SIZE - 100);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        entity.writeTo(written);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        InputStream in = entity.getContent();
+        byte[] buffer = new byte[1000];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            read.write(buffer, 0, count);
+        }
+        in.close();
+        assertTrue(Arrays.equals(written.toByteArray(), read.toByteArray()));
+        assertEquals(entity.getContentLength(), read.size());
+        assertEquals(0, mIn.getChannel().position());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.bloa.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.data.ParallelStatusParser;
+import com.eyebrowssoftware.bloa.data.StatusParser;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * Parses a full page of statuses with more and more threads, and logs how it scales. Only the
+ * results are held to anything, since how many cores a test device really gives us varies.
+ */
+public class ParallelParseBenchmarkTestCase extends TestCase {
+    static final String TAG = ParallelParseBenchmarkTestCase.class.toString();
+
+    private static final int PAGE = 200;
+    private static final int RUNS = 7;
+
+    private static String page(int count) {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            // Each one different, and with the sort of text that trips up a naive scanner
+            sb.append(StatusPayloadTestCase.STATUS.replace("1234567890123", Long.toString(1000000L + i))
+                .replace("Trying out", "Trying {out} \\\"" + i + "\\\" [of]"));
+        }
+        return sb.append("\n]").toString();
+    }
+
+    public void testSlices() throws Exception {
+        int[] slices = ParallelStatusParser.slice(" [ {\"a\":\"}\\\"{\"} , {\"b\":[{},{}]} ] ");
+        assertEquals(4, slices.length);
+        assertEquals(3, slices[0]);
+        assertEquals(" [ {\"a\":\"}\\\"{\"}".length(), slices[1]);
+        assertEquals(0, ParallelStatusParser.slice("[]").length);
+        try {
+            ParallelStatusParser.slice("{\"errors\":[]}");
+            fail("sliced an object");
+        } catch (JSONException e) {
+            // expected
+        }
+        try {
+            ParallelStatusParser.slice("[{\"a\":1}");
+            fail("sliced an unterminated array");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    public void testSameAsSequential() throws Exception {
+        String body = page(PAGE);
+        JSONArray array = new JSONArray(body);
+        ContentValues[] parsed = new ParallelStatusParser(4).parse(body);
+        assertEquals(PAGE, parsed.length);
+        for (int i = 0; i < PAGE; ++i) {
+            ContentValues expected = StatusParser.parseTimelineJSONObject(array.getJSONObject(i));
+            assertEquals(expected.getAsLong(UserStatusRecord.STATUS_ID), parsed[i].getAsLong(UserStatusRecord.STATUS_ID));
+            assertEquals(expected.getAsString(UserStatusRecord.USER_TEXT), parsed[i].getAsString(UserStatusRecord.USER_TEXT));
+        }
+    }
+
+    public void testPiecesInOrder() throws Exception {
+        final String body = page(PAGE);
+        final int[] last = { 0 };
+        final int[] calls = { 0 };
+        ContentValues[] parsed = new ParallelStatusParser(4).parse(body, new ParallelStatusParser.Listener() {
+            @Override
+            public void onParsed(ContentValues[] values, int ready) {
+                assertEquals(PAGE, values.length);
+                assertTrue(ready > last[0]);
+                // Everything up to ready is there, and in page order
+                for (int i = last[0]; i < ready; ++i) {
+                    assertEquals(1000000L + i, (long) values[i].getAsLong(UserStatusRecord.STATUS_ID));
+                }
+                last[0] = ready;
+                ++calls[0];
+            }
+        });
+        assertEquals(PAGE, last[0]);
+        assertEquals(PAGE, parsed.length);
+        // The first piece comes well before the end of the page
+        assertTrue(calls[0] > 1);
+    }
+
+    public void testScaling() throws Exception {
+        String body = page(PAGE);
+        int cores = Runtime.getRuntime().availableProcessors();
+        long single = 0;
+        for (int threads = 1; threads <= Math.max(cores, 1); threads *= 2) {
+            ParallelStatusParser parser = new ParallelStatusParser(threads);
+            long[] times = new long[RUNS];
+            for (int run = 0; run < RUNS; ++run) {
+                long start = System.nanoTime();
+                assertEquals(PAGE, parser.parse(body).length);
+                times[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            long median = times[RUNS / 2];
+            if (threads == 1) {
+                single = median;
+            }
+            Log.i(TAG, threads + " of " + cores + " cores: " + median / 1000 + "us for " + PAGE
+                    + " statuses, " + String.format("%.2f", (double) single / median) + "x");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.bloa.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.Map;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import android.content.ContentValues;
+import android.test.ProviderTestCase2;
+import android.test.mock.MockContentResolver;
+
+import com.eyebrowssoftware.bloa.data.BloaProvider;
+import com.eyebrowssoftware.bloa.data.UserProfiles;
+import com.eyebrowssoftware.bloa.data.UserProfiles.UserProfile;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.net.Credentials;
+import com.eyebrowssoftware.bloa.net.ProfileCache;
+import com.eyebrowssoftware.bloa.net.RequestSigner;
+
+public class ProfileCacheTestCase extends ProviderTestCase2<BloaProvider> {
+
+    private static final long TTL_MS = 60 * 60 * 1000L;
+
+    /**
+     * Stands in for users/lookup. Answers with a profile for every id asked for, except 13, who
+     * doesn't exist, and counts the requests.
+     */
+    static class StandInServer extends Thread {
+        final ServerSocket mServer;
+        int mRequests = 0;
+        int mMostIds = 0;
+
+        StandInServer() throws IOException {
+            super("Stand in lookup");
+            mServer = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + mServer.getLocalPort() + "/1.1/users/lookup.json";
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mServer.accept();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    String request = in.readLine();
+                    String line;
+                    while ((line = in.readLine()) != null && line.length() > 0) {
+                        // Skip the request headers
+                    }
+                    String query = request.substring(request.indexOf("user_id=") + 8);
+                    query = URLDecoder.decode(query.substring(0, query.indexOf(' ')).split("&")[0], "UTF-8");
+                    String[] ids = query.split(",");
+                    StringBuilder body = new StringBuilder("[");
+                    for (String id : ids) {
+                        if (id.equals("13")) {
+                            continue;
+                        }
+                        if (body.length() > 1) {
+                            body.append(',');
+                        }
+                        body.append("{\"id\":").append(id).append(",\"name\":\"User ").append(id)
+                            .append("\",\"screen_name\":\"user").append(id).append("\",\"followers_count\":")
+                            .append(id).append('}');
+                    }
+                    body.append(']');
+                    byte[] bytes = body.toString().getBytes("UTF-8");
+                    synchronized (this) {
+                        ++mRequests;
+                        mMostIds = Math.max(mMostIds, ids.length);
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: "
+                            + bytes.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                    out.write(bytes);
+                    out.flush();
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Closed by the test
+            }
+        }
+
+        synchronized int requests() {
+            return mRequests;
+        }
+    }
+
+    MockContentResolver mCR;
+    StandInServer mServer;
+    RequestSigner mSigner = new RequestSigner(new Credentials("key", "secret", "token", "token_secret"));
+
+    public ProfileCacheTestCase() {
+        super(BloaProvider.class, BloaProvider.AUTHORITY);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mCR = this.getMockContentResolver();
+        mCR.addProvider(BloaProvider.AUTHORITY, this.getProvider());
+        mServer = new StandInServer();
+        mServer.start();
+    }
+
+    public void tearDown() throws Exception {
+        mServer.mServer.close();
+        mCR.delete(UserProfiles.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private ProfileCache newCache(long ttl) {
+        return new ProfileCache(mCR, new DefaultHttpClient(), mServer.url(), ttl);
+    }
+
+    private static long[] range(int first, int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; ++i) {
+            ids[i] = first + i;
+        }
+        return ids;
+    }
+
+    public void testBatchesLookups() {
+        ProfileCache cache = newCache(TTL_MS);
+        Map<Long, ContentValues> profiles = cache.getAll(mSigner, range(1, 250));
+        // Everybody but 13, in three requests of no more than a hundred
+        assertEquals(249, profiles.size());
+        assertEquals(3, mServer.requests());
+        assertEquals(ProfileCache.MAX_BATCH, mServer.mMostIds);
+        assertEquals("user42", profiles.get(42L).getAsString(UserProfile.SCREEN_NAME));
+        assertEquals(Integer.valueOf(42), profiles.get(42L).getAsInteger(UserProfile.FOLLOWERS_COUNT));
+
+        // From memory this time, apart from the one that wasn't there
+        profiles = cache.getAll(mSigner, range(1, 20));
+        assertEquals(19, profiles.size());
+        assertEquals(4, mServer.requests());
+    }
+
+    public void testUsersInPage() {
+        ContentValues[] page = new ContentValues[3];
+        for (int i = 0; i < page.length; ++i) {
+            page[i] = new ContentValues();
+            page[i].put(UserStatusRecord.RECORD_ID, i + 1);
+        }
+        // The second author twice, and mentions of an author and of two others
+        page[2].put(UserStatusRecord.RECORD_ID, 2);
+        page[0].put(UserStatusRecord.MENTION_IDS, "2,40,41");
+        ProfileCache cache = newCache(TTL_MS);
+        cache.getUsersIn(mSigner, page);
+        assertEquals(1, mServer.requests());
+        assertEquals(4, mServer.mMostIds);
+        assertNotNull(cache.peek(41));
+    }
+
+    public void testServesFromProvider() {
+        newCache(TTL_MS).getAll(mSigner, range(1, 10));
+        assertEquals(1, mServer.requests());
+        // A new cache has nothing in memory, but the profiles are on disk
+        ProfileCache cache = newCache(TTL_MS);
+        assertEquals("User 5", cache.get(mSigner, 5).getAsString(UserProfile.NAME));
+        assertEquals(5, cache.getAll(mSigner, range(1, 5)).size());
+        assertEquals(1, mServer.requests());
+        assertNotNull(cache.peek(7));
+        assertNull(cache.peek(70));
+    }
+
+    public void testStaleProfilesAreRefreshed() throws Exception {
+        ProfileCache cache = newCache(0);
+        cache.getAll(mSigner, range(1, 10));
+        Thread.sleep(5);
+        cache.getAll(mSigner, range(1, 10));
+        assertEquals(2, mServer.requests());
+
+        // And they're still there when the network isn't
+        mServer.mServer.close();
+        assertEquals(10, cache.getAll(mSigner, range(1, 10)).size());
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.bloa.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.ProviderTestCase2;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.BloaCommands;
+import com.eyebrowssoftware.bloa.data.BloaProvider;
+import com.eyebrowssoftware.bloa.data.StatusEntities;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * Runs the provider's main operations at 1k, 10k and 100k statuses, and fails when one of them
+ * takes longer or allocates more than its budget. Work that grows with the rows has a budget per
+ * row; work that shouldn't grow has a flat one. The budgets are for an emulator, well above what
+ * a device needs, so a failure means something got slower, not that the machine was busy.
+ *
+ * The 100k run is a LargeTest, so it can be left out of a quick run with -e size medium.
+ */
+public class ProviderScaleTestCase extends ProviderTestCase2<BloaProvider> {
+    static final String TAG = ProviderScaleTestCase.class.toString();
+
+    private static final int PAGE = 200;
+    private static final long FIRST_STATUS_ID = 300000000000000000L;
+    private static final String TAG_VALUE = "scale";
+
+    // Per row
+    private static final long INGEST_US = 2000;
+    private static final long INGEST_BYTES = 8 * 1024;
+    private static final long INSERT_US = 10000;
+    private static final long INSERT_BYTES = 4 * 1024;
+    private static final long SCAN_US = 500;
+    private static final long SCAN_BYTES = 1024;
+    private static final long TRIM_US = 2000;
+
+    // Flat, however many rows there are
+    private static final long OVERLAP_MS = 200;
+    private static final long ENTITY_PAGE_MS = 100;
+    private static final long CONVERSATION_MS = 50;
+    private static final long WIPE_MS = 1000;
+
+    // Each one's a transaction, so only this many however big the timeline is
+    private static final int MAX_INSERTS = 1000;
+    // Below the smallest run, so every run has something to trim
+    private static final int KEEP = 500;
+
+    private MockContentResolver mCR;
+
+    public ProviderScaleTestCase() {
+        super(BloaProvider.class, BloaProvider.AUTHORITY);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCR = getMockContentResolver();
+        mCR.addProvider(BloaProvider.AUTHORITY, getProvider());
+        Debug.startAllocCounting();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Debug.stopAllocCounting();
+        super.tearDown();
+    }
+
+    /**
+     * Adds up the time and allocations of what's between start() and stop(), leaving out whatever
+     * the test does in between to set up the next call.
+     */
+    private static class Meter {
+        final String mName;
+        final int mRows;
+        long mNanos = 0;
+        long mBytes = 0;
+        long mStartNanos;
+        long mStartBytes;
+
+        Meter(String name, int rows) {
+            mName = name;
+            mRows = Math.max(rows, 1);
+        }
+
+        void start() {
+            mStartBytes = Debug.getThreadAllocSize();
+            mStartNanos = System.nanoTime();
+        }
+
+        void stop() {
+            mNanos += System.nanoTime() - mStartNanos;
+            mBytes += Debug.getThreadAllocSize() - mStartBytes;
+        }
+
+        /**
+         * @param usPerRow the time budget for each row
+         * @param bytesPerRow the allocation budget for each row, or 0 for none
+         */
+        void check(long usPerRow, long bytesPerRow) {
+            long us = mNanos / 1000;
+            Log.i(TAG, mName + ": " + mRows + " rows in " + us / 1000 + "ms, " + us / mRows + "us and "
+                    + mBytes / mRows + " bytes a row");
+            assertTrue(mName + " took " + us / mRows + "us a row", us <= usPerRow * mRows);
+            // Counting isn't there on every runtime, and then everything is zero
+            if (bytesPerRow > 0 && mBytes > 0) {
+                assertTrue(mName + " allocated " + mBytes / mRows + " bytes a row", mBytes <= bytesPerRow * mRows);
+            }
+        }
+
+        void checkFlat(long ms) {
+            long us = mNanos / 1000;
+            Log.i(TAG, mName + ": " + us / 1000 + "ms");
+            assertTrue(mName + " took " + us / 1000 + "ms", us <= ms * 1000);
+        }
+    }
+
+    private static ContentValues newStatus(long statusId, int i) {
+        ContentValues v = new ContentValues();
+        v.put(UserStatusRecord.STATUS_ID, statusId);
+        v.put(UserStatusRecord.RECORD_ID, i % 500);
+        v.put(UserStatusRecord.USER_NAME, "User " + (i % 500));
+        v.put(UserStatusRecord.USER_TEXT, "Status " + i + " from @user" + (i % 50) + " about #"
+                + TAG_VALUE + " and http://example.com/" + i + ", with enough words to look like one");
+        v.put(UserStatusRecord.CREATED_DATE, statusId);
+        if (i % 10 == 0) {
+            v.put(UserStatusRecord.ENTITIES, StatusEntities.TYPE_HASHTAG + ":" + TAG_VALUE + "\n"
+                    + StatusEntities.TYPE_MENTION + ":user" + (i % 50));
+        } else {
+            v.put(UserStatusRecord.ENTITIES, StatusEntities.TYPE_MENTION + ":user" + (i % 50));
+        }
+        if (i % 4 == 1) {
+            // A reply to the one before, which comes after it in the page
+            v.put(UserStatusRecord.IN_REPLY_TO_STATUS_ID, statusId - 1);
+        }
+        return v;
+    }
+
+    // Newest first, the way they come
+    private static ContentValues[] page(int first) {
+        ContentValues[] page = new ContentValues[Math.min(PAGE, first + 1)];
+        for (int i = 0; i < page.length; ++i) {
+            page[i] = newStatus(FIRST_STATUS_ID + first - i, first - i);
+        }
+        return page;
+    }
+
+    private void runScale(int rows) {
+        String timeline = UserStatusRecords.TIMELINE_HOME;
+        Uri timelineUri = UserStatusRecords.timelineUri(timeline);
+
+        // The fetch path: a page at a time, oldest pages first so the newest end up on top
+        Meter ingest = new Meter(rows + " ingest", rows);
+        for (int first = PAGE - 1; first < rows + PAGE - 1; first += PAGE) {
+            ContentValues[] page = page(Math.min(first, rows - 1));
+            ingest.start();
+            BloaCommands.ingestPage(mCR, timeline, page, 0);
+            ingest.stop();
+        }
+        ingest.check(INGEST_US, INGEST_BYTES);
+
+        // A page we already have all of
+        ContentValues[] newest = page(rows - 1);
+        Meter overlap = new Meter(rows + " overlapping page", newest.length);
+        overlap.start();
+        assertEquals(newest.length, BloaCommands.ingestPage(mCR, timeline, newest, 0));
+        overlap.stop();
+        overlap.checkFlat(OVERLAP_MS);
+
+        // One status at a time through insert(), each its own transaction. They're newer than the
+        // timeline and not in it, so the trim sweeps them up
+        int inserts = Math.min(rows, MAX_INSERTS);
+        Meter insert = new Meter(rows + " single inserts", inserts);
+        for (int i = 0; i < inserts; ++i) {
+            ContentValues status = newStatus(FIRST_STATUS_ID + rows + i, i);
+            insert.start();
+            assertNotNull(mCR.insert(UserStatusRecords.CONTENT_URI, status));
+            insert.stop();
+        }
+        insert.check(INSERT_US, INSERT_BYTES);
+
+        // Everything the list would show, all the way down
+        Meter scan = new Meter(rows + " timeline scan", rows);
+        scan.start();
+        Cursor c = mCR.query(timelineUri, App.USER_TIMELINE_PROJECTION, App.USER_TIMELINE_QUERY_WHERE, null,
+                UserStatusRecord.DEFAULT_SORT_ORDER);
+        int count = 0;
+        long chars = 0;
+        while (c.moveToNext()) {
+            c.getLong(App.IDX_USER_TIMELINE_ID);
+            chars += c.getString(App.IDX_USER_TIMELINE_USER_NAME).length();
+            chars += c.getString(App.IDX_USER_TIMELINE_USER_TEXT).length();
+            c.getLong(App.IDX_USER_TIMELINE_CREATED_DATE);
+            ++count;
+        }
+        c.close();
+        scan.stop();
+        assertEquals(rows, count);
+        assertTrue(chars > 0);
+        scan.check(SCAN_US, SCAN_BYTES);
+
+        // Pages out of the middle cost the same as pages off the top
+        Meter entityPage = new Meter(rows + " entity page", 1);
+        entityPage.start();
+        c = mCR.query(StatusEntities.entityPageUri(StatusEntities.TYPE_HASHTAG, TAG_VALUE,
+                FIRST_STATUS_ID + rows / 2, 50), new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+        int entities = c.getCount();
+        c.close();
+        entityPage.stop();
+        assertTrue(entities > 0);
+        entityPage.checkFlat(ENTITY_PAGE_MS);
+
+        Meter conversation = new Meter(rows + " conversation", 1);
+        conversation.start();
+        c = mCR.query(UserStatusRecords.conversationUri(FIRST_STATUS_ID + rows / 2 + 1),
+                new String[] { UserStatusRecord.STATUS_ID }, null, null, null);
+        assertTrue(c.getCount() > 0);
+        c.close();
+        conversation.stop();
+        conversation.checkFlat(CONVERSATION_MS);
+
+        // Down to what we keep, and the statuses and entities that go with them. The orphan sweep
+        // reads every row, so the budget is on all of them, not just the ones dropped
+        Meter trim = new Meter(rows + " trim", rows);
+        trim.start();
+        assertEquals(rows - KEEP, mCR.delete(timelineUri.buildUpon().appendQueryParameter(
+                BloaCommands.KEEP_PARAMETER, String.valueOf(KEEP)).build(), null, null));
+        trim.stop();
+        trim.check(TRIM_US, 0);
+
+        Meter delete = new Meter(rows + " delete timeline", KEEP);
+        delete.start();
+        assertEquals(KEEP, mCR.delete(timelineUri, null, null));
+        delete.stop();
+        delete.check(TRIM_US, 0);
+
+        Meter wipe = new Meter(rows + " wipe", 1);
+        wipe.start();
+        BloaCommands.wipe(mCR);
+        wipe.stop();
+        wipe.checkFlat(WIPE_MS);
+    }
+
+    @MediumTest
+    public void testOneThousand() {
+        runScale(1000);
+    }
+
+    @MediumTest
+    public void testTenThousand() {
+        runScale(10000);
+    }
+
+    @LargeTest
+    public void testOneHundredThousand() {
+        runScale(100000);
+    }
+}
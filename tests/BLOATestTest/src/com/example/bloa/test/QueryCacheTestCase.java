@@ -0,0 +1,116 @@
+package com.example.bloa.test;
+
+import junit.framework.TestCase;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.eyebrowssoftware.bloa.data.QueryCache;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+
+public class QueryCacheTestCase extends TestCase {
+    static final String TAG = QueryCacheTestCase.class.toString();
+
+    private static final String[] COLUMNS = { "status_id", "user_text" };
+
+    private static Cursor rows(int count) {
+        MatrixCursor c = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < count; ++i) {
+            c.addRow(new Object[] { Long.valueOf(i), "status " + i });
+        }
+        return c;
+    }
+
+    private static String key(String account, String selection) {
+        return QueryCache.key(account, UserStatusRecords.CONTENT_URI, COLUMNS, selection, null, null);
+    }
+
+    @Override
+    public void runTest() throws Throwable {
+        // Before Honeycomb only database cursors can be copied
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            Log.i(TAG, "No Cursor.getType() before Honeycomb, skipping");
+            return;
+        }
+        super.runTest();
+    }
+
+    public void testHitIsACopy() {
+        QueryCache cache = new QueryCache();
+        String key = key("1", "a");
+        assertNull(cache.get(key));
+        Cursor copy = cache.put(cache.getGeneration(), key, "1", QueryCache.LATEST, rows(2));
+        assertNotNull(copy);
+        assertEquals(2, copy.getCount());
+        copy.close();
+        Cursor first = cache.get(key);
+        Cursor second = cache.get(key);
+        assertNotSame(first, second);
+        assertTrue(first.moveToLast());
+        assertEquals(1, first.getLong(0));
+        assertEquals("status 1", first.getString(1));
+        first.close();
+        // Closing one doesn't hurt the other
+        assertTrue(second.moveToFirst());
+        assertEquals("status 0", second.getString(1));
+        second.close();
+    }
+
+    public void testInvalidatesByRegionAndAccount() {
+        QueryCache cache = new QueryCache();
+        cache.put(cache.getGeneration(), key("1", "latest"), "1", QueryCache.LATEST, rows(1)).close();
+        cache.put(cache.getGeneration(), key("1", "statuses"), "1", QueryCache.STATUSES, rows(1)).close();
+        cache.put(cache.getGeneration(), key("2", "statuses"), "2", QueryCache.STATUSES, rows(1)).close();
+        cache.invalidate("1", QueryCache.STATUSES | QueryCache.TIMELINES);
+        assertNotNull(cache.get(key("1", "latest")));
+        assertNull(cache.get(key("1", "statuses")));
+        assertNotNull(cache.get(key("2", "statuses")));
+    }
+
+    public void testNoPutAfterInvalidate() {
+        QueryCache cache = new QueryCache();
+        long generation = cache.getGeneration();
+        // A write lands while the query is running
+        cache.invalidate("1", QueryCache.LATEST);
+        Cursor c = cache.put(generation, key("1", "a"), "1", QueryCache.LATEST, rows(1));
+        assertNotNull(c);
+        c.close();
+        assertNull(cache.get(key("1", "a")));
+    }
+
+    public void testOnlySmallResults() {
+        QueryCache cache = new QueryCache();
+        Cursor big = rows(QueryCache.MAX_ROWS + 1);
+        assertNull(cache.put(cache.getGeneration(), key("1", "big"), "1", QueryCache.STATUSES, big));
+        // Left for the caller, at the start
+        assertFalse(big.isClosed());
+        assertEquals(-1, big.getPosition());
+        big.close();
+        assertNull(cache.get(key("1", "big")));
+    }
+
+    public void testBoundedByBytes() {
+        QueryCache cache = new QueryCache(4096);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(cache.getGeneration(), key("1", "q" + i), "1", QueryCache.STATUSES, rows(10)).close();
+        }
+        assertTrue(cache.size() <= 4096);
+        // The newest is still there, the oldest long gone
+        assertNotNull(cache.get(key("1", "q99")));
+        assertNull(cache.get(key("1", "q0")));
+    }
+
+    public void testKeysDiffer() {
+        Uri uri = UserStatusRecords.CONTENT_URI;
+        String[] projection = { "a", "b" };
+        String base = QueryCache.key("1", uri, projection, "x=?", new String[] { "1" }, null);
+        assertFalse(base.equals(QueryCache.key("2", uri, projection, "x=?", new String[] { "1" }, null)));
+        assertFalse(base.equals(QueryCache.key("1", uri, projection, "x=?", new String[] { "2" }, null)));
+        assertFalse(base.equals(QueryCache.key("1", uri, projection, "x=?", new String[] { "1" }, "a DESC")));
+        assertFalse(base.equals(QueryCache.key("1", uri, new String[] { "a" }, "x=?", new String[] { "1" }, null)));
+        assertEquals(base, QueryCache.key("1", uri, projection, "x=?", new String[] { "1" }, null));
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.bloa.test;
+
+import junit.framework.TestCase;
+
+import com.eyebrowssoftware.bloa.net.RateLimit;
+
+public class RateLimitTestCase extends TestCase {
+    static final String TAG = RateLimitTestCase.class.toString();
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    public void testUnknownAllowsEverything() throws Exception {
+        RateLimit limit = new RateLimit();
+        for (int i = 0; i < 100; ++i) {
+            limit.acquire(true);
+        }
+        assertEquals(-1, limit.getRemaining());
+    }
+
+    public void testBackgroundLeavesReserve() throws Exception {
+        RateLimit limit = new RateLimit(2);
+        limit.update(3, System.currentTimeMillis() + HOUR);
+        limit.acquire(true);
+        try {
+            limit.acquire(true);
+            fail("background request took the reserve");
+        } catch (RateLimit.ExceededException e) {
+            // expected
+        }
+        limit.acquire(false);
+        limit.acquire(false);
+        try {
+            limit.acquire(false);
+            fail("request over the limit");
+        } catch (RateLimit.ExceededException e) {
+            // expected
+        }
+    }
+
+    public void testNewWindowResets() throws Exception {
+        RateLimit limit = new RateLimit();
+        limit.update(0, System.currentTimeMillis() - 1);
+        limit.acquire(true);
+        assertEquals(-1, limit.getRemaining());
+    }
+}
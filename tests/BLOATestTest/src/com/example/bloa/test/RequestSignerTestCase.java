@@ -0,0 +1,60 @@
+package com.example.bloa.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.methods.HttpGet;
+
+import com.eyebrowssoftware.bloa.net.Credentials;
+import com.eyebrowssoftware.bloa.net.RequestSigner;
+
+public class RequestSignerTestCase extends TestCase {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS = 200;
+
+    public void testSignsWithToken() throws Exception {
+        RequestSigner signer = new RequestSigner(new Credentials("key", "secret", "token", "token_secret"));
+        HttpGet get = signer.sign(new HttpGet("https://api.twitter.com/1.1/statuses/home_timeline.json"));
+        String header = get.getFirstHeader("Authorization").getValue();
+        assertTrue(header.contains("oauth_consumer_key=\"key\""));
+        assertTrue(header.contains("oauth_token=\"token\""));
+    }
+
+    public void testSnapshotsDontChange() throws Exception {
+        Credentials app = new Credentials("key", "secret", null, null);
+        Credentials user = app.withToken("token", "token_secret");
+        assertFalse(app.hasToken());
+        assertTrue(user.hasToken());
+        assertNull(app.getToken());
+    }
+
+    // Two signers with different tokens used from many threads at once must never mix them up
+    public void testConcurrentSigning() throws Exception {
+        final RequestSigner one = new RequestSigner(new Credentials("key", "secret", "one", "s1"));
+        final RequestSigner two = new RequestSigner(new Credentials("key", "secret", "two", "s2"));
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < REQUESTS; ++i) {
+            final RequestSigner signer = (i % 2 == 0) ? one : two;
+            final String token = (i % 2 == 0) ? "one" : "two";
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    HttpGet get = signer.sign(new HttpGet("https://api.twitter.com/1.1/account/verify_credentials.json"));
+                    return get.getFirstHeader("Authorization").getValue().contains("oauth_token=\"" + token + "\"");
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.bloa.test;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.eyebrowssoftware.bloa.data.StatusEntities;
+
+public class StatusEntitiesTestCase extends TestCase {
+
+    public void testNormalize() {
+        assertEquals("android", StatusEntities.normalize(StatusEntities.TYPE_HASHTAG, "#Android"));
+        assertEquals("brion", StatusEntities.normalize(StatusEntities.TYPE_MENTION, "@Brion"));
+        assertEquals("http://example.com/A", StatusEntities.normalize(StatusEntities.TYPE_URL, "http://example.com/A/"));
+    }
+
+    public void testParseAndUnpack() throws Exception {
+        JSONObject status = new JSONObject("{\"id\":1,\"entities\":{"
+            + "\"hashtags\":[{\"text\":\"BLOA\"},{\"text\":\"oauth\"}],"
+            + "\"user_mentions\":[{\"screen_name\":\"Brion\",\"id\":42}],"
+            + "\"urls\":[{\"url\":\"http://t.co/x\",\"expanded_url\":\"http://example.com/\"},{\"url\":\"http://t.co/y\",\"expanded_url\":null}]}}");
+        List<String[]> entities = StatusEntities.unpack(StatusEntities.parse(status));
+        assertEquals(4, entities.size());
+        assertEquals(StatusEntities.TYPE_HASHTAG, entities.get(0)[0]);
+        assertEquals("bloa", entities.get(0)[1]);
+        assertEquals("oauth", entities.get(1)[1]);
+        assertEquals(StatusEntities.TYPE_MENTION, entities.get(2)[0]);
+        assertEquals("brion", entities.get(2)[1]);
+        assertEquals(StatusEntities.TYPE_URL, entities.get(3)[0]);
+        assertEquals("http://example.com", entities.get(3)[1]);
+    }
+
+    public void testMentionIds() throws Exception {
+        JSONObject status = new JSONObject("{\"id\":1,\"entities\":{"
+            + "\"user_mentions\":[{\"screen_name\":\"Brion\",\"id\":42},{\"screen_name\":\"x\"},{\"id\":7}]}}");
+        assertEquals("42,7", StatusEntities.parseMentionIds(status));
+        assertNull(StatusEntities.parseMentionIds(new JSONObject("{\"id\":1}")));
+    }
+
+    public void testNoEntities() throws Exception {
+        assertNull(StatusEntities.parse(new JSONObject("{\"id\":1}")));
+        assertNull(StatusEntities.parse(new JSONObject("{\"id\":1,\"entities\":{\"hashtags\":[]}}")));
+        assertTrue(StatusEntities.unpack(null).isEmpty());
+    }
+}
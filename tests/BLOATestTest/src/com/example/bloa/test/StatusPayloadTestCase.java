@@ -0,0 +1,67 @@
+package com.example.bloa.test;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.eyebrowssoftware.bloa.data.StatusPayload;
+
+public class StatusPayloadTestCase extends TestCase {
+
+    static final String STATUS = "{\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\",\"id\":1234567890123,"
+        + "\"id_str\":\"1234567890123\",\"text\":\"Trying out the payload column #bloa http:\\/\\/t.co\\/abc\","
+        + "\"source\":\"<a href=\\\"http:\\/\\/example.com\\\" rel=\\\"nofollow\\\">BLOA<\\/a>\",\"truncated\":false,"
+        + "\"in_reply_to_status_id\":null,\"in_reply_to_status_id_str\":null,\"in_reply_to_user_id\":null,"
+        + "\"in_reply_to_user_id_str\":null,\"in_reply_to_screen_name\":null,\"user\":{\"id\":42,\"id_str\":\"42\","
+        + "\"name\":\"Brion\",\"screen_name\":\"brion\",\"location\":\"\",\"description\":\"Learns OAuth\","
+        + "\"url\":null,\"entities\":{\"description\":{\"urls\":[]}},\"protected\":false,\"followers_count\":100,"
+        + "\"friends_count\":50,\"listed_count\":2,\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\","
+        + "\"favourites_count\":3,\"utc_offset\":null,\"time_zone\":null,\"geo_enabled\":false,\"verified\":false,"
+        + "\"statuses_count\":1000,\"lang\":\"en\",\"contributors_enabled\":false,\"is_translator\":false,"
+        + "\"profile_background_color\":\"C0DEED\",\"profile_image_url\":\"http:\\/\\/pbs.twimg.com\\/profile_images\\/1\\/a.png\","
+        + "\"profile_image_url_https\":\"https:\\/\\/pbs.twimg.com\\/profile_images\\/1\\/a.png\","
+        + "\"default_profile\":false,\"default_profile_image\":false,\"following\":null,"
+        + "\"follow_request_sent\":null,\"notifications\":null},\"geo\":null,\"coordinates\":{\"type\":\"Point\","
+        + "\"coordinates\":[-122.4,37.8]},\"place\":null,\"contributors\":null,\"retweet_count\":7,"
+        + "\"favorite_count\":3,\"entities\":{\"hashtags\":[{\"text\":\"bloa\",\"indices\":[30,35]}],\"symbols\":[],"
+        + "\"urls\":[{\"url\":\"http:\\/\\/t.co\\/abc\",\"expanded_url\":\"http:\\/\\/example.com\","
+        + "\"display_url\":\"example.com\",\"indices\":[36,54]}],\"user_mentions\":[]},\"favorited\":false,"
+        + "\"retweeted\":false,\"possibly_sensitive\":false,\"lang\":\"en\"}";
+
+    public void testRoundTrip() throws Exception {
+        byte[] payload = StatusPayload.compress(STATUS);
+        assertEquals(STATUS, StatusPayload.decompress(payload));
+        // Mostly boilerplate the dictionary already knows
+        assertTrue("payload " + payload.length + " of " + STATUS.length(), payload.length < STATUS.length() / 3);
+    }
+
+    public void testFields() throws Exception {
+        String[] fields = StatusPayload.getFields(StatusPayload.compress(STATUS),
+            new String[] { "retweet_count", "user.screen_name", "coordinates.type", "place", "no.such.field" });
+        assertEquals("7", fields[0]);
+        assertEquals("brion", fields[1]);
+        assertEquals("Point", fields[2]);
+        assertNull(fields[3]);
+        assertNull(fields[4]);
+        assertEquals("[-122.4,37.8]", StatusPayload.getField(new JSONObject(STATUS).getJSONObject("coordinates"),
+            "coordinates"));
+    }
+
+    public void testRejectsGarbage() {
+        try {
+            StatusPayload.decompress(new byte[] { 9, 1, 2, 3 });
+            fail("decoded garbage");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        byte[] payload = StatusPayload.compress(STATUS);
+        byte[] truncated = new byte[payload.length / 2];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        try {
+            StatusPayload.decompress(truncated);
+            fail("decoded a truncated payload");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
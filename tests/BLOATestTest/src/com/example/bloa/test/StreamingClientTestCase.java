@@ -0,0 +1,162 @@
+package com.example.bloa.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+import com.eyebrowssoftware.bloa.net.Credentials;
+import com.eyebrowssoftware.bloa.net.RequestSigner;
+import com.eyebrowssoftware.bloa.net.StreamingClient;
+
+public class StreamingClientTestCase extends TestCase {
+
+    private static final long BATCH_MS = 50;
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    /**
+     * Stands in for the streaming service. The first connection gets a keep alive, three statuses
+     * and a delete notice, and is then dropped. Later connections get two more statuses and are held
+     * open until we stop.
+     */
+    static class StandInServer extends Thread {
+        final ServerSocket mServer;
+        final List<Socket> mSockets = new ArrayList<Socket>();
+        int mAccepted = 0;
+
+        StandInServer() throws IOException {
+            super("Stand in stream");
+            mServer = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + mServer.getLocalPort() + "/1.1/user.json?delimited=length";
+        }
+
+        static String status(long id) {
+            return "{\"id\":" + id + ",\"text\":\"status " + id + "\","
+                + "\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\","
+                + "\"user\":{\"id\":42,\"name\":\"Stand In\"}}";
+        }
+
+        static void send(OutputStream out, String message) throws IOException {
+            byte[] bytes = message.getBytes("UTF-8");
+            out.write((bytes.length + "\r\n").getBytes("US-ASCII"));
+            out.write(bytes);
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mServer.accept();
+                    synchronized (this) {
+                        mSockets.add(socket);
+                        ++mAccepted;
+                    }
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    String line;
+                    while ((line = in.readLine()) != null && line.length() > 0) {
+                        // Skip the request headers
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+                            + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                    out.write("\r\n".getBytes("US-ASCII"));
+                    if (mAccepted == 1) {
+                        send(out, status(1));
+                        send(out, status(2));
+                        send(out, "{\"delete\":{\"status\":{\"id\":1}}}");
+                        send(out, status(3));
+                        socket.close();
+                    } else {
+                        send(out, status(4));
+                        send(out, status(5));
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by the test
+            }
+        }
+
+        synchronized void shutdown() throws IOException {
+            mServer.close();
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+    }
+
+    static class CollectingSink implements StreamingClient.Sink {
+        final List<ContentValues> mStatuses = new ArrayList<ContentValues>();
+        int mBatches = 0;
+
+        @Override
+        public synchronized void onStatuses(ContentValues[] statuses) {
+            ++mBatches;
+            for (ContentValues v : statuses) {
+                mStatuses.add(v);
+            }
+            notifyAll();
+        }
+
+        synchronized boolean waitFor(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT_MS;
+            while (mStatuses.size() < count && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            return mStatuses.size() >= count;
+        }
+    }
+
+    public void testStreamBatchesAndReconnects() throws Exception {
+        StandInServer server = new StandInServer();
+        server.start();
+        CollectingSink sink = new CollectingSink();
+        RequestSigner signer = new RequestSigner(new Credentials("key", "secret", "token", "token_secret"));
+        StreamingClient client = new StreamingClient(Uri.parse(server.url()), signer, sink, BATCH_MS, 10, 100);
+        try {
+            client.start();
+            assertTrue(sink.waitFor(5));
+        } finally {
+            client.stop();
+            server.shutdown();
+        }
+        assertFalse(client.isRunning());
+        // The delete notice isn't a status
+        assertEquals(5, sink.mStatuses.size());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Long.valueOf(i + 1), sink.mStatuses.get(i).getAsLong(UserStatusRecord.STATUS_ID));
+        }
+        assertTrue(sink.mBatches <= 5);
+        assertTrue(client.getConnectionCount() >= 2);
+    }
+
+    public void testStopWithoutServer() throws Exception {
+        // Nothing listening - the client just keeps backing off until we stop it
+        ServerSocket unused = new ServerSocket(0);
+        int port = unused.getLocalPort();
+        unused.close();
+        CollectingSink sink = new CollectingSink();
+        RequestSigner signer = new RequestSigner(new Credentials("key", "secret", "token", "token_secret"));
+        StreamingClient client = new StreamingClient(Uri.parse("http://127.0.0.1:" + port + "/"), signer, sink,
+                BATCH_MS, 10, 40);
+        client.start();
+        Thread.sleep(300);
+        client.stop();
+        assertFalse(client.isRunning());
+        assertTrue(client.getConnectionCount() > 1);
+        assertEquals(0, sink.mStatuses.size());
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.bloa.test;
+
+import java.util.Arrays;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.v4.app.ListFragment;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.ListView;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.R;
+import com.eyebrowssoftware.bloa.TokenStore;
+import com.eyebrowssoftware.bloa.activities.BloaActivity;
+import com.eyebrowssoftware.bloa.data.BloaCommands;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+/**
+ * Flings through a long cached timeline and measures the time between frames. Needs Jelly Bean
+ * for Choreographer; on anything older it just logs that it was skipped.
+ *
+ * The rows go in a benchmark account's database of their own, which is selected for the run and
+ * wiped afterwards, so whatever the installed app has stored is never touched. If somebody is
+ * logged in, the activity would switch back to their account, so it's skipped then as well.
+ */
+public class TimelineScrollBenchmarkTestCase extends ActivityInstrumentationTestCase2<BloaActivity> {
+    static final String TAG = TimelineScrollBenchmarkTestCase.class.toString();
+
+    private static final int ROWS = 1000;
+    private static final long FIRST_STATUS_ID = 7000000000L;
+    private static final long SCROLL_MS = 4000;
+    private static final int MAX_FRAMES = 1000;
+    private static final long FRAME_NANOS = 16666667L;
+
+    // Not a user id, so never a real account
+    private static final String BENCH_ACCOUNT = "bench";
+
+    private ContentResolver mCR;
+    private TokenStore mTokenStore;
+    private boolean mLoggedIn;
+
+    public TimelineScrollBenchmarkTestCase() {
+        super(BloaActivity.class);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCR = getInstrumentation().getTargetContext().getContentResolver();
+        mTokenStore = ((App) getInstrumentation().getTargetContext().getApplicationContext()).getTokenStore();
+        mLoggedIn = mTokenStore.hasAuthInformation();
+        if (mLoggedIn) {
+            return;
+        }
+        ContentValues[] values = new ContentValues[ROWS];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ROWS; ++i) {
+            values[i] = new ContentValues();
+            values[i].put(UserStatusRecord.STATUS_ID, FIRST_STATUS_ID + i);
+            values[i].put(UserStatusRecord.USER_NAME, "User " + (i % 37));
+            values[i].put(UserStatusRecord.RECORD_ID, i % 37);
+            values[i].put(UserStatusRecord.USER_CREATED_DATE, "Wed Aug 27 13:08:45 +0000 2008");
+            values[i].put(UserStatusRecord.CREATED_DATE, now - i * 45000L);
+            values[i].put(UserStatusRecord.USER_TEXT, "Status " + i + " from @user" + (i % 37)
+                    + " about #bench and http://example.com/" + i + " with a bit more text to wrap");
+        }
+        mCR.bulkInsert(UserStatusRecords.forAccount(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME),
+                BENCH_ACCOUNT), values);
+        BloaCommands.selectAccount(mCR, BENCH_ACCOUNT);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (!mLoggedIn) {
+            BloaCommands.selectAccount(mCR, mTokenStore.getCurrentAccount());
+            BloaCommands.wipe(mCR, BENCH_ACCOUNT);
+        }
+        super.tearDown();
+    }
+
+    public void testScrollFrameTimes() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.i(TAG, "No Choreographer before Jelly Bean, skipping");
+            return;
+        }
+        if (mLoggedIn) {
+            Log.i(TAG, "Logged in, so the activity would show that account; skipping");
+            return;
+        }
+        final ListView list = ((ListFragment) getActivity().getSupportFragmentManager()
+                .findFragmentById(R.id.list_fragment)).getListView();
+        long deadline = SystemClock.uptimeMillis() + 10000;
+        while (list.getCount() < ROWS && SystemClock.uptimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue("only " + list.getCount() + " rows loaded", list.getCount() >= ROWS);
+
+        FrameRecorder recorder = new FrameRecorder();
+        recorder.start(getInstrumentation());
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list.smoothScrollToPosition(list.getCount() - 1);
+            }
+        });
+        Thread.sleep(SCROLL_MS);
+        long[] intervals = recorder.stop(getInstrumentation());
+
+        assertTrue("only " + intervals.length + " frames", intervals.length > 10);
+        Arrays.sort(intervals);
+        long median = intervals[intervals.length / 2];
+        long p90 = intervals[intervals.length * 9 / 10];
+        int janky = 0;
+        for (long interval : intervals) {
+            if (interval > FRAME_NANOS * 3 / 2) {
+                ++janky;
+            }
+        }
+        Log.i(TAG, "frames " + intervals.length + ", median " + median / 1000 + "us, 90th "
+                + p90 / 1000 + "us, janky " + janky);
+        // Emulators and busy test devices are noisy, so only hold the typical frame to 60fps
+        assertTrue("median frame " + median / 1000 + "us", median <= FRAME_NANOS * 3 / 2);
+    }
+
+    static class FrameRecorder implements Choreographer.FrameCallback {
+        final long[] mIntervals = new long[MAX_FRAMES];
+        int mCount = 0;
+        long mLast = 0;
+        volatile boolean mRunning;
+
+        void start(android.app.Instrumentation instrumentation) {
+            mRunning = true;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(FrameRecorder.this);
+                }
+            });
+        }
+
+        long[] stop(android.app.Instrumentation instrumentation) {
+            mRunning = false;
+            final long[][] result = new long[1][];
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    result[0] = Arrays.copyOf(mIntervals, mCount);
+                }
+            });
+            return result[0];
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mLast != 0 && mCount < MAX_FRAMES) {
+                mIntervals[mCount++] = frameTimeNanos - mLast;
+            }
+            mLast = frameTimeNanos;
+            if (mRunning) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+}
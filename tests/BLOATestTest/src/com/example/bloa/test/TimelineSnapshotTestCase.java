@@ -0,0 +1,125 @@
+package com.example.bloa.test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.ProviderTestCase2;
+import android.test.mock.MockContentResolver;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.data.BloaProvider;
+import com.eyebrowssoftware.bloa.data.TimelineSnapshot;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords;
+import com.eyebrowssoftware.bloa.data.UserStatusRecords.UserStatusRecord;
+
+public class TimelineSnapshotTestCase extends ProviderTestCase2<BloaProvider> {
+
+    MockContentResolver mCR;
+    File mDir;
+
+    public TimelineSnapshotTestCase() {
+        super(BloaProvider.class, BloaProvider.AUTHORITY);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mCR = this.getMockContentResolver();
+        mCR.addProvider(BloaProvider.AUTHORITY, this.getProvider());
+        mDir = this.getContext().getDir("snapshot_test", 0);
+        TimelineSnapshot.delete(mDir);
+    }
+
+    public void tearDown() throws Exception {
+        TimelineSnapshot.delete(mDir);
+        super.tearDown();
+    }
+
+    private void insert(int id, long created, boolean latest) {
+        ContentValues v = new ContentValues();
+        v.put(UserStatusRecord.RECORD_ID, id);
+        v.put(UserStatusRecord.USER_NAME, UserStatusRecord.USER_NAME + id);
+        v.put(UserStatusRecord.USER_TEXT, UserStatusRecord.USER_TEXT + id + " \u2603");
+        v.put(UserStatusRecord.USER_CREATED_DATE, String.valueOf(created));
+        v.put(UserStatusRecord.CREATED_DATE, created);
+        if (latest) {
+            v.put(UserStatusRecord.LATEST_STATUS, "true");
+            mCR.insert(UserStatusRecords.CONTENT_URI, v);
+        } else {
+            v.put(UserStatusRecord.STATUS_ID, id);
+            mCR.bulkInsert(UserStatusRecords.timelineUri(UserStatusRecords.TIMELINE_HOME), new ContentValues[] { v });
+        }
+    }
+
+    public void testNoSnapshot() {
+        assertNull(TimelineSnapshot.read(mDir));
+    }
+
+    public void testRoundTrip() {
+        insert(0, 1000, true);
+        for (int i = 1; i <= TimelineSnapshot.FIRST_SCREEN_ROWS + 5; ++i) {
+            insert(i, 1000 + i, false);
+        }
+        TimelineSnapshot.write(mDir, mCR);
+
+        TimelineSnapshot snapshot = TimelineSnapshot.read(mDir);
+        assertNotNull(snapshot);
+        assertEquals(UserStatusRecord.USER_NAME + 0, snapshot.getUserName());
+        assertEquals(UserStatusRecord.USER_TEXT + 0 + " \u2603", snapshot.getUserText());
+        Cursor c = snapshot.getTimeline();
+        assertEquals(TimelineSnapshot.FIRST_SCREEN_ROWS, c.getCount());
+        assertEquals(App.USER_TIMELINE_PROJECTION.length, c.getColumnCount());
+        assertTrue(c.moveToFirst());
+        // Newest first, like the real query
+        int newest = TimelineSnapshot.FIRST_SCREEN_ROWS + 5;
+        assertEquals(UserStatusRecord.USER_NAME + newest, c.getString(App.IDX_USER_TIMELINE_USER_NAME));
+        assertEquals(1000 + newest, c.getLong(App.IDX_USER_TIMELINE_CREATED_DATE));
+        c.close();
+    }
+
+    // Overwrites the snapshot with a header and then whatever's given
+    private void corrupt(boolean latest, int... ints) throws IOException {
+        File[] files = mDir.listFiles();
+        assertEquals(1, files.length);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(files[0]));
+        try {
+            out.writeInt(0x426c6f61);
+            out.writeInt(2);
+            out.writeByte(latest ? 1 : 0);
+            for (int i : ints) {
+                out.writeInt(i);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testBadRowCount() throws Exception {
+        insert(1, 1000, false);
+        TimelineSnapshot.write(mDir, mCR);
+        corrupt(false, Integer.MAX_VALUE);
+        assertNull(TimelineSnapshot.read(mDir));
+        corrupt(false, -2);
+        assertNull(TimelineSnapshot.read(mDir));
+    }
+
+    public void testBadStringLength() throws Exception {
+        insert(1, 1000, false);
+        TimelineSnapshot.write(mDir, mCR);
+        corrupt(true, Integer.MAX_VALUE);
+        assertNull(TimelineSnapshot.read(mDir));
+        corrupt(true, -5);
+        assertNull(TimelineSnapshot.read(mDir));
+    }
+
+    public void testDelete() {
+        insert(1, 1000, false);
+        TimelineSnapshot.write(mDir, mCR);
+        assertNotNull(TimelineSnapshot.read(mDir));
+        TimelineSnapshot.delete(mDir);
+        assertNull(TimelineSnapshot.read(mDir));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.bloa.test;
+
+import java.io.File;
+
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.eyebrowssoftware.bloa.App;
+import com.eyebrowssoftware.bloa.TokenStore;
+
+public class TokenStoreTestCase extends AndroidTestCase {
+
+    File mDir;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        mDir = this.getContext().getDir("token_store_test", 0);
+        for (File f : mDir.listFiles()) {
+            f.delete();
+        }
+    }
+
+    public void tearDown() throws Exception {
+        for (File f : mDir.listFiles()) {
+            f.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testEmpty() {
+        TokenStore store = new TokenStore(mDir);
+        store.load(null);
+        assertFalse(store.hasAuthInformation());
+        assertNull(store.getUserToken());
+        assertNull(store.getRequestToken());
+    }
+
+    public void testRunWhenLoaded() {
+        TokenStore store = new TokenStore(mDir);
+        final int[] runs = new int[1];
+        Runnable counter = new Runnable() {
+            @Override
+            public void run() {
+                ++runs[0];
+            }
+        };
+        // Waits for the load rather than blocking
+        assertFalse(store.isLoaded());
+        store.runWhenLoaded(counter);
+        assertEquals(0, runs[0]);
+        store.load(null);
+        assertTrue(store.isLoaded());
+        assertEquals(1, runs[0]);
+        // After that, right away
+        store.runWhenLoaded(counter);
+        assertEquals(2, runs[0]);
+    }
+
+    public void testSaveIsVisibleImmediately() {
+        TokenStore store = new TokenStore(mDir);
+        store.load(null);
+        store.saveAuthInformation("token", "secret");
+        assertTrue(store.hasAuthInformation());
+        assertEquals("token", store.getUserToken());
+        assertEquals("secret", store.getUserSecret());
+    }
+
+    public void testSaveSurvivesReload() throws Exception {
+        TokenStore store = new TokenStore(mDir);
+        store.load(null);
+        store.saveAuthInformation("token", "secret");
+        store.saveRequestInformation("request", "request_secret");
+        store.flush();
+
+        TokenStore reloaded = new TokenStore(mDir);
+        reloaded.load(null);
+        assertEquals("token", reloaded.getUserToken());
+        assertEquals("secret", reloaded.getUserSecret());
+        assertEquals("request", reloaded.getRequestToken());
+        assertEquals("request_secret", reloaded.getRequestSecret());
+        // Only the real file is left behind
+        assertEquals(1, mDir.listFiles().length);
+    }
+
+    public void testClear() throws Exception {
+        TokenStore store = new TokenStore(mDir);
+        store.load(null);
+        store.saveAuthInformation("token", "secret");
+        store.saveAuthInformation(null, null);
+        store.flush();
+        assertFalse(store.hasAuthInformation());
+
+        TokenStore reloaded = new TokenStore(mDir);
+        reloaded.load(null);
+        assertFalse(reloaded.hasAuthInformation());
+    }
+
+    public void testAccounts() throws Exception {
+        TokenStore store = new TokenStore(mDir);
+        store.load(null);
+        String first = store.addAccount("100-token", "secret1");
+        String second = store.addAccount("200-token", "secret2");
+        assertEquals("100", first);
+        assertEquals("200", second);
+        assertEquals(2, store.getAccounts().size());
+        // The newest is current
+        assertEquals("200-token", store.getUserToken());
+
+        store.setCurrentAccount(first);
+        store.setAccountName(first, "one");
+        assertEquals("100-token", store.getUserToken());
+        assertEquals("secret2", store.getUserSecret(second));
+        assertEquals("one", store.getAccountName(first));
+        assertEquals(second, store.getAccountName(second));
+
+        store.removeAccount(first);
+        assertEquals(second, store.getCurrentAccount());
+        store.flush();
+
+        TokenStore reloaded = new TokenStore(mDir);
+        reloaded.load(null);
+        assertEquals(1, reloaded.getAccounts().size());
+        assertEquals("200-token", reloaded.getUserToken());
+    }
+
+    public void testMigratesSingleAccount() throws Exception {
+        SharedPreferences legacy = getContext().getSharedPreferences("token_store_test", 0);
+        legacy.edit().putString(App.USER_TOKEN, "300-token").putString(App.USER_SECRET, "secret").commit();
+        TokenStore store = new TokenStore(mDir);
+        store.load(legacy);
+        assertEquals("300", store.getCurrentAccount());
+        assertEquals("300-token", store.getUserToken());
+        store.flush();
+        assertNull(legacy.getString(App.USER_TOKEN, null));
+    }
+}